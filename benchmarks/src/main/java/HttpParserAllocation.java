@@ -0,0 +1,108 @@
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.TreeMap;
+
+// Bytes allocated per parsed request: HttpParser against the old BufferedReader/readLine/split
+// parsing. Uses the per-thread allocation counter of the HotSpot ThreadMXBean.
+//
+//   java -cp benchmarks/target/benchmarks.jar HttpParserAllocation [iterations]
+public class HttpParserAllocation {
+
+    private static final byte[] GET = ("GET /index.html HTTP/1.1\r\n" +
+                                       "Host: localhost:8080\r\n" +
+                                       "User-Agent: Mozilla/5.0 (X11; Linux x86_64; rv:125.0) Gecko/20100101 Firefox/125.0\r\n" +
+                                       "Accept: text/html,application/xhtml+xml,application/xml;q=0.9,*/*;q=0.8\r\n" +
+                                       "Accept-Language: en-US,en;q=0.5\r\n" +
+                                       "Accept-Encoding: gzip, deflate, br\r\n" +
+                                       "Connection: keep-alive\r\n" +
+                                       "Upgrade-Insecure-Requests: 1\r\n" +
+                                       "Cache-Control: max-age=0\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+
+    private static final String FORM = "name=Reza&email=reza%40example.com";
+    private static final byte[] POST = ("POST /submit HTTP/1.1\r\n" +
+                                        "Host: localhost:8080\r\n" +
+                                        "User-Agent: Mozilla/5.0 (X11; Linux x86_64; rv:125.0) Gecko/20100101 Firefox/125.0\r\n" +
+                                        "Content-Type: application/x-www-form-urlencoded\r\n" +
+                                        "Content-Length: " + FORM.length() + "\r\n" +
+                                        "Connection: keep-alive\r\n\r\n" +
+                                        FORM).getBytes(StandardCharsets.US_ASCII);
+
+    private static final InetAddress CLIENT = InetAddress.getLoopbackAddress();
+
+    private static long sink;
+
+    public static void main(String[] args) throws IOException {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        Logger.setLevel(Logger.Level.WARN); // keep request logging out of the figures
+
+        HttpParser parser = new HttpParser(8192, 1024 * 1024);
+
+        // Warm up so the JIT (and escape analysis) has settled
+        for (int i = 0; i < 200_000; i++) {
+            parseNew(parser, GET);
+            parseNew(parser, POST);
+            parseLegacy(GET);
+            parseLegacy(POST);
+        }
+
+        System.out.printf("%-30s %12s%n", "case", "bytes/request");
+        report("HttpParser GET", iterations, () -> parseNew(parser, GET));
+        report("HttpParser POST", iterations, () -> parseNew(parser, POST));
+        report("legacy readLine/split GET", iterations, () -> parseLegacy(GET));
+        report("legacy readLine/split POST", iterations, () -> parseLegacy(POST));
+    }
+
+    private interface Case {
+        void run() throws IOException;
+    }
+
+    private static void report(String name, int iterations, Case c) throws IOException {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+
+        long before = threads.getThreadAllocatedBytes(thread);
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) c.run();
+        long elapsed = System.nanoTime() - start;
+        long allocated = threads.getThreadAllocatedBytes(thread) - before;
+
+        System.out.printf("%-30s %12.1f   (%.0f ns/request)%n", name, (double) allocated / iterations, (double) elapsed / iterations);
+    }
+
+    // What a handler does with a request: method, path, keep-alive decision, body length, body
+    private static void parseNew(HttpParser parser, byte[] request) throws IOException {
+        parser.feed(request, 0, request.length);
+        if (parser.parse(CLIENT) != HttpParser.Result.REQUEST) throw new IllegalStateException("not parsed");
+        HttpRequest r = parser.getRequest();
+        sink += r.getMethod().length() + r.getPath().length() + (r.isKeepAlive() ? 1 : 0);
+        if (r.getMethod().equals("POST")) sink += r.getHeader("Content-Length").length() + r.getBody().length();
+        parser.next();
+    }
+
+    // The parsing the server did before HttpParser: a reader per connection, readLine per line,
+    // split on the request line, case-sensitive startsWith for headers and a char[] body
+    private static void parseLegacy(byte[] request) throws IOException {
+        BufferedReader in = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(request)));
+        String[] tokens = in.readLine().split(" ");
+        Map<String, String> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        int contentLength = -1;
+        String line;
+        while ((line = in.readLine()) != null && !line.isEmpty()) {
+            int colon = line.indexOf(':');
+            headers.put(line.substring(0, colon).trim(), line.substring(colon + 1).trim());
+            if (line.startsWith("Content-Length:")) contentLength = Integer.parseInt(line.substring(15).trim());
+        }
+        sink += tokens[0].length() + tokens[1].length() + headers.size();
+        if (contentLength > 0) {
+            char[] body = new char[contentLength];
+            sink += in.read(body, 0, contentLength);
+            sink += new String(body).length();
+        }
+    }
+}
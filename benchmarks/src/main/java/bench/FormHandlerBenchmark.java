@@ -0,0 +1,66 @@
+package bench;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// FormHandler.parseFormData, isValidFormData and sanitize on a typical and a hostile form.
+// log.level is a parameter because these methods log on every call.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = { "-Dlog.console=false", "-Dlog.overflow=drop" })
+@State(Scope.Thread)
+public class FormHandlerBenchmark {
+
+    @Param({ "simple", "hostile" })
+    public String form;
+
+    @Param({ "DEBUG", "WARN" })
+    public String logLevel;
+
+    private String body;
+    private String key;
+    private String value;
+
+    @Setup
+    public void setup() throws Throwable {
+        ServerClasses.LOG_SET_LEVEL.invokeExact(ServerClasses.level(logLevel));
+        body = switch (form) {
+            case "simple" -> "name=Reza&email=reza%40example.com&city=Tehran&message=Hello+there%2C+nice+site";
+            default -> "comment=%3Cb%3Ebold%3C%2Fb%3E+%22quoted%22+%27single%27&note=a%26b+%3D+c&path=%2Fhome%2Fuser";
+        };
+        @SuppressWarnings("unchecked")
+        Map<String, String> fields = (Map<String, String>) ServerClasses.PARSE_FORM_DATA.invokeExact(body);
+        Map.Entry<String, String> first = fields.entrySet().iterator().next();
+        key = first.getKey();
+        value = first.getValue();
+    }
+
+    @Benchmark
+    public Map<?, ?> parseFormData() throws Throwable {
+        return (Map<?, ?>) ServerClasses.PARSE_FORM_DATA.invokeExact(body);
+    }
+
+    @Benchmark
+    public boolean isValidFormData() throws Throwable {
+        return (boolean) ServerClasses.IS_VALID_FORM_DATA.invokeExact(key, value);
+    }
+
+    @Benchmark
+    public String sanitize() throws Throwable {
+        return (String) ServerClasses.SANITIZE.invokeExact(value);
+    }
+}
@@ -0,0 +1,75 @@
+package bench;
+
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// HttpParser on a browser-like GET and a small form POST. Run with -prof gc for allocation per request.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = { "-Dlog.console=false", "-Dlog.level=WARN" })
+@State(Scope.Thread)
+public class HttpParserBenchmark {
+
+    static final byte[] GET = ("GET /index.html HTTP/1.1\r\n" +
+                               "Host: localhost:8080\r\n" +
+                               "User-Agent: Mozilla/5.0 (X11; Linux x86_64; rv:125.0) Gecko/20100101 Firefox/125.0\r\n" +
+                               "Accept: text/html,application/xhtml+xml,application/xml;q=0.9,*/*;q=0.8\r\n" +
+                               "Accept-Language: en-US,en;q=0.5\r\n" +
+                               "Accept-Encoding: gzip, deflate, br\r\n" +
+                               "Connection: keep-alive\r\n" +
+                               "Upgrade-Insecure-Requests: 1\r\n" +
+                               "Cache-Control: max-age=0\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+
+    static final String FORM = "name=Reza&email=reza%40example.com";
+    static final byte[] POST = ("POST /submit HTTP/1.1\r\n" +
+                                "Host: localhost:8080\r\n" +
+                                "Content-Type: application/x-www-form-urlencoded\r\n" +
+                                "Content-Length: " + FORM.length() + "\r\n" +
+                                "Connection: keep-alive\r\n\r\n" +
+                                FORM).getBytes(StandardCharsets.US_ASCII);
+
+    private static final InetAddress CLIENT = InetAddress.getLoopbackAddress();
+
+    private Object parser;
+
+    @Setup
+    public void setup() throws Throwable {
+        parser = ServerClasses.NEW_HTTP_PARSER.invokeExact(8192, 1024 * 1024);
+    }
+
+    @Benchmark
+    public String parseGet() throws Throwable {
+        return parse(GET, false);
+    }
+
+    @Benchmark
+    public String parsePost() throws Throwable {
+        return parse(POST, true);
+    }
+
+    private String parse(byte[] request, boolean readBody) throws Throwable {
+        ServerClasses.PARSER_FEED.invokeExact(parser, request, 0, request.length);
+        Object result = ServerClasses.PARSER_PARSE.invokeExact(parser, CLIENT);
+        if (result != ServerClasses.PARSE_RESULT_REQUEST) throw new IllegalStateException("Request not parsed: " + result);
+
+        Object r = ServerClasses.PARSER_GET_REQUEST.invokeExact(parser);
+        String value = readBody ? (String) ServerClasses.REQUEST_GET_BODY.invokeExact(r)
+                                : (String) ServerClasses.REQUEST_GET_HEADER.invokeExact(r, "Host");
+        ServerClasses.PARSER_NEXT.invokeExact(parser);
+        return value;
+    }
+}
@@ -0,0 +1,218 @@
+package bench;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+// Loopback load generator for a running server: static GETs and form POSTs over keep-alive
+// connections, one thread per connection, for each connection count in turn. Reports
+// requests/sec and p50/p99/p99.9 latency.
+//
+//   java -cp benchmarks/target/benchmarks.jar bench.LoadGenerator [--host=localhost] [--port=8080]
+//        [--connections=1,8,64] [--duration=10] [--warmup=3] [--mode=get,post]
+//        [--get-path=/index.html] [--post-path=/submit] [--keepalive=true]
+//
+// Closed loop: each connection sends its next request when the previous response is in, so under
+// overload the latencies understate what an open-loop client would see (coordinated omission).
+public class LoadGenerator {
+
+    private static final String FORM = "name=load&email=load%40example.com&message=Hello+from+the+load+generator";
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            if (!arg.startsWith("--")) throw new IllegalArgumentException("Unknown argument " + arg);
+            String[] parts = arg.substring(2).split("=", 2);
+            options.put(parts[0], parts.length == 2 ? parts[1] : "true");
+        }
+
+        InetSocketAddress address = new InetSocketAddress(options.getOrDefault("host", "localhost"),
+                                                          Integer.parseInt(options.getOrDefault("port", "8080")));
+        int duration = Integer.parseInt(options.getOrDefault("duration", "10"));
+        int warmup = Integer.parseInt(options.getOrDefault("warmup", "3"));
+        boolean keepAlive = Boolean.parseBoolean(options.getOrDefault("keepalive", "true"));
+        String connection = keepAlive ? "keep-alive" : "close";
+
+        System.out.printf("%-5s %6s %10s %9s %9s %9s %8s%n", "mode", "conns", "req/s", "p50 ms", "p99 ms", "p99.9 ms", "errors");
+        for (String mode : options.getOrDefault("mode", "get,post").split(",")) {
+            byte[] request = switch (mode) {
+                case "get" -> ("GET " + options.getOrDefault("get-path", "/index.html") + " HTTP/1.1\r\n" +
+                               "Host: localhost\r\nConnection: " + connection + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+                case "post" -> ("POST " + options.getOrDefault("post-path", "/submit") + " HTTP/1.1\r\n" +
+                                "Host: localhost\r\nContent-Type: application/x-www-form-urlencoded\r\n" +
+                                "Content-Length: " + FORM.length() + "\r\nConnection: " + connection + "\r\n\r\n" +
+                                FORM).getBytes(StandardCharsets.US_ASCII);
+                default -> throw new IllegalArgumentException("Unknown mode " + mode);
+            };
+
+            for (String count : options.getOrDefault("connections", "1,8,64").split(",")) {
+                run(mode, address, request, Integer.parseInt(count.trim()), warmup, duration);
+            }
+        }
+    }
+
+    private static void run(String mode, InetSocketAddress address, byte[] request, int connections,
+                            int warmupSeconds, int durationSeconds) throws InterruptedException {
+        List<Client> clients = new ArrayList<>();
+        CountDownLatch done = new CountDownLatch(connections);
+        long start = System.nanoTime();
+        long measureFrom = start + warmupSeconds * 1_000_000_000L;
+        long end = measureFrom + durationSeconds * 1_000_000_000L;
+
+        for (int i = 0; i < connections; i++) {
+            Client client = new Client(address, request, measureFrom, end, done);
+            clients.add(client);
+            Thread t = new Thread(client, "load-" + i);
+            t.setDaemon(true);
+            t.start();
+        }
+        done.await();
+
+        long requests = 0;
+        long errors = 0;
+        long[] all = new long[0];
+        for (Client client : clients) {
+            requests += client.count;
+            errors += client.errors;
+            long[] mine = Arrays.copyOf(client.latencies, client.count);
+            long[] merged = Arrays.copyOf(all, all.length + mine.length);
+            System.arraycopy(mine, 0, merged, all.length, mine.length);
+            all = merged;
+        }
+        Arrays.sort(all);
+
+        System.out.printf("%-5s %6d %10.0f %9.2f %9.2f %9.2f %8d%n", mode, connections,
+                          requests / (double) durationSeconds,
+                          percentile(all, 0.50), percentile(all, 0.99), percentile(all, 0.999), errors);
+    }
+
+    private static double percentile(long[] sorted, double p) {
+        if (sorted.length == 0) return Double.NaN;
+        int index = (int) Math.min(sorted.length - 1, Math.ceil(p * sorted.length) - 1);
+        return sorted[Math.max(index, 0)] / 1_000_000.0;
+    }
+
+    private static final class Client implements Runnable {
+        private final InetSocketAddress address;
+        private final byte[] request;
+        private final long measureFrom;
+        private final long end;
+        private final CountDownLatch done;
+
+        long[] latencies = new long[1 << 16];
+        int count = 0;
+        long errors = 0;
+
+        private Socket socket;
+        private InputStream in;
+        private OutputStream out;
+
+        Client(InetSocketAddress address, byte[] request, long measureFrom, long end, CountDownLatch done) {
+            this.address = address;
+            this.request = request;
+            this.measureFrom = measureFrom;
+            this.end = end;
+            this.done = done;
+        }
+
+        @Override
+        public void run() {
+            try {
+                long now;
+                while ((now = System.nanoTime()) < end) {
+                    boolean ok;
+                    try {
+                        if (socket == null) connect();
+                        out.write(request);
+                        out.flush();
+                        ok = readResponse();
+                    } catch (IOException e) {
+                        ok = false;
+                        disconnect();
+                    }
+                    long finished = System.nanoTime();
+
+                    if (now < measureFrom) continue;
+                    if (!ok) {
+                        errors++;
+                        continue;
+                    }
+                    if (count == latencies.length) latencies = Arrays.copyOf(latencies, count * 2);
+                    latencies[count++] = finished - now;
+                }
+            } finally {
+                disconnect();
+                done.countDown();
+            }
+        }
+
+        private void connect() throws IOException {
+            socket = new Socket();
+            socket.setTcpNoDelay(true);
+            socket.connect(address, 5000);
+            socket.setSoTimeout(10_000);
+            in = new BufferedInputStream(socket.getInputStream(), 64 * 1024);
+            out = socket.getOutputStream();
+        }
+
+        private void disconnect() {
+            if (socket == null) return;
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+            }
+            socket = null;
+        }
+
+        // Reads one response; true for a 2xx. Closes the socket when the server asks for it.
+        private boolean readResponse() throws IOException {
+            String statusLine = readLine();
+            int status = statusLine.length() >= 12 ? Integer.parseInt(statusLine.substring(9, 12)) : 0;
+            long contentLength = 0;
+            boolean close = false;
+
+            String line;
+            while (!(line = readLine()).isEmpty()) {
+                int colon = line.indexOf(':');
+                if (colon < 0) continue;
+                String name = line.substring(0, colon).trim();
+                String value = line.substring(colon + 1).trim();
+                if (name.equalsIgnoreCase("Content-Length")) contentLength = Long.parseLong(value);
+                if (name.equalsIgnoreCase("Connection") && value.equalsIgnoreCase("close")) close = true;
+            }
+
+            while (contentLength > 0) {
+                long skipped = in.skip(contentLength);
+                if (skipped <= 0) {
+                    if (in.read() < 0) throw new EOFException("Response body truncated");
+                    skipped = 1;
+                }
+                contentLength -= skipped;
+            }
+
+            if (close) disconnect();
+            return status >= 200 && status < 300;
+        }
+
+        private String readLine() throws IOException {
+            StringBuilder line = new StringBuilder(64);
+            int b;
+            while ((b = in.read()) != '\n') {
+                if (b < 0) throw new EOFException("Connection closed mid-response");
+                if (b != '\r') line.append((char) b);
+            }
+            return line.toString();
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Logger.log from one and from four threads, async (default) and synchronous. Lines go to
+// logs/server.log under the working directory; the console is off. With log.overflow=block the
+// figure includes waiting for the writer thread, i.e. the sustained rate the disk allows.
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@State(Scope.Benchmark)
+public class LoggerBenchmark {
+
+    private static final String MESSAGE = "Served file: www/index.html (text/html)";
+
+    @TearDown
+    public void flush() throws Throwable {
+        ServerClasses.LOG_FLUSH.invokeExact();
+    }
+
+    @Benchmark
+    @Threads(1)
+    @Fork(value = 1, jvmArgsAppend = { "-Dlog.console=false", "-Dlog.overflow=block" })
+    public void async1() throws Throwable {
+        ServerClasses.LOG.invokeExact(ServerClasses.LEVEL_INFO, MESSAGE);
+    }
+
+    @Benchmark
+    @Threads(4)
+    @Fork(value = 1, jvmArgsAppend = { "-Dlog.console=false", "-Dlog.overflow=block" })
+    public void async4() throws Throwable {
+        ServerClasses.LOG.invokeExact(ServerClasses.LEVEL_INFO, MESSAGE);
+    }
+
+    @Benchmark
+    @Threads(1)
+    @Fork(value = 1, jvmArgsAppend = { "-Dlog.console=false", "-Dlog.async=false" })
+    public void sync1() throws Throwable {
+        ServerClasses.LOG.invokeExact(ServerClasses.LEVEL_INFO, MESSAGE);
+    }
+
+    @Benchmark
+    @Threads(4)
+    @Fork(value = 1, jvmArgsAppend = { "-Dlog.console=false", "-Dlog.async=false" })
+    public void sync4() throws Throwable {
+        ServerClasses.LOG.invokeExact(ServerClasses.LEVEL_INFO, MESSAGE);
+    }
+
+    // A message below the threshold: the cost every disabled DEBUG call site pays
+    @Benchmark
+    @Threads(1)
+    @Fork(value = 1, jvmArgsAppend = { "-Dlog.console=false", "-Dlog.level=WARN" })
+    public void filtered() throws Throwable {
+        ServerClasses.LOG.invokeExact(ServerClasses.LEVEL_INFO, MESSAGE);
+    }
+}
@@ -0,0 +1,61 @@
+package bench;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+
+// A Socket that is never connected: RequestHandler reads a canned request from memory and its
+// response goes to a counting sink, so handler cost is measured without the network stack.
+// getChannel() stays null, so large files go through the copy fallback instead of transferTo.
+final class MemorySocket extends Socket {
+
+    private final byte[] request;
+    private final CountingOutputStream out = new CountingOutputStream();
+
+    MemorySocket(byte[] request) {
+        this.request = request;
+    }
+
+    @Override
+    public InputStream getInputStream() {
+        return new ByteArrayInputStream(request);
+    }
+
+    @Override
+    public OutputStream getOutputStream() {
+        return out;
+    }
+
+    @Override
+    public InetAddress getInetAddress() {
+        return InetAddress.getLoopbackAddress();
+    }
+
+    @Override
+    public void setSoTimeout(int timeout) {
+    }
+
+    @Override
+    public void close() {
+    }
+
+    long bytesWritten() {
+        return out.count;
+    }
+
+    private static final class CountingOutputStream extends OutputStream {
+        long count;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+}
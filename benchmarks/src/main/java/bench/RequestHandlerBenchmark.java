@@ -0,0 +1,94 @@
+package bench;
+
+import java.io.File;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// One RequestHandler run per invocation over an in-memory socket: parse, dispatch, respond.
+// Needs the www/ directory in the working directory; POSTs append to submissions/ there
+// (in-process saver, no fsync, so the figure is the handler and not the disk).
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@State(Scope.Thread)
+public class RequestHandlerBenchmark {
+
+    private static final String FORM = "name=Reza&email=reza%40example.com&message=Hello+there";
+
+    private MemorySocket getSmall;
+    private MemorySocket getLarge;
+    private MemorySocket getMissing;
+    private MemorySocket post;
+
+    @Setup
+    public void setup() {
+        if (!new File("www/index.html").isFile()) {
+            throw new IllegalStateException("Run the benchmarks from a directory containing the server's www/ folder");
+        }
+        getSmall = new MemorySocket(request("GET /index.html HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n"));
+        getLarge = new MemorySocket(request("GET /test2.png HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n"));
+        getMissing = new MemorySocket(request("GET /missing.html HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n"));
+        post = new MemorySocket(request("POST /submit HTTP/1.1\r\nHost: localhost\r\n" +
+                                        "Content-Type: application/x-www-form-urlencoded\r\n" +
+                                        "Content-Length: " + FORM.length() + "\r\nConnection: close\r\n\r\n" + FORM));
+    }
+
+    private static byte[] request(String text) {
+        return text.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    // Small file answered from the static file cache
+    @Benchmark
+    @Fork(value = 1, jvmArgsAppend = { "-Dlog.console=false", "-Dlog.level=WARN" })
+    public long getCached() throws Throwable {
+        return run(getSmall);
+    }
+
+    // 200 KB file read from disk on every request (cache off), streamed through the copy buffer
+    @Benchmark
+    @Fork(value = 1, jvmArgsAppend = { "-Dlog.console=false", "-Dlog.level=WARN", "-Dcache.maxBytes=0",
+                                       "-Dserver.zeroCopyThresholdBytes=65536" })
+    public long getLargeUncached() throws Throwable {
+        return run(getLarge);
+    }
+
+    @Benchmark
+    @Fork(value = 1, jvmArgsAppend = { "-Dlog.console=false", "-Dlog.level=ERROR" })
+    public long getNotFound() throws Throwable {
+        return run(getMissing);
+    }
+
+    @Benchmark
+    @Fork(value = 1, jvmArgsAppend = { "-Dlog.console=false", "-Dlog.level=WARN",
+                                       "-Dsaver.mode=inprocess", "-Dsaver.fsync=none" })
+    public long postForm() throws Throwable {
+        return run(post);
+    }
+
+    // Same as getCached with the default DEBUG logging, to show what logging costs per request
+    @Benchmark
+    @Fork(value = 1, jvmArgsAppend = { "-Dlog.console=false" })
+    public long getCachedDebugLogging() throws Throwable {
+        return run(getSmall);
+    }
+
+    private static long run(MemorySocket socket) throws Throwable {
+        long before = socket.bytesWritten();
+        Runnable handler = (Runnable) ServerClasses.NEW_REQUEST_HANDLER.invokeExact((Socket) socket);
+        handler.run();
+        return socket.bytesWritten() - before;
+    }
+}
@@ -0,0 +1,112 @@
+package bench;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.Map;
+
+// The server lives in the unnamed package, which Java code in a named package (required by JMH)
+// cannot refer to. These handles reach it instead; as static finals invoked with invokeExact
+// they are constant-folded by the JIT and cost the same as a direct call.
+final class ServerClasses {
+
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+
+    static final MethodHandle PARSE_FORM_DATA = findStatic("FormHandler", "parseFormData",
+            MethodType.methodType(Map.class, String.class));
+    static final MethodHandle IS_VALID_FORM_DATA = findStatic("FormHandler", "isValidFormData",
+            MethodType.methodType(boolean.class, String.class, String.class));
+    static final MethodHandle SANITIZE = findStatic("FormHandler", "sanitize",
+            MethodType.methodType(String.class, String.class));
+
+    // (Object level, String message)void, level being a Logger.Level constant
+    static final MethodHandle LOG = findStatic("Logger", "log",
+            MethodType.methodType(void.class, type("Logger$Level"), String.class))
+            .asType(MethodType.methodType(void.class, Object.class, String.class));
+    static final MethodHandle LOG_SET_LEVEL = findStatic("Logger", "setLevel",
+            MethodType.methodType(void.class, type("Logger$Level")))
+            .asType(MethodType.methodType(void.class, Object.class));
+    static final MethodHandle LOG_FLUSH = findStatic("Logger", "flush", MethodType.methodType(void.class));
+
+    // (Socket)Runnable
+    static final MethodHandle NEW_REQUEST_HANDLER = findConstructor("RequestHandler",
+            MethodType.methodType(void.class, Socket.class))
+            .asType(MethodType.methodType(Runnable.class, Socket.class));
+
+    // HttpParser: (int, int)Object, (Object, byte[], int, int)void, (Object, InetAddress)Object, (Object)Object, (Object)void
+    static final MethodHandle NEW_HTTP_PARSER = findConstructor("HttpParser",
+            MethodType.methodType(void.class, int.class, int.class))
+            .asType(MethodType.methodType(Object.class, int.class, int.class));
+    static final MethodHandle PARSER_FEED = findVirtual("HttpParser", "feed",
+            MethodType.methodType(void.class, byte[].class, int.class, int.class));
+    static final MethodHandle PARSER_PARSE = findVirtual("HttpParser", "parse",
+            MethodType.methodType(type("HttpParser$Result"), InetAddress.class));
+    static final MethodHandle PARSER_GET_REQUEST = findVirtual("HttpParser", "getRequest",
+            MethodType.methodType(type("HttpRequest")));
+    static final MethodHandle PARSER_NEXT = findVirtual("HttpParser", "next", MethodType.methodType(void.class));
+
+    // HttpRequest: (Object)String, (Object, String)String
+    static final MethodHandle REQUEST_GET_HEADER = findVirtual("HttpRequest", "getHeader",
+            MethodType.methodType(String.class, String.class));
+    static final MethodHandle REQUEST_GET_BODY = findVirtual("HttpRequest", "getBody", MethodType.methodType(String.class));
+
+    // Metrics.recordRequest(String method, int route, int status, long nanos)
+    static final MethodHandle RECORD_REQUEST = findStatic("Metrics", "recordRequest",
+            MethodType.methodType(void.class, String.class, int.class, int.class, long.class));
+
+    static final Object LEVEL_INFO = level("INFO");
+    static final Object PARSE_RESULT_REQUEST = enumConstant("HttpParser$Result", "REQUEST");
+
+    private ServerClasses() {
+    }
+
+    static Class<?> type(String name) {
+        try {
+            return Class.forName(name);
+        } catch (ClassNotFoundException e) {
+            throw new IllegalStateException("Server class " + name + " not on the class path", e);
+        }
+    }
+
+    static Object level(String name) {
+        return enumConstant("Logger$Level", name);
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private static Object enumConstant(String type, String name) {
+        return Enum.valueOf((Class) type(type), name);
+    }
+
+    private static MethodHandle findStatic(String type, String name, MethodType methodType) {
+        try {
+            return MethodHandles.privateLookupIn(type(type), LOOKUP).findStatic(type(type), name, methodType);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static MethodHandle findVirtual(String type, String name, MethodType methodType) {
+        try {
+            Class<?> owner = type(type);
+            return MethodHandles.privateLookupIn(owner, LOOKUP).findVirtual(owner, name, methodType)
+                    .asType(methodType.changeReturnType(generic(methodType.returnType())).insertParameterTypes(0, Object.class));
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static MethodHandle findConstructor(String type, MethodType methodType) {
+        try {
+            return MethodHandles.privateLookupIn(type(type), LOOKUP).findConstructor(type(type), methodType);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // Server types in signatures become Object; JDK types are kept
+    private static Class<?> generic(Class<?> type) {
+        return type.isPrimitive() || type.getPackageName().startsWith("java.") ? type : Object.class;
+    }
+}
@@ -0,0 +1,32 @@
+#!/bin/sh
+# Builds AppCDS class data archives for the server and the IsolatedFormSaver worker, so their JVMs
+# start with the classes they use already parsed and verified. Run it after every compile, with the
+# JDK that runs the server, from the directory the server runs in; an archive that no longer
+# matches the classes or the JDK is ignored (with a warning) rather than used.
+#   javac -d out src/*.java && ./cds.sh            (or ./cds.sh server/target/web-server.jar)
+# Archived classes must come from a jar, so out/ is packed into cds/web-server.jar first. Then
+# start the server with the same class path:
+#   java -XX:SharedArchiveFile=cds/server.jsa -cp cds/web-server.jar Server
+# The server starts its savers with cds/saver.jsa by itself (saver.classArchive).
+set -e
+CLASSES=${1:-out}
+mkdir -p cds
+if [ -d "$CLASSES" ]; then
+    jar --create --file cds/web-server.jar -C "$CLASSES" .
+    CP=cds/web-server.jar
+else
+    CP=$CLASSES
+fi
+SCRATCH=$(mktemp -d)
+trap 'rm -rf "$SCRATCH"' EXIT
+
+# Server: preloads the document roots, runs the self-warmup and exits; the classes it loaded go in
+# the archive. Its log and any submission store go to the scratch directory.
+java -XX:ArchiveClassesAtExit=cds/server.jsa -cp "$CP" Server --warmup.exitAfter=true \
+    --log.dir="$SCRATCH/logs" --saver.dir="$SCRATCH/submissions" --log.console=false --config.reloadSeconds=0
+
+# Saver: one submission through the worker's pipe protocol (1 submission, 1 field, name=cds)
+printf '\000\000\000\001\000\000\000\001\000\004name\000\003cds' |
+    java -XX:ArchiveClassesAtExit=cds/saver.jsa -cp "$CP" IsolatedFormSaver --daemon --dir="$SCRATCH/submissions" > /dev/null
+
+echo "Wrote cds/server.jsa and cds/saver.jsa for class path $CP"
@@ -0,0 +1,247 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+// The streaming body decoders:
+// - FormBodyDecoder (through FormHandler.parseFormData, and fed one byte per read) against the
+//   original split/URLDecoder implementation, kept below verbatim minus its logging;
+// - MultipartFormReader against the fields and files a random multipart body was built from,
+//   read in small random pieces so boundaries and escapes straddle reads.
+class FormDecoderEquivalenceTest {
+
+    private static final String[] FRAGMENTS = {
+        "&", "=", "+", "%", "%2", "%41", "%3D", "%26", "%2B", "%C3", "%A9", "%C3%A9", "%E6%97%A5", "%F0%9F%98%80",
+        "%zz", "%4", "%%", "a", "name", "x", "1", " ", "é", "日本", "😀", "&&", "==", "ÿ"
+    };
+
+    // URLDecoder parses escapes with Integer.parseInt, which also takes "%+1" and non-ASCII digits;
+    // the new decoder only accepts ASCII hex digits, so such inputs are not compared
+    private static final Pattern LENIENT_ESCAPE = Pattern.compile("%(?:[+-]|.?[^\\x00-\\x7F])");
+
+    private static final int RANDOM_CASES = 100_000;
+    private static final int MULTIPART_CASES = 1000;
+
+    private final List<String> failures = new ArrayList<>();
+    private Logger.Level level;
+
+    @TempDir
+    Path dir;
+
+    @BeforeEach
+    void quiet() {
+        level = Logger.getLevel();
+        Logger.setLevel(Logger.Level.ERROR);   // malformed pairs would otherwise log a WARN each
+    }
+
+    @AfterEach
+    void restore() {
+        Logger.setLevel(level);
+    }
+
+    @Test
+    void urlencodedSamples() throws IOException {
+        String[] samples = {
+            "", "a", "a=", "=b", "=", "a=1", "a=1&b=2", "a=1&&b=2", "&a=1", "a=1&", "a=b=c", "a=1&a=2", "a%3Db=c",
+            "a=%", "a=%4", "a=%41", "a=%4G&b=2", "%=1", "a=+", "a=%C3%A9", "a=%C3+%A9", "a=é%A9", "a=%C3é",
+            "a=%F0%9F%98", "a=%E6%97%A5%E6", "name=Reza&email=reza%40example.com&message=Hello+there"
+        };
+        for (String sample : samples) {
+            checkUrlencoded(sample);
+        }
+        assertNoFailures();
+    }
+
+    @Test
+    void urlencodedRandomFragments() throws IOException {
+        SplittableRandom random = new SplittableRandom(7);
+        for (int i = 0; i < RANDOM_CASES && failures.size() < 20; i++) {
+            StringBuilder sb = new StringBuilder();
+            int parts = random.nextInt(16);
+            for (int j = 0; j < parts; j++) {
+                sb.append(FRAGMENTS[random.nextInt(FRAGMENTS.length)]);
+            }
+            checkUrlencoded(sb.toString());
+        }
+        assertNoFailures();
+    }
+
+    @Test
+    void multipartRandomBodies() throws IOException {
+        SplittableRandom random = new SplittableRandom(7);
+        for (int i = 0; i < MULTIPART_CASES && failures.size() < 20; i++) {
+            checkMultipart(random);
+        }
+        assertNoFailures();
+        try (Stream<Path> left = Files.list(dir)) {
+            assertEquals(0, left.count(), "uploads left behind");
+        }
+    }
+
+    // The last of a repeated name wins, as in urlencoded forms, and the file it replaces is gone
+    @Test
+    void multipartRepeatedFileField() throws IOException {
+        String boundary = "----repeat";
+        String body = "--" + boundary + "\r\n" +
+                      "Content-Disposition: form-data; name=\"doc\"; filename=\"a.txt\"\r\n\r\none\r\n" +
+                      "--" + boundary + "\r\n" +
+                      "Content-Disposition: form-data; name=\"doc\"; filename=\"b.txt\"\r\n\r\ntwo\r\n" +
+                      "--" + boundary + "--\r\n";
+        MultipartFormReader reader = new MultipartFormReader(boundary, 256, 8192, dir);
+        Map<String, String> result = new HashMap<>();
+        assertTrue(reader.read(new ByteArrayInputStream(body.getBytes(StandardCharsets.US_ASCII)), result));
+
+        assertEquals(1, reader.getUploads().size());
+        assertEquals("two", Files.readString(dir.resolve(result.get("doc"))));
+        try (Stream<Path> files = Files.list(dir)) {
+            assertEquals(1, files.count());
+        }
+        reader.deleteUploads();
+    }
+
+    private void assertNoFailures() {
+        assertTrue(failures.isEmpty(), () -> "Mismatch in " + failures.size() + " case(s):\n" + String.join("\n", failures));
+    }
+
+    private void checkUrlencoded(String body) throws IOException {
+        if (LENIENT_ESCAPE.matcher(body).find()) return;
+
+        Map<String, String> expected = legacyParseFormData(body);
+        Map<String, String> actual = FormHandler.parseFormData(body);
+
+        Map<String, String> trickled = new HashMap<>();
+        boolean ok = FormBodyDecoder.fromConfig().decode(new TrickleInputStream(body.getBytes(StandardCharsets.UTF_8), null), trickled);
+
+        if (!expected.equals(actual) || !expected.equals(trickled) || !ok) {
+            failures.add("  body [" + body + "]\n    expected: " + expected + "\n    actual:   " + actual + "\n    trickled: " + trickled);
+        }
+    }
+
+    private void checkMultipart(SplittableRandom random) throws IOException {
+        String boundary = "----b" + Long.toHexString(random.nextLong());
+        Map<String, String> fields = new LinkedHashMap<>();
+        Map<String, byte[]> files = new LinkedHashMap<>();
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+
+        write(body, "preamble\r\n");
+        int parts = 1 + random.nextInt(5);
+        for (int i = 0; i < parts; i++) {
+            write(body, "--" + boundary + "\r\n");
+            if (random.nextBoolean()) {
+                String name = "f" + i;
+                String value = randomText(random);
+                fields.put(name, value);
+                write(body, "Content-Disposition: form-data; name=\"" + name + "\"\r\n\r\n" + value + "\r\n");
+            } else {
+                String name = "file" + i;
+                byte[] content = new byte[random.nextInt(4) == 0 ? random.nextInt(100_000) : random.nextInt(200)];
+                random.nextBytes(content);
+                // Near-misses of the delimiter inside the content
+                if (content.length > 40 && random.nextBoolean()) {
+                    byte[] nearMiss = ("\r\n--" + boundary.substring(0, boundary.length() - 1) + "_").getBytes(StandardCharsets.ISO_8859_1);
+                    int at = random.nextInt(content.length - nearMiss.length);
+                    System.arraycopy(nearMiss, 0, content, at, nearMiss.length);
+                }
+                files.put(name, content);
+                write(body, "Content-Disposition: form-data; name=\"" + name + "\"; filename=\"data.bin\"\r\n" +
+                            "Content-Type: application/octet-stream\r\n\r\n");
+                body.write(content);
+                write(body, "\r\n");
+            }
+        }
+        write(body, "--" + boundary + "--\r\nepilogue");
+
+        MultipartFormReader reader = new MultipartFormReader(boundary, 256, 8192, dir);
+        Map<String, String> result = new HashMap<>();
+        boolean ok = reader.read(new TrickleInputStream(body.toByteArray(), random), result);
+
+        boolean same = ok && result.size() == fields.size() + files.size();
+        for (Map.Entry<String, String> field : fields.entrySet()) {
+            same &= field.getValue().equals(result.get(field.getKey()));
+        }
+        for (Map.Entry<String, byte[]> file : files.entrySet()) {
+            String stored = result.get(file.getKey());
+            same &= stored != null && Arrays.equals(file.getValue(), Files.readAllBytes(dir.resolve(stored)));
+        }
+        reader.deleteUploads();
+
+        if (!same) {
+            failures.add("  multipart with " + parts + " part(s), ok=" + ok + " (" + reader.getErrorReason() + ")\n    fields: " + fields.keySet() + " files: " + files.keySet() + "\n    result: " + result);
+        }
+    }
+
+    private static String randomText(SplittableRandom random) {
+        StringBuilder sb = new StringBuilder();
+        int n = random.nextInt(30);
+        for (int i = 0; i < n; i++) {
+            sb.append(FRAGMENTS[random.nextInt(FRAGMENTS.length)]);
+        }
+        return sb.toString();
+    }
+
+    private static void write(ByteArrayOutputStream out, String text) {
+        out.writeBytes(text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    // Hands out one byte per read, or a random few when given a random source
+    private static final class TrickleInputStream extends FilterInputStream {
+        private final SplittableRandom random;
+
+        TrickleInputStream(byte[] data, SplittableRandom random) {
+            super(new ByteArrayInputStream(data));
+            this.random = random;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = random == null ? 1 : 1 + random.nextInt(random.nextBoolean() ? 8 : 20_000);
+            return super.read(b, off, Math.min(len, n));
+        }
+    }
+
+    // ---- The original implementation ----
+
+    private static Map<String, String> legacyParseFormData(String data) {
+        Map<String, String> result = new HashMap<>();
+        if (data == null || data.isEmpty()) {
+            return result;
+        }
+
+        String[] pairs = data.split("&");
+
+        for (String pair : pairs) {
+            String[] keyValue = pair.split("=", 2); // limit = 2 in case value contains '='
+            if (keyValue.length == 2) {
+                try {
+                    String key = URLDecoder.decode(keyValue[0], StandardCharsets.UTF_8);
+                    String value = URLDecoder.decode(keyValue[1], StandardCharsets.UTF_8);
+                    result.put(key, value);
+                } catch (IllegalArgumentException e) {
+                    // skipped
+                }
+            }
+        }
+        return result;
+    }
+}
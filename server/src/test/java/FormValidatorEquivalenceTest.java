@@ -0,0 +1,161 @@
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.SplittableRandom;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+// FormHandler's single-pass validator and escaper against the original implementations (kept
+// below verbatim apart from returning the rejection message instead of logging it): same
+// accept/reject decision, same reported reason, same escaped text.
+class FormValidatorEquivalenceTest {
+
+    private static final char[] ALPHABET = { '$', '(', '&', '|', ';', '`', '.', '<', '>', '/', 'j', 'a', '"', '\'', ' ', 'x' };
+
+    private static final String[] FRAGMENTS = {
+        "<script>", "</script>", "javascript:", "<scrip", "</scrip", "javascript", "JavaScript:", "<SCRIPT>",
+        "$(", "$", "(", "&&", "&", "||", "|", ";", "`", "..", ".", "/", "<", ">", "\"", "'",
+        "a", "name", " ", "\t", "é", "日本", "😀", "x", "1", "=", "%"
+    };
+
+    private static final int RANDOM_CASES = 200_000;
+
+    private final List<String> failures = new ArrayList<>();
+    private Logger.Level level;
+
+    @BeforeEach
+    void quiet() {
+        level = Logger.getLevel();
+        Logger.setLevel(Logger.Level.ERROR);   // rejections would otherwise log a WARN each
+    }
+
+    @AfterEach
+    void restore() {
+        Logger.setLevel(level);
+    }
+
+    @Test
+    void handPickedEdgeCases() {
+        String[] samples = {
+            "", " ", "  a  ", "a", "..", ".", "a.b", "a..b", "<script>", "</script>", "<script", "javascript:",
+            "javascript", "$(", "$", "`", ";", "|", "&", "&&", "||", "a$(b;c", "x;y$", "..;", ";..", "<b>",
+            "\"q\"", "'s'", "a<b>c&d", "x".repeat(100), "x".repeat(101), " " + "x".repeat(100) + " ", "é..", "😀$"
+        };
+        for (String key : samples) {
+            for (String value : samples) {
+                check(key, value);
+            }
+        }
+        assertNoFailures();
+    }
+
+    // Every string of up to four characters from the interesting alphabet, as value and as key
+    @Test
+    void allShortStrings() {
+        StringBuilder sb = new StringBuilder();
+        for (int length = 1; length <= 4; length++) {
+            int combinations = (int) Math.pow(ALPHABET.length, length);
+            for (int n = 0; n < combinations; n++) {
+                sb.setLength(0);
+                for (int i = 0, rest = n; i < length; i++, rest /= ALPHABET.length) {
+                    sb.append(ALPHABET[rest % ALPHABET.length]);
+                }
+                String s = sb.toString();
+                check("k", s);
+                check(s, "v");
+            }
+        }
+        assertNoFailures();
+    }
+
+    // Random concatenations of pattern fragments, long enough to cross the 100-char limit now and then
+    @Test
+    void randomFragments() {
+        SplittableRandom random = new SplittableRandom(42);
+        for (int i = 0; i < RANDOM_CASES && failures.size() < 20; i++) {
+            check(randomString(random), randomString(random));
+        }
+        assertNoFailures();
+    }
+
+    private void assertNoFailures() {
+        assertTrue(failures.isEmpty(), () -> "Mismatch in " + failures.size() + " case(s):\n" + String.join("\n", failures));
+    }
+
+    private static String randomString(SplittableRandom random) {
+        StringBuilder sb = new StringBuilder();
+        int parts = random.nextInt(random.nextInt(10) == 0 ? 60 : 8);
+        for (int i = 0; i < parts; i++) {
+            sb.append(FRAGMENTS[random.nextInt(FRAGMENTS.length)]);
+        }
+        return sb.toString();
+    }
+
+    private void check(String key, String value) {
+        if (failures.size() >= 20) return;
+
+        String expected = legacyRejection(key, value);
+        String actual = FormHandler.rejectionReason(key, value);
+        boolean valid = FormHandler.isValidFormData(key, value);
+
+        if (!Objects.equals(expected, actual) || valid != (expected == null)) {
+            failures.add("  validate key=[" + key + "] value=[" + value + "]\n    expected: " + expected + "\n    actual:   " + actual + " (valid=" + valid + ")");
+        }
+
+        for (String s : new String[] { key, value }) {
+            String escaped = legacySanitize(s);
+            StringBuilder appended = new StringBuilder("prefix:");
+            FormHandler.appendEscaped(appended, s);
+            if (!escaped.equals(FormHandler.sanitize(s)) || !("prefix:" + escaped).contentEquals(appended)) {
+                failures.add("  escape [" + s + "]\n    expected: " + escaped + "\n    sanitize: " + FormHandler.sanitize(s) + "\n    append:   " + appended);
+            }
+        }
+    }
+
+    // ---- The original implementations ----
+
+    private static String legacyRejection(String key, String value) {
+        key = key.trim();
+        value = value.trim();
+
+        // Reject if too long
+        if (key.length() > 100 || value.length() > 100) {
+            return "Input too long: key='" + key + "' (" + key.length() + "), value='" + value + "' (" + value.length() + ")";
+        }
+
+        // Reject if empty
+        if (key.isEmpty() || value.isEmpty()) {
+            return "Empty key or value: key='" + key + "', value='" + value + "'";
+        }
+
+        // Reject path traversal
+        if (key.contains("..") || value.contains("..")) {
+            return "Path traversal attempt detected: key='" + key + "', value='" + value + "'";
+        }
+
+        // Dangerous patterns
+        String[] dangerousPatterns = {
+            "<script>", "</script>", "javascript:", "$(", "`", ";", "|", "&", "&&", "||", "$"
+        };
+
+        for (String pattern : dangerousPatterns) {
+            if (key.contains(pattern) || value.contains(pattern)) {
+                return "Suspicious pattern '" + pattern + "' detected in input: key='" + key + "', value='" + value + "'";
+            }
+        }
+        return null;
+    }
+
+    private static String legacySanitize(String input) {
+        return input
+            .replace("&", "&amp;")
+            .replace("<", "&lt;")
+            .replace(">", "&gt;")
+            .replace("\"", "&quot;")
+            .replace("'", "&#x27;");
+    }
+}
@@ -0,0 +1,386 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+// HttpParser fed whole, byte by byte and pipelined: limits, chunked framing and what is left
+// buffered between requests.
+class HttpParserTest {
+
+    private static final InetAddress CLIENT = InetAddress.getLoopbackAddress();
+    private static final int MAX_HEADER_BYTES = 1024;
+    private static final int MAX_BODY_BYTES = 4096;
+
+    private Logger.Level level;
+
+    @BeforeEach
+    void quiet() {
+        level = Logger.getLevel();
+        Logger.setLevel(Logger.Level.ERROR);   // rejected requests would otherwise log a WARN each
+    }
+
+    @AfterEach
+    void restore() {
+        Logger.setLevel(level);
+    }
+
+    private static HttpParser parser() {
+        return new HttpParser(MAX_HEADER_BYTES, MAX_BODY_BYTES);
+    }
+
+    private static void feed(HttpParser parser, String data) throws IOException {
+        byte[] bytes = data.getBytes(StandardCharsets.UTF_8);
+        parser.feed(bytes, 0, bytes.length);
+    }
+
+    // Fed one byte at a time, parsing after each; the request must not come out early
+    private static HttpParser.Result trickle(HttpParser parser, String data) throws IOException {
+        byte[] bytes = data.getBytes(StandardCharsets.UTF_8);
+        for (int i = 0; i < bytes.length; i++) {
+            parser.feed(bytes, i, 1);
+            HttpParser.Result result = parser.parse(CLIENT);
+            if (result != HttpParser.Result.INCOMPLETE) {
+                assertEquals(bytes.length - 1, i, "finished early at byte " + i + " with " + result);
+                return result;
+            }
+        }
+        return HttpParser.Result.INCOMPLETE;
+    }
+
+    private static String chunked(String chunks) {
+        return "POST /form HTTP/1.1\r\nHost: x\r\nTransfer-Encoding: chunked\r\n\r\n" + chunks;
+    }
+
+    // ---- Requests ----
+
+    @Test
+    void simpleGet() throws IOException {
+        HttpParser parser = parser();
+        feed(parser, "GET /index.html?x=1 HTTP/1.1\r\nHost: localhost\r\nAccept:  text/html \r\n\r\n");
+        assertEquals(HttpParser.Result.REQUEST, parser.parse(CLIENT));
+        HttpRequest request = parser.getRequest();
+        assertEquals("GET", request.getMethod());
+        assertEquals("/index.html?x=1", request.getPath());
+        assertEquals("HTTP/1.1", request.getVersion());
+        assertEquals("text/html", request.getHeader("accept"));
+        assertEquals("", request.getBody());
+        assertTrue(request.isKeepAlive());
+    }
+
+    @Test
+    void connectionHeaderAndVersionDecideKeepAlive() throws IOException {
+        HttpParser parser = parser();
+        feed(parser, "GET / HTTP/1.1\r\nConnection: close\r\n\r\n");
+        assertEquals(HttpParser.Result.REQUEST, parser.parse(CLIENT));
+        assertFalse(parser.getRequest().isKeepAlive());
+
+        parser = parser();
+        feed(parser, "GET / HTTP/1.0\r\n\r\n");
+        assertEquals(HttpParser.Result.REQUEST, parser.parse(CLIENT));
+        assertFalse(parser.getRequest().isKeepAlive());
+    }
+
+    @Test
+    void byteByByteWithContentLength() throws IOException {
+        HttpParser parser = parser();
+        assertEquals(HttpParser.Result.REQUEST, trickle(parser, "POST /form HTTP/1.1\r\nContent-Length: 7\r\n\r\na=1&b=2"));
+        assertEquals("a=1&b=2", parser.getRequest().getBody());
+        assertTrue(parser.getRequest().isBodyComplete());
+    }
+
+    @Test
+    void bareLineFeeds() throws IOException {
+        HttpParser parser = parser();
+        assertEquals(HttpParser.Result.REQUEST, trickle(parser, "GET /a HTTP/1.1\nHost: x\n\n"));
+        assertEquals("x", parser.getRequest().getHeader("Host"));
+    }
+
+    @Test
+    void malformedRequestLineIs400() throws IOException {
+        HttpParser parser = parser();
+        feed(parser, "GARBAGE\r\n\r\n");
+        assertEquals(HttpParser.Result.ERROR, parser.parse(CLIENT));
+        assertEquals(400, parser.getErrorStatus());
+    }
+
+    @Test
+    void conflictingContentLengthsMeanNoBodyAndClose() throws IOException {
+        HttpParser parser = parser();
+        feed(parser, "POST /form HTTP/1.1\r\nContent-Length: 3\r\nContent-Length: 4\r\n\r\nabcd");
+        assertEquals(HttpParser.Result.REQUEST, parser.parse(CLIENT));
+        assertEquals(0, parser.getRequest().getBodyLength());
+        assertFalse(parser.getRequest().isKeepAlive());
+    }
+
+    @Test
+    void bodyCutOffByEndOfInputIsIncomplete() throws IOException {
+        HttpParser parser = parser();
+        feed(parser, "POST /form HTTP/1.1\r\nContent-Length: 10\r\n\r\nabc");
+        assertEquals(HttpParser.Result.INCOMPLETE, parser.parse(CLIENT));
+        assertEquals(HttpParser.Result.REQUEST, parser.endOfInput());
+        assertEquals("abc", parser.getRequest().getBody());
+        assertFalse(parser.getRequest().isBodyComplete());
+        assertFalse(parser.getRequest().isKeepAlive());
+    }
+
+    @Test
+    void endOfInputBetweenRequestsIsClosed() {
+        HttpParser parser = parser();
+        assertTrue(parser.isIdle());
+        assertEquals(HttpParser.Result.CLOSED, parser.endOfInput());
+    }
+
+    // ---- Limits ----
+
+    @Test
+    void headersOverTheLimitAre431() throws IOException {
+        HttpParser parser = parser();
+        feed(parser, "GET / HTTP/1.1\r\nX-Big: " + "x".repeat(MAX_HEADER_BYTES) + "\r\n\r\n");
+        assertEquals(HttpParser.Result.ERROR, parser.parse(CLIENT));
+        assertEquals(431, parser.getErrorStatus());
+    }
+
+    // The limit applies before the blank line arrives, so a client cannot keep the buffer growing
+    @Test
+    void unfinishedHeadersOverTheLimitAre431() throws IOException {
+        HttpParser parser = parser();
+        feed(parser, "GET / HTTP/1.1\r\nX-Big: " + "x".repeat(MAX_HEADER_BYTES));
+        assertEquals(HttpParser.Result.ERROR, parser.parse(CLIENT));
+        assertEquals(431, parser.getErrorStatus());
+    }
+
+    @Test
+    void headersJustUnderTheLimitParse() throws IOException {
+        String head = "GET / HTTP/1.1\r\nX-Pad: ";
+        String request = head + "x".repeat(MAX_HEADER_BYTES - head.length() - 4) + "\r\n\r\n";
+        assertEquals(MAX_HEADER_BYTES, request.length());
+        HttpParser parser = parser();
+        feed(parser, request);
+        assertEquals(HttpParser.Result.REQUEST, parser.parse(CLIENT));
+    }
+
+    @Test
+    void contentLengthOverTheLimitIs413() throws IOException {
+        HttpParser parser = parser();
+        feed(parser, "POST /form HTTP/1.1\r\nContent-Length: " + (MAX_BODY_BYTES + 1) + "\r\n\r\n");
+        assertEquals(HttpParser.Result.ERROR, parser.parse(CLIENT));
+        assertEquals(413, parser.getErrorStatus());
+    }
+
+    @Test
+    void chunkedBodyOverTheLimitIs413() throws IOException {
+        String chunk = Integer.toHexString(MAX_BODY_BYTES / 2 + 1) + "\r\n" + "x".repeat(MAX_BODY_BYTES / 2 + 1) + "\r\n";
+        HttpParser parser = parser();
+        feed(parser, chunked(chunk + chunk));
+        assertEquals(HttpParser.Result.ERROR, parser.parse(CLIENT));
+        assertEquals(413, parser.getErrorStatus());
+    }
+
+    @Test
+    void unknownTransferCodingIs501() throws IOException {
+        HttpParser parser = parser();
+        feed(parser, "POST /form HTTP/1.1\r\nTransfer-Encoding: gzip\r\n\r\n");
+        assertEquals(HttpParser.Result.ERROR, parser.parse(CLIENT));
+        assertEquals(501, parser.getErrorStatus());
+    }
+
+    @Test
+    void errorsStayErrors() throws IOException {
+        HttpParser parser = parser();
+        feed(parser, "POST /form HTTP/1.1\r\nTransfer-Encoding: gzip\r\n\r\n");
+        assertEquals(HttpParser.Result.ERROR, parser.parse(CLIENT));
+        feed(parser, "GET / HTTP/1.1\r\n\r\n");
+        assertEquals(HttpParser.Result.ERROR, parser.parse(CLIENT));
+    }
+
+    // ---- Chunked bodies ----
+
+    @Test
+    void chunkedBodyIsDecoded() throws IOException {
+        HttpParser parser = parser();
+        feed(parser, chunked("3\r\na=1\r\n4\r\n&b=2\r\n0\r\n\r\n"));
+        assertEquals(HttpParser.Result.REQUEST, parser.parse(CLIENT));
+        HttpRequest request = parser.getRequest();
+        assertTrue(request.isChunked());
+        assertEquals("a=1&b=2", request.getBody());
+        assertTrue(request.isBodyComplete());
+        assertTrue(request.isKeepAlive());
+    }
+
+    @Test
+    void chunkedByteByByte() throws IOException {
+        HttpParser parser = parser();
+        assertEquals(HttpParser.Result.REQUEST, trickle(parser, chunked("3\r\na=1\r\n4\r\n&b=2\r\n0\r\n\r\n")));
+        assertEquals("a=1&b=2", parser.getRequest().getBody());
+    }
+
+    @Test
+    void chunkExtensionsTrailersAndUpperCaseHex() throws IOException {
+        HttpParser parser = parser();
+        feed(parser, chunked("A;name=value\r\n0123456789\r\na \r\nabcdefghij\r\n0\r\nX-Trailer: 1\r\nX-Other: 2\r\n\r\n"));
+        assertEquals(HttpParser.Result.REQUEST, parser.parse(CLIENT));
+        assertEquals("0123456789abcdefghij", parser.getRequest().getBody());
+        assertNull(parser.getRequest().getHeader("X-Trailer"));
+    }
+
+    @Test
+    void chunkedWithBareLineFeeds() throws IOException {
+        HttpParser parser = parser();
+        feed(parser, "POST /form HTTP/1.1\nTransfer-Encoding: chunked\n\n2\nab\n0\n\n");
+        assertEquals(HttpParser.Result.REQUEST, parser.parse(CLIENT));
+        assertEquals("ab", parser.getRequest().getBody());
+    }
+
+    @Test
+    void emptyChunkedBody() throws IOException {
+        HttpParser parser = parser();
+        feed(parser, chunked("0\r\n\r\n"));
+        assertEquals(HttpParser.Result.REQUEST, parser.parse(CLIENT));
+        assertEquals("", parser.getRequest().getBody());
+    }
+
+    @Test
+    void chunkedWithContentLengthClosesTheConnection() throws IOException {
+        HttpParser parser = parser();
+        feed(parser, "POST /form HTTP/1.1\r\nContent-Length: 100\r\nTransfer-Encoding: chunked\r\n\r\n2\r\nab\r\n0\r\n\r\n");
+        assertEquals(HttpParser.Result.REQUEST, parser.parse(CLIENT));
+        assertEquals("ab", parser.getRequest().getBody());
+        assertFalse(parser.getRequest().isKeepAlive());
+    }
+
+    @Test
+    void badChunkSizeIs400() throws IOException {
+        for (String chunks : new String[] { "zz\r\nab\r\n0\r\n\r\n", "\r\nab\r\n0\r\n\r\n", "2x\r\nab\r\n0\r\n\r\n", "123456789\r\n" }) {
+            HttpParser parser = parser();
+            feed(parser, chunked(chunks));
+            assertEquals(HttpParser.Result.ERROR, parser.parse(CLIENT), chunks);
+            assertEquals(400, parser.getErrorStatus(), chunks);
+        }
+    }
+
+    @Test
+    void chunkDataLongerThanItsSizeIs400() throws IOException {
+        HttpParser parser = parser();
+        feed(parser, chunked("2\r\nabc\r\n0\r\n\r\n"));
+        assertEquals(HttpParser.Result.ERROR, parser.parse(CLIENT));
+        assertEquals(400, parser.getErrorStatus());
+    }
+
+    @Test
+    void endlessChunkSizeLineIs400() throws IOException {
+        HttpParser parser = parser();
+        feed(parser, chunked("1" + ";".repeat(2000)));
+        assertEquals(HttpParser.Result.ERROR, parser.parse(CLIENT));
+        assertEquals(400, parser.getErrorStatus());
+    }
+
+    @Test
+    void chunkedCutOffByEndOfInputIsIncomplete() throws IOException {
+        HttpParser parser = parser();
+        feed(parser, chunked("5\r\nab"));
+        assertEquals(HttpParser.Result.INCOMPLETE, parser.parse(CLIENT));
+        assertEquals(HttpParser.Result.REQUEST, parser.endOfInput());
+        assertEquals("ab", parser.getRequest().getBody());
+        assertFalse(parser.getRequest().isBodyComplete());
+    }
+
+    @Test
+    void streamedChunkedBody() throws IOException {
+        HttpParser parser = parser();
+        InputStream rest = new ByteArrayInputStream("4\r\n&b=2\r\n0\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+        parser.streamBodiesFrom(rest, 1024 * 1024);
+        feed(parser, chunked("3\r\na=1\r\n"));
+        assertEquals(HttpParser.Result.REQUEST, parser.parse(CLIENT));
+        HttpRequest request = parser.getRequest();
+        assertTrue(request.isBodyStreamed());
+        assertEquals("a=1&b=2", new String(request.getBodyStream().readAllBytes(), StandardCharsets.US_ASCII));
+        assertTrue(request.isBodyComplete());
+    }
+
+    @Test
+    void streamedChunkedBodyCutOffIs400() throws IOException {
+        HttpParser parser = parser();
+        parser.streamBodiesFrom(InputStream.nullInputStream(), 1024 * 1024);
+        feed(parser, chunked("5\r\nab"));
+        assertEquals(HttpParser.Result.REQUEST, parser.parse(CLIENT));
+        HttpRequest request = parser.getRequest();
+        assertEquals("ab", new String(request.getBodyStream().readAllBytes(), StandardCharsets.US_ASCII));
+        assertFalse(request.isBodyComplete());
+        assertEquals(400, request.getBodyErrorStatus());
+    }
+
+    // ---- Pipelining ----
+
+    @Test
+    void pipelinedRequestsComeOutInOrder() throws IOException {
+        HttpParser parser = parser();
+        feed(parser, "GET /one HTTP/1.1\r\n\r\n" +
+                     "POST /two HTTP/1.1\r\nContent-Length: 3\r\n\r\nabc" +
+                     "POST /three HTTP/1.1\r\nTransfer-Encoding: chunked\r\n\r\n1\r\nx\r\n0\r\n\r\n" +
+                     "\r\nGET /four HTTP/1.1\r\n\r\n" +
+                     "GET /fi");
+
+        assertEquals(HttpParser.Result.REQUEST, parser.parse(CLIENT));
+        assertEquals("/one", parser.getRequest().getPath());
+        parser.next();
+
+        assertEquals(HttpParser.Result.REQUEST, parser.parse(CLIENT));
+        assertEquals("/two", parser.getRequest().getPath());
+        assertEquals("abc", parser.getRequest().getBody());
+        parser.next();
+
+        assertEquals(HttpParser.Result.REQUEST, parser.parse(CLIENT));
+        assertEquals("/three", parser.getRequest().getPath());
+        assertEquals("x", parser.getRequest().getBody());
+        parser.next();
+
+        // The stray CRLF in between is skipped
+        assertEquals(HttpParser.Result.REQUEST, parser.parse(CLIENT));
+        assertEquals("/four", parser.getRequest().getPath());
+        parser.next();
+
+        assertEquals(HttpParser.Result.INCOMPLETE, parser.parse(CLIENT));
+        assertFalse(parser.isIdle());
+        feed(parser, "ve HTTP/1.1\r\n\r\n");
+        assertEquals(HttpParser.Result.REQUEST, parser.parse(CLIENT));
+        assertEquals("/five", parser.getRequest().getPath());
+        parser.next();
+        assertTrue(parser.isIdle());
+    }
+
+    // Far more pipelined bytes in total than the buffer may hold: each next() frees the space
+    @Test
+    void manyPipelinedRequestsReuseTheBuffer() throws IOException {
+        HttpParser parser = parser();
+        String request = "POST /form HTTP/1.1\r\nContent-Length: 5\r\n\r\nhello";
+        for (int i = 0; i < 2000; i++) {
+            feed(parser, request);
+            assertEquals(HttpParser.Result.REQUEST, parser.parse(CLIENT));
+            assertEquals("hello", parser.getRequest().getBody());
+            parser.next();
+        }
+        assertTrue(parser.isIdle());
+    }
+
+    @Test
+    void bodyOfEarlierRequestDoesNotLeakIntoTheNext() throws IOException {
+        HttpParser parser = parser();
+        feed(parser, "POST /a HTTP/1.1\r\nContent-Length: 4\r\n\r\nGET GET /b HTTP/1.1\r\n\r\n");
+        assertEquals(HttpParser.Result.REQUEST, parser.parse(CLIENT));
+        assertEquals("GET ", parser.getRequest().getBody());
+        parser.next();
+        assertEquals(HttpParser.Result.REQUEST, parser.parse(CLIENT));
+        assertEquals("GET", parser.getRequest().getMethod());
+        assertEquals("/b", parser.getRequest().getPath());
+    }
+}
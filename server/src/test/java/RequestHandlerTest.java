@@ -0,0 +1,154 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+// Static files answered through RequestHandler.dispatch from a scratch document root: a 304 must
+// carry the validators of the body a 200 would send, or If-Range (strong comparison) never matches.
+class RequestHandlerTest {
+
+    private static final InetAddress CLIENT = InetAddress.getLoopbackAddress();
+
+    @TempDir
+    Path root;
+
+    private Site site;
+    private Logger.Level level;
+
+    @BeforeEach
+    void setUp() {
+        level = Logger.getLevel();
+        Logger.setLevel(Logger.Level.ERROR);
+        site = new Site(8080, root.toString(), StaticFileCache.fromConfig(root.toString()));
+    }
+
+    @AfterEach
+    void restore() {
+        Logger.setLevel(level);
+    }
+
+    private Map<String, String> get(String path, String... headers) throws IOException {
+        StringBuilder request = new StringBuilder("GET " + path + " HTTP/1.1\r\nHost: localhost\r\n");
+        for (String header : headers) request.append(header).append("\r\n");
+        byte[] bytes = request.append("\r\n").toString().getBytes(StandardCharsets.US_ASCII);
+
+        HttpParser parser = new HttpParser(8192, 1024);
+        parser.feed(bytes, 0, bytes.length);
+        assertEquals(HttpParser.Result.REQUEST, parser.parse(CLIENT));
+        HttpRequest parsed = parser.getRequest();
+        parsed.setSite(site);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        RequestHandler.dispatch(parsed, out);
+        return headers(out.toByteArray());
+    }
+
+    // The status line under "status", header names in lower case
+    private static Map<String, String> headers(byte[] response) {
+        String text = new String(response, StandardCharsets.ISO_8859_1);
+        String[] lines = text.substring(0, text.indexOf("\r\n\r\n")).split("\r\n");
+        Map<String, String> headers = new HashMap<>();
+        headers.put("status", lines[0].split(" ")[1]);
+        for (int i = 1; i < lines.length; i++) {
+            int colon = lines[i].indexOf(':');
+            headers.put(lines[i].substring(0, colon).toLowerCase(), lines[i].substring(colon + 1).trim());
+        }
+        return headers;
+    }
+
+    // The 304 for the 200's own ETag repeats that ETag, for the same Accept-Encoding
+    private void assertSameValidators(String path, String acceptEncoding, String expectedEncoding, boolean weak) throws IOException {
+        Map<String, String> full = get(path, acceptEncoding);
+        assertEquals("200", full.get("status"));
+        assertEquals(expectedEncoding, full.get("content-encoding"));
+        String etag = full.get("etag");
+        assertEquals(weak, etag.startsWith("W/"), etag);
+
+        Map<String, String> notModified = get(path, acceptEncoding, "If-None-Match: " + etag);
+        assertEquals("304", notModified.get("status"));
+        assertEquals(etag, notModified.get("etag"));
+        assertEquals(full.get("last-modified"), notModified.get("last-modified"));
+    }
+
+    private static String text(int bytes) {
+        StringBuilder sb = new StringBuilder("<html><body>\n");
+        while (sb.length() < bytes) sb.append("<p>The same paragraph, over and over again.</p>\n");
+        return sb.toString();
+    }
+
+    // Random bytes: gzip makes them larger
+    private static byte[] incompressible(int bytes) {
+        byte[] content = new byte[bytes];
+        new Random(1).nextBytes(content);
+        return content;
+    }
+
+    private static void gzip(Path file) throws IOException {
+        try (GZIPOutputStream out = new GZIPOutputStream(Files.newOutputStream(file.resolveSibling(file.getFileName() + ".gz")))) {
+            out.write(Files.readAllBytes(file));
+        }
+    }
+
+    @Test
+    void cachedFileWithCompressedVariant() throws IOException {
+        Files.writeString(root.resolve("small.html"), text(16 * 1024));
+        assertSameValidators("/small.html", "Accept-Encoding: gzip", "gzip", true);
+        assertSameValidators("/small.html", "Accept-Encoding: identity", null, false);
+    }
+
+    // A text type, but compressing it does not pay, so a gzip client gets the plain body and its strong ETag
+    @Test
+    void cachedFileWithoutCompressedVariant() throws IOException {
+        Files.write(root.resolve("noise.txt"), incompressible(16 * 1024));
+        assertSameValidators("/noise.txt", "Accept-Encoding: gzip, deflate", null, false);
+    }
+
+    @Test
+    void uncachedFileWithoutSibling() throws IOException {
+        Files.writeString(root.resolve("huge.html"), text(600 * 1024));
+        assertSameValidators("/huge.html", "Accept-Encoding: gzip", null, false);
+    }
+
+    @Test
+    void uncachedFileWithGzipSibling() throws IOException {
+        Path file = root.resolve("huge.html");
+        Files.writeString(file, text(600 * 1024));
+        gzip(file);
+        assertSameValidators("/huge.html", "Accept-Encoding: gzip", "gzip", true);
+        assertSameValidators("/huge.html", "Accept-Encoding: deflate", null, false);
+    }
+
+    // The sibling is the only compressed body on offer, so gzip need only be acceptable, not preferred
+    @Test
+    void gzipSiblingWhenGzipIsNotTheFirstChoice() throws IOException {
+        Path file = root.resolve("huge.html");
+        Files.writeString(file, text(600 * 1024));
+        gzip(file);
+        assertSameValidators("/huge.html", "Accept-Encoding: deflate, gzip;q=0.5", "gzip", true);
+        assertSameValidators("/huge.html", "Accept-Encoding: deflate, gzip;q=0", null, false);
+    }
+
+    // If-Range with the 200's ETag resumes the download instead of starting over
+    @Test
+    void ifRangeMatchesTheIdentityEtag() throws IOException {
+        Files.writeString(root.resolve("huge.html"), text(600 * 1024));
+        String etag = get("/huge.html", "Accept-Encoding: gzip").get("etag");
+        Map<String, String> partial = get("/huge.html", "Range: bytes=100-199", "If-Range: " + etag);
+        assertEquals("206", partial.get("status"));
+        assertEquals("100", partial.get("content-length"));
+        assertNull(partial.get("content-encoding"));
+    }
+}
@@ -0,0 +1,137 @@
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+// Buffered socket output for the blocking engine. Large files bypass the buffer and go out with
+// FileChannel.transferTo when the socket has a channel (sockets accepted from a ServerSocketChannel).
+// SO_TIMEOUT does not apply to writes, so a watchdog thread closes the socket of any write that
+// has been blocked for longer than server.writeTimeoutMillis (a client that stopped reading).
+public class ChannelOutputStream extends BufferedOutputStream implements FileRegionSink {
+
+    private static final Set<ChannelOutputStream> OPEN = ConcurrentHashMap.newKeySet();
+
+    static {
+        Thread watchdog = new Thread(ChannelOutputStream::watch, "write-watchdog");
+        watchdog.setDaemon(true);
+        watchdog.start();
+    }
+
+    private final Socket socket;
+    private final SocketChannel channel;
+    private volatile long writingSince = 0;   // nanoTime a blocking write started; 0 when not writing
+
+    public ChannelOutputStream(Socket socket) throws IOException {
+        super(socket.getOutputStream());
+        this.socket = socket;
+        this.channel = socket.getChannel();
+        OPEN.add(this);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        long started = enter();
+        try {
+            super.write(b);
+        } finally {
+            exit(started);
+        }
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        long started = enter();
+        try {
+            super.write(b, off, len);
+        } finally {
+            exit(started);
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        long started = enter();
+        try {
+            super.flush();
+        } finally {
+            exit(started);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        OPEN.remove(this);
+        super.close();
+    }
+
+    @Override
+    public void sendFile(Path file, long position, long count) throws IOException {
+        if (channel == null) {
+            RequestHandler.copyFile(this, file, position, count);
+            return;
+        }
+
+        flush(); // headers first
+        try (FileChannel source = FileChannel.open(file, StandardOpenOption.READ)) {
+            long end = position + count;
+            while (position < end) {
+                // Each transfer that moves data restarts the clock
+                long started = enter();
+                long sent;
+                try {
+                    sent = source.transferTo(position, end - position, channel);
+                } finally {
+                    exit(started);
+                }
+                if (sent <= 0 && position >= source.size()) {
+                    throw new IOException("File truncated while sending: " + file);
+                }
+                position += sent;
+            }
+        }
+    }
+
+    // Returns 0 for a nested call, which leaves the clock to the outer one
+    private long enter() {
+        if (writingSince != 0) return 0;
+        long now = System.nanoTime();
+        writingSince = now;
+        return now;
+    }
+
+    private void exit(long started) {
+        if (started != 0) writingSince = 0;
+    }
+
+    private static void watch() {
+        while (true) {
+            try {
+                TimeUnit.SECONDS.sleep(1);
+            } catch (InterruptedException e) {
+                return;
+            }
+            long now = System.nanoTime();
+            for (ChannelOutputStream out : OPEN) {
+                long since = out.writingSince;
+                if (since != 0 && now - since > Deadlines.writeNanos()) {
+                    Logger.log(Logger.Level.WARN, "Write to " + out.socket.getInetAddress() + " blocked for over " + Deadlines.millis(Deadlines.writeNanos()) + " ms, closing");
+                    OPEN.remove(out);
+                    try {
+                        // Shutting the output down wakes a sender blocked in the kernel, transferTo's
+                        // included, which a plain close would leave to run to completion
+                        out.socket.shutdownOutput();
+                        out.socket.close();
+                    } catch (IOException e) {
+                        Logger.log(Logger.Level.DEBUG, "Error closing stalled connection: " + e.getMessage());
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,248 @@
+import java.io.IOException;
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Per-client admission control: a cap on open connections and a request rate budget for GET and
+// one for POST. Clients are IPv4 addresses, or /64 prefixes for IPv6 (one host usually holds a
+// whole /64). Budgets are token buckets kept in GCRA form, a single "theoretical arrival time" per
+// bucket advanced with compareAndSet, so admitting a request takes no lock. Client state lives in
+// striped maps; a client with no open connection and both buckets full is indistinguishable from
+// a new one and is swept away, which keeps memory bounded by the clients active recently.
+// Everything but limit.maxClients can be changed by a config reload.
+public class ClientLimiter {
+
+    private static final int STRIPES = 16;
+    private static final long SWEEP_INTERVAL_MILLIS = 30_000;
+
+    private static final class Client {
+        final AtomicInteger connections = new AtomicInteger();
+        final AtomicLong getTat;
+        final AtomicLong postTat;
+
+        Client(long now) {
+            this.getTat = new AtomicLong(now);
+            this.postTat = new AtomicLong(now);
+        }
+
+        boolean isIdle(long now) {
+            return connections.get() == 0 && getTat.get() - now <= 0 && postTat.get() - now <= 0;
+        }
+    }
+
+    // Replaced as a whole on reload, so a request never sees half of the old limits
+    private static final class Limits {
+        final boolean enabled;
+        final boolean exemptLoopback;
+        final long getIntervalNanos;
+        final long getBurstNanos;
+        final long postIntervalNanos;
+        final long postBurstNanos;
+        final int maxConnections;
+
+        Limits(boolean enabled, boolean exemptLoopback, double getPerSecond, int getBurst,
+               double postPerSecond, int postBurst, int maxConnections) {
+            this.enabled = enabled;
+            this.exemptLoopback = exemptLoopback;
+            this.getIntervalNanos = (long) (1_000_000_000L / getPerSecond);
+            this.getBurstNanos = getIntervalNanos * getBurst;
+            this.postIntervalNanos = (long) (1_000_000_000L / postPerSecond);
+            this.postBurstNanos = postIntervalNanos * postBurst;
+            this.maxConnections = maxConnections;
+        }
+    }
+
+    private static volatile ClientLimiter instance;
+
+    private volatile Limits limits;
+    private final int maxClientsPerStripe;
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private final ConcurrentHashMap<Long, Client>[] stripes = new ConcurrentHashMap[STRIPES];
+    private volatile long nextSweepMillis;
+
+    // Prebuilt refusals; index is the Retry-After value in seconds
+    private static final byte[][] TOO_MANY_REQUESTS = new byte[61][];
+    private static final byte[] TOO_MANY_CONNECTIONS = ("HTTP/1.1 503 Service Unavailable\r\n" +
+                                                        "Retry-After: 1\r\n" +
+                                                        "Content-Length: 0\r\n" +
+                                                        "Connection: close\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+
+    static {
+        for (int seconds = 1; seconds < TOO_MANY_REQUESTS.length; seconds++) {
+            TOO_MANY_REQUESTS[seconds] = ("HTTP/1.1 429 Too Many Requests\r\n" +
+                                          "Retry-After: " + seconds + "\r\n" +
+                                          "Content-Length: 0\r\n" +
+                                          "Connection: close\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+        }
+    }
+
+    private ClientLimiter(Limits limits, int maxClients) {
+        this.limits = limits;
+        this.maxClientsPerStripe = Math.max(1, maxClients / STRIPES);
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new ConcurrentHashMap<>();
+        }
+        this.nextSweepMillis = System.currentTimeMillis() + SWEEP_INTERVAL_MILLIS;
+    }
+
+    public static ClientLimiter getInstance() {
+        if (instance == null) {
+            synchronized (ClientLimiter.class) {
+                if (instance == null) {
+                    instance = new ClientLimiter(readLimits(), Math.max(STRIPES, ServerConfig.getInt("limit.maxClients", 100_000)));
+                    ServerConfig.onReload(() -> instance.limits = readLimits());
+                }
+            }
+        }
+        return instance;
+    }
+
+    private static Limits readLimits() {
+        boolean enabled = !ServerConfig.get("limit.enabled", "true").equalsIgnoreCase("false");
+        boolean exemptLoopback = !ServerConfig.get("limit.exemptLoopback", "true").equalsIgnoreCase("false");
+        int getPerSecond = Math.max(1, ServerConfig.getInt("limit.getPerSecond", 200));
+        int getBurst = Math.max(1, ServerConfig.getInt("limit.getBurst", 400));
+        int postPerSecond = Math.max(1, ServerConfig.getInt("limit.postPerSecond", 5));
+        int postBurst = Math.max(1, ServerConfig.getInt("limit.postBurst", 20));
+        int maxConnections = Math.max(1, ServerConfig.getInt("limit.maxConnectionsPerClient", 64));
+
+        if (enabled) {
+            Logger.log(Logger.Level.INFO, "Client limits: GET " + getPerSecond + "/s (burst " + getBurst + "), POST " + postPerSecond +
+                       "/s (burst " + postBurst + "), " + maxConnections + " connections per client" + (exemptLoopback ? ", loopback exempt" : ""));
+        } else {
+            Logger.log(Logger.Level.INFO, "Client limits disabled");
+        }
+        return new Limits(enabled, exemptLoopback, getPerSecond, getBurst, postPerSecond, postBurst, maxConnections);
+    }
+
+    // Counts a new connection; false if the client already has as many open as allowed (or too
+    // many clients are tracked to take a new one). Every true must be matched by a release.
+    public boolean tryOpen(InetAddress address) {
+        Limits active = limits;
+        if (!applies(active, address)) return true;
+        Client client = client(address, true);
+        if (client == null) return false;
+        if (client.connections.incrementAndGet() > active.maxConnections) {
+            client.connections.decrementAndGet();
+            return false;
+        }
+        return true;
+    }
+
+    // Not conditional on the current limits: they may have been reloaded since the connection was
+    // counted. One opened while it was not counted just finds no client, or one at 0.
+    public void release(InetAddress address) {
+        if (address == null) return;
+        Client client = client(address, false);
+        if (client != null) client.connections.updateAndGet(n -> Math.max(0, n - 1));
+    }
+
+    // Takes one request from the client's budget for the method. Returns 0 if admitted, otherwise
+    // the nanoseconds until the request would be.
+    public long acquire(InetAddress address, String method) {
+        Limits active = limits;
+        if (!applies(active, address)) return 0;
+        Client client = client(address, true);
+        if (client == null) return SWEEP_INTERVAL_MILLIS * 1_000_000;
+
+        boolean post = method.equals("POST");
+        AtomicLong tat = post ? client.postTat : client.getTat;
+        long interval = post ? active.postIntervalNanos : active.getIntervalNanos;
+        long burst = post ? active.postBurstNanos : active.getBurstNanos;
+
+        long now = System.nanoTime();
+        while (true) {
+            long current = tat.get();
+            long next = Math.max(current - now, 0) + now + interval;
+            long wait = next - now - burst;
+            if (wait > 0) return wait;
+            if (tat.compareAndSet(current, next)) return 0;
+        }
+    }
+
+    // The 429 for a request refused by acquire
+    public static byte[] tooManyRequests(long waitNanos) {
+        long seconds = (waitNanos + 999_999_999L) / 1_000_000_000L;
+        return TOO_MANY_REQUESTS[(int) Math.max(1, Math.min(TOO_MANY_REQUESTS.length - 1, seconds))];
+    }
+
+    // Answers and closes a connection refused by tryOpen, before anything is read from it
+    public static void refuse(SocketChannel channel) {
+        try (SocketChannel c = channel) {
+            c.write(ByteBuffer.wrap(TOO_MANY_CONNECTIONS));
+        } catch (IOException e) {
+            Logger.log(Logger.Level.DEBUG, "Failed to send 503 to refused client: " + e.getMessage());
+        }
+    }
+
+    private static boolean applies(Limits limits, InetAddress address) {
+        return limits.enabled && address != null && !(limits.exemptLoopback && address.isLoopbackAddress());
+    }
+
+    private Client client(InetAddress address, boolean create) {
+        long key = key(address);
+        ConcurrentHashMap<Long, Client> stripe = stripes[(int) ((key ^ (key >>> 29)) * 0x9E3779B97F4A7C15L >>> 60)];
+        Client client = stripe.get(key);
+        if (client != null || !create) return client;
+
+        maybeSweep();
+        if (stripe.size() >= maxClientsPerStripe) {
+            sweep(stripe, System.nanoTime());
+            if (stripe.size() >= maxClientsPerStripe) {
+                Logger.log(Logger.Level.WARN, "Client limiter full, refusing new client " + address);
+                return null;
+            }
+        }
+        Client created = new Client(System.nanoTime());
+        client = stripe.putIfAbsent(key, created);
+        return client != null ? client : created;
+    }
+
+    // IPv4 addresses under a prefix no IPv6 client can have (ffff:ffff::/32 is reserved)
+    private static long key(InetAddress address) {
+        byte[] bytes = address.getAddress();
+        if (address instanceof Inet4Address) {
+            return 0xFFFF_FFFF_0000_0000L | ((bytes[0] & 0xFFL) << 24) | ((bytes[1] & 0xFFL) << 16) | ((bytes[2] & 0xFFL) << 8) | (bytes[3] & 0xFFL);
+        }
+        long prefix = 0;
+        for (int i = 0; i < 8; i++) {
+            prefix = (prefix << 8) | (bytes[i] & 0xFFL);
+        }
+        return prefix;
+    }
+
+    // Periodic sweep of all stripes, done by whichever caller comes along when it is due
+    private void maybeSweep() {
+        long nowMillis = System.currentTimeMillis();
+        if (nowMillis < nextSweepMillis) return;
+        nextSweepMillis = nowMillis + SWEEP_INTERVAL_MILLIS;
+        long now = System.nanoTime();
+        for (ConcurrentHashMap<Long, Client> stripe : stripes) {
+            sweep(stripe, now);
+        }
+    }
+
+    // A thread that looked a client up just before it was swept works on the removed object; at
+    // worst one request or connection of that client is miscounted
+    private static void sweep(ConcurrentHashMap<Long, Client> stripe, long now) {
+        Iterator<Client> clients = stripe.values().iterator();
+        while (clients.hasNext()) {
+            if (clients.next().isIdle(now)) clients.remove();
+        }
+    }
+
+    public int getClientCount() {
+        int count = 0;
+        for (ConcurrentHashMap<Long, Client> stripe : stripes) {
+            count += stripe.size();
+        }
+        return count;
+    }
+}
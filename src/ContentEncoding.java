@@ -0,0 +1,136 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+// Content negotiation for gzip and deflate (RFC 9110 section 12.5.3) and the compression itself.
+// Only text-like types are compressed; images, archives and the like are already compressed
+// and would only cost CPU.
+public class ContentEncoding {
+
+    public static final String GZIP = "gzip";
+    public static final String DEFLATE = "deflate";
+
+    private static final int MIN_BYTES = Math.max(0, ServerConfig.getInt("compress.minBytes", 256));
+    private static final int LEVEL = Math.max(1, Math.min(9, ServerConfig.getInt("compress.level", 6)));
+    private static final boolean ENABLED = !ServerConfig.get("compress.enabled", "true").equalsIgnoreCase("false");
+
+    // Worth compressing: text-like and big enough that the gzip framing (about 20 bytes) pays off
+    public static boolean isCompressible(String contentType, long size) {
+        if (!ENABLED || size < MIN_BYTES || contentType == null) return false;
+        return contentType.startsWith("text/")
+            || contentType.equals("application/javascript")
+            || contentType.equals("application/json")
+            || contentType.equals("application/xml")
+            || contentType.equals("image/svg+xml");
+    }
+
+    // The coding to answer with for this Accept-Encoding value: GZIP, DEFLATE or null for none.
+    // gzip wins a tie; "*" covers codings not listed; q=0 rules a coding out.
+    public static String negotiate(String acceptEncoding) {
+        float[] q = qualities(acceptEncoding);
+        if (q == null) return null;
+        float gzip = q[0];
+        float deflate = q[1];
+
+        if (gzip > 0 && gzip >= deflate) return GZIP;
+        if (deflate > 0) return DEFLATE;
+        return null;
+    }
+
+    // Whether the client takes gzip at all (q > 0), preferred or not: when a precompressed file.gz
+    // is the only compressed body on offer, it beats sending the file plain
+    public static boolean acceptsGzip(String acceptEncoding) {
+        float[] q = qualities(acceptEncoding);
+        return q != null && q[0] > 0;
+    }
+
+    // The q values of gzip and deflate, -1 where neither they nor "*" are listed; null for no header
+    private static float[] qualities(String acceptEncoding) {
+        if (acceptEncoding == null || acceptEncoding.isEmpty()) return null;
+
+        float gzip = -1;
+        float deflate = -1;
+        float any = -1;
+        int pos = 0;
+        int length = acceptEncoding.length();
+        while (pos < length) {
+            int comma = acceptEncoding.indexOf(',', pos);
+            if (comma < 0) comma = length;
+            int semi = acceptEncoding.indexOf(';', pos);
+            int tokenEnd = semi >= 0 && semi < comma ? semi : comma;
+
+            String coding = acceptEncoding.substring(pos, tokenEnd).trim();
+            float q = tokenEnd < comma ? quality(acceptEncoding.substring(tokenEnd + 1, comma)) : 1;
+            if (coding.equalsIgnoreCase("gzip") || coding.equalsIgnoreCase("x-gzip")) gzip = Math.max(gzip, q);
+            else if (coding.equalsIgnoreCase("deflate")) deflate = Math.max(deflate, q);
+            else if (coding.equals("*")) any = q;
+            pos = comma + 1;
+        }
+        if (gzip < 0) gzip = any;
+        if (deflate < 0) deflate = any;
+        return new float[] { gzip, deflate };
+    }
+
+    // The q parameter of ";q=0.5"-style parameters; 1 if absent, 0 if unreadable
+    private static float quality(String parameters) {
+        for (String parameter : parameters.split(";")) {
+            String p = parameter.trim();
+            if (p.length() > 2 && (p.charAt(0) == 'q' || p.charAt(0) == 'Q') && p.charAt(1) == '=') {
+                try {
+                    return Float.parseFloat(p.substring(2).trim());
+                } catch (NumberFormatException e) {
+                    return 0;
+                }
+            }
+        }
+        return 1;
+    }
+
+    public static byte[] compress(byte[] data, int offset, int length, String coding) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, length / 3));
+        Deflater deflater = null;
+        try {
+            DeflaterOutputStream stream;
+            if (GZIP.equals(coding)) {
+                stream = new LeveledGzipOutputStream(out, LEVEL);
+            } else {
+                deflater = new Deflater(LEVEL);   // zlib format, which is what "deflate" means in HTTP
+                stream = new DeflaterOutputStream(out, deflater, 8192);
+            }
+            stream.write(data, offset, length);
+            stream.close();
+        } catch (IOException e) {
+            throw new IllegalStateException("In-memory compression failed", e);   // ByteArrayOutputStream does not throw
+        } finally {
+            if (deflater != null) deflater.end();
+        }
+        return out.toByteArray();
+    }
+
+    // GZIPOutputStream has no constructor taking a level
+    private static final class LeveledGzipOutputStream extends GZIPOutputStream {
+        LeveledGzipOutputStream(OutputStream out, int level) throws IOException {
+            super(out, 8192);
+            def.setLevel(level);
+        }
+    }
+
+    // A precompressed file.gz next to the file, if there is one at least as new as the file
+    public static Path gzipSibling(Path file) {
+        if (!ENABLED) return null;
+        Path gz = file.resolveSibling(file.getFileName() + ".gz");
+        try {
+            if (Files.isRegularFile(gz) && Files.getLastModifiedTime(gz).compareTo(Files.getLastModifiedTime(file)) >= 0) {
+                return gz;
+            }
+        } catch (IOException e) {
+            Logger.log(Logger.Level.DEBUG, "Could not check " + gz + ": " + e.getMessage());
+        }
+        return null;
+    }
+}
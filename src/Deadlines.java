@@ -0,0 +1,54 @@
+import java.util.concurrent.TimeUnit;
+
+// Time limits on a connection, the same for both engines, so a client cannot hold a worker (or
+// a buffer) by connecting and sending nothing, or by trickling a request or reading a response
+// a few bytes at a time. All of them can be changed by a config reload.
+public final class Deadlines {
+
+    private static volatile long headerNanos;
+    private static volatile long readNanos;
+    private static volatile long writeNanos;
+    private static volatile long minBodyBytesPerSecond;
+    private static volatile long rateGraceNanos;
+
+    static {
+        configure();
+        ServerConfig.onReload(Deadlines::configure);
+    }
+
+    private Deadlines() {
+    }
+
+    private static void configure() {
+        headerNanos = nanos("server.headerTimeoutMillis", 10_000);
+        readNanos = nanos("server.readTimeoutMillis", 30_000);
+        writeNanos = nanos("server.writeTimeoutMillis", 30_000);
+        minBodyBytesPerSecond = Math.max(0, ServerConfig.getInt("server.minBodyBytesPerSecond", 1024));
+        rateGraceNanos = nanos("server.minRateGraceMillis", 5_000);
+    }
+
+    // From the first byte of a request (or the accept, for the first one) to the end of its headers
+    public static long headerNanos() { return headerNanos; }
+
+    // Longest wait for more of a request body
+    public static long readNanos() { return readNanos; }
+
+    // Longest a response write may go without the client taking any of it
+    public static long writeNanos() { return writeNanos; }
+
+    // A body arriving slower than server.minBodyBytesPerSecond on average, once past the grace period
+    public static boolean isTooSlow(long bytes, long elapsedNanos) {
+        long minRate = minBodyBytesPerSecond;
+        if (minRate == 0 || elapsedNanos <= rateGraceNanos) return false;
+        return bytes < minRate * (elapsedNanos / 1_000_000) / 1000;
+    }
+
+    // For SO_TIMEOUT: at least 1 ms, since 0 would mean no timeout at all
+    public static int millis(long nanos) {
+        return (int) Math.max(1, Math.min(Integer.MAX_VALUE, TimeUnit.NANOSECONDS.toMillis(nanos)));
+    }
+
+    private static long nanos(String key, int defaultMillis) {
+        return TimeUnit.MILLISECONDS.toNanos(Math.max(1, ServerConfig.getInt(key, defaultMillis)));
+    }
+}
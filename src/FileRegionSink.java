@@ -0,0 +1,9 @@
+import java.io.IOException;
+import java.nio.file.Path;
+
+// Implemented by response outputs that can send part of a file straight from the page cache
+// (FileChannel.transferTo, i.e. sendfile) instead of copying it through a heap buffer.
+public interface FileRegionSink {
+
+    void sendFile(Path file, long position, long count) throws IOException;
+}
@@ -0,0 +1,194 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+// Streaming application/x-www-form-urlencoded decoder. Reads the body through a fixed buffer and
+// percent-decodes each key and value as it goes, so memory is bounded by the field limits and
+// not by the size of the body. Same result as splitting on '&' and '=' and URLDecoder.decode:
+// '+' is a space, runs of %XX bytes are decoded as UTF-8, a pair without '=' or with a broken
+// escape is skipped, and a repeated key keeps its last value.
+public class FormBodyDecoder {
+
+    private static final int READ_BUFFER_BYTES = 4096;
+
+    // Shared with MultipartFormReader
+    static final int MAX_FIELDS = Math.max(1, ServerConfig.getInt("form.maxFields", 256));
+    static final int MAX_FIELD_BYTES = Math.max(1, ServerConfig.getInt("form.maxFieldBytes", 8192));
+
+    private final int maxFields;
+    private final int maxFieldBytes;
+
+    private byte[] segment;                 // bytes of the current literal run or %XX run
+    private int segmentLength = 0;
+    private boolean segmentIsEscaped = false;
+    private final StringBuilder text = new StringBuilder();
+
+    private int fieldBytes = 0;             // raw bytes of the key or value being read
+    private int pendingHex = -1;            // -1 outside an escape, 0 after '%', 1 after '%X'
+    private int hexValue = 0;
+    private boolean malformed = false;
+    private boolean inValue = false;
+    private String key;
+    private int pairs = 0;
+
+    private int errorStatus;
+    private String errorReason;
+
+    public FormBodyDecoder(int maxFields, int maxFieldBytes) {
+        this.maxFields = maxFields;
+        this.maxFieldBytes = maxFieldBytes;
+        this.segment = new byte[Math.min(256, maxFieldBytes)];
+    }
+
+    public static FormBodyDecoder fromConfig() {
+        return new FormBodyDecoder(MAX_FIELDS, MAX_FIELD_BYTES);
+    }
+
+    // Decodes fields into the map until the stream ends. Returns false when a limit is exceeded
+    // (see getErrorStatus); fields decoded up to then are in the map.
+    public boolean decode(InputStream in, Map<String, String> into) throws IOException {
+        byte[] readBuf = new byte[READ_BUFFER_BYTES];
+        int n;
+        while ((n = in.read(readBuf, 0, readBuf.length)) >= 0) {
+            if (!decode(readBuf, 0, n, into)) return false;
+        }
+        return finish(into);
+    }
+
+    // Decodes the next piece of a body; finish() ends it. Same return value as decode(InputStream).
+    public boolean decode(byte[] data, int offset, int length, Map<String, String> into) {
+        for (int i = offset; i < offset + length; i++) {
+            byte b = data[i];
+            if (b == '&') {
+                if (++pairs > maxFields) return fail(413, "Too many form fields.");
+                endPair(into);
+            } else if (b == '=' && !inValue) {
+                key = endField();
+                inValue = true;
+            } else if (!append(b)) {
+                return fail(413, "Form field too long.");
+            }
+        }
+        return true;
+    }
+
+    public boolean finish(Map<String, String> into) {
+        if (fieldBytes > 0 || inValue) {
+            if (++pairs > maxFields) return fail(413, "Too many form fields.");
+            endPair(into);
+        }
+        return true;
+    }
+
+    public int getErrorStatus() { return errorStatus; }
+
+    public String getErrorReason() { return errorReason; }
+
+    private boolean fail(int status, String reason) {
+        errorStatus = status;
+        errorReason = reason;
+        return false;
+    }
+
+    private boolean append(byte b) {
+        if (++fieldBytes > maxFieldBytes) return false;
+
+        if (pendingHex >= 0) {
+            int digit = hexDigit(b);
+            if (digit < 0) {
+                malformed = true;
+                pendingHex = -1;
+                return true;
+            }
+            hexValue = hexValue * 16 + digit;
+            if (++pendingHex == 2) {
+                addToSegment((byte) hexValue, true);
+                pendingHex = -1;
+            }
+        } else if (b == '%') {
+            pendingHex = 0;
+            hexValue = 0;
+        } else {
+            addToSegment(b == '+' ? (byte) ' ' : b, false);
+        }
+        return true;
+    }
+
+    // URLDecoder decodes each run of escapes on its own, separately from the literal text around it
+    private void addToSegment(byte b, boolean escaped) {
+        if (escaped != segmentIsEscaped) {
+            flushSegment();
+            segmentIsEscaped = escaped;
+        }
+        if (segmentLength == segment.length) {
+            byte[] bigger = new byte[Math.min(segment.length * 2, maxFieldBytes)];
+            System.arraycopy(segment, 0, bigger, 0, segmentLength);
+            segment = bigger;
+        }
+        segment[segmentLength++] = b;
+    }
+
+    private void flushSegment() {
+        if (segmentLength > 0) {
+            text.append(new String(segment, 0, segmentLength, StandardCharsets.UTF_8));
+            segmentLength = 0;
+        }
+    }
+
+    // The decoded key or value; null if it held a broken escape
+    private String endField() {
+        if (pendingHex >= 0) malformed = true;   // '%' cut off by the end of the field
+
+        String decoded = null;
+        if (!malformed) {
+            if (text.length() == 0) {
+                decoded = new String(segment, 0, segmentLength, StandardCharsets.UTF_8);   // one run: no copy through text
+            } else {
+                flushSegment();
+                decoded = text.toString();
+            }
+        }
+
+        text.setLength(0);
+        segmentLength = 0;
+        segmentIsEscaped = false;
+        fieldBytes = 0;
+        pendingHex = -1;
+        boolean wasMalformed = malformed;
+        malformed = false;
+        return wasMalformed ? null : decoded;
+    }
+
+    private void endPair(Map<String, String> into) {
+        if (!inValue) {
+            // Empty pairs ("a=1&&b=2") are ignored; anything else without '=' is not a field
+            boolean empty = fieldBytes == 0;
+            String field = endField();
+            if (!empty) {
+                Logger.log(Logger.Level.WARN, "Malformed form field skipped: " + (field != null ? field : "(undecodable)"));
+            }
+            return;
+        }
+
+        String value = endField();
+        String k = key;
+        key = null;
+        inValue = false;
+        if (k == null || value == null) {
+            Logger.log(Logger.Level.WARN, "Failed to decode key-value pair: " + (k != null ? k : "(key)") + " - illegal escape (%) pattern");
+            return;
+        }
+        into.put(k, value);
+        if (Logger.isEnabled(Logger.Level.DEBUG)) {
+            Logger.log(Logger.Level.DEBUG, "Parsed form field: " + k + " = " + value);
+        }
+    }
+
+    private static int hexDigit(byte b) {
+        if (b >= '0' && b <= '9') return b - '0';
+        if (b >= 'a' && b <= 'f') return b - 'a' + 10;
+        if (b >= 'A' && b <= 'F') return b - 'A' + 10;
+        return -1;
+    }
+}
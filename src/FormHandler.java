@@ -1,7 +1,6 @@
 import java.io.BufferedWriter;
 import java.io.IOException;
 import java.io.OutputStreamWriter;
-import java.net.URLDecoder;
 import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
 import java.util.Map;
@@ -17,22 +16,10 @@ public class FormHandler {
                 return result;
             }
     
-            String[] pairs = data.split("&");
-    
-            for (String pair : pairs) {
-                String[] keyValue = pair.split("=", 2); // limit = 2 in case value contains '='
-                if (keyValue.length == 2) {
-                    try {
-                        String key = URLDecoder.decode(keyValue[0], StandardCharsets.UTF_8);
-                        String value = URLDecoder.decode(keyValue[1], StandardCharsets.UTF_8);
-                        result.put(key, value);
-                        Logger.log(Logger.Level.DEBUG, "Parsed form field: " + key + " = " + value);
-                    } catch (IllegalArgumentException e) {
-                        Logger.log(Logger.Level.WARN, "Failed to decode key-value pair: " + pair + " - " + e.getMessage());
-                    }
-                } else {
-                    Logger.log(Logger.Level.WARN, "Malformed form field skipped: " + pair);
-                }
+            FormBodyDecoder decoder = FormBodyDecoder.fromConfig();
+            byte[] bytes = data.getBytes(StandardCharsets.UTF_8);
+            if (!decoder.decode(bytes, 0, bytes.length, result) || !decoder.finish(result)) {
+                Logger.log(Logger.Level.WARN, "Form data cut short: " + decoder.getErrorReason());
             }
     
         } catch (Exception e) {
@@ -43,79 +30,184 @@ public class FormHandler {
     }
     
 
+    // Checked in this order; when several occur, the first one listed is reported
+    private static final String[] DANGEROUS_PATTERNS = {
+        "<script>", "</script>", "javascript:", "$(", "`", ";", "|", "&", "&&", "||", "$"
+    };
+    private static final int PATH_TRAVERSAL = 1 << DANGEROUS_PATTERNS.length;
+
+    // For each ASCII char, the patterns that can start with it. Lets one scan over the input find
+    // every pattern: single-char patterns are a table lookup, the rest need a regionMatches.
+    private static final int[] PATTERNS_BY_FIRST_CHAR = new int[128];
+
+    static {
+        for (int i = 0; i < DANGEROUS_PATTERNS.length; i++) {
+            PATTERNS_BY_FIRST_CHAR[DANGEROUS_PATTERNS[i].charAt(0)] |= 1 << i;
+        }
+        PATTERNS_BY_FIRST_CHAR['.'] |= PATH_TRAVERSAL;
+    }
+
     public static boolean isValidFormData(String key, String value) {
         try {
-            key = key.trim();
-            value = value.trim();
-    
-            // Reject if too long
-            if (key.length() > 100 || value.length() > 100) {
-                Logger.log(Logger.Level.WARN, "Input too long: key='" + key + "' (" + key.length() + "), value='" + value + "' (" + value.length() + ")");
+            String reason = rejectionReason(key, value);
+            if (reason != null) {
+                Logger.log(Logger.Level.WARN, reason);
                 return false;
             }
-    
-            // Reject if empty
-            if (key.isEmpty() || value.isEmpty()) {
-                Logger.log(Logger.Level.WARN, "Empty key or value: key='" + key + "', value='" + value + "'");
-                return false;
-            }
-    
-            // Reject path traversal
-            if (key.contains("..") || value.contains("..")) {
-                Logger.log(Logger.Level.WARN, "Path traversal attempt detected: key='" + key + "', value='" + value + "'");
-                return false;
-            }
-    
-            // Dangerous patterns
-            String[] dangerousPatterns = {
-                "<script>", "</script>", "javascript:", "$(", "`", ";", "|", "&", "&&", "||", "$"
-            };
-    
-            for (String pattern : dangerousPatterns) {
-                if (key.contains(pattern) || value.contains(pattern)) {
-                    Logger.log(Logger.Level.WARN, "Suspicious pattern '" + pattern + "' detected in input: key='" + key + "', value='" + value + "'");
-                    return false;
-                }
+
+            if (Logger.isEnabled(Logger.Level.DEBUG)) {
+                Logger.log(Logger.Level.DEBUG, "Valid input: key='" + key.trim() + "', value='" + value.trim() + "'");
             }
-    
-            Logger.log(Logger.Level.DEBUG, "Valid input: key='" + key + "', value='" + value + "'");
             return true;
-    
+
         } catch (Exception e) {
             Logger.log(Logger.Level.ERROR, "Error in isValidFormData: " + e.getMessage());
             return false;
         }
     }
-    
+
+    // Null if the pair is acceptable, otherwise the message explaining why not
+    static String rejectionReason(String key, String value) {
+        key = key.trim();
+        value = value.trim();
+
+        // Reject if too long
+        if (key.length() > 100 || value.length() > 100) {
+            return "Input too long: key='" + key + "' (" + key.length() + "), value='" + value + "' (" + value.length() + ")";
+        }
+
+        // Reject if empty
+        if (key.isEmpty() || value.isEmpty()) {
+            return "Empty key or value: key='" + key + "', value='" + value + "'";
+        }
+
+        int found = findPatterns(key) | findPatterns(value);
+        if (found == 0) {
+            return null;
+        }
+
+        // Reject path traversal
+        if ((found & PATH_TRAVERSAL) != 0) {
+            return "Path traversal attempt detected: key='" + key + "', value='" + value + "'";
+        }
+
+        // Dangerous patterns
+        String pattern = DANGEROUS_PATTERNS[Integer.numberOfTrailingZeros(found)];
+        return "Suspicious pattern '" + pattern + "' detected in input: key='" + key + "', value='" + value + "'";
+    }
+
+    // Bit i set if DANGEROUS_PATTERNS[i] occurs in s, PATH_TRAVERSAL if ".." does
+    private static int findPatterns(String s) {
+        int found = 0;
+        int length = s.length();
+        for (int i = 0; i < length; i++) {
+            char c = s.charAt(i);
+            if (c >= 128) continue;
+            int candidates = PATTERNS_BY_FIRST_CHAR[c];
+            if (candidates == 0) continue;
+
+            if (c == '.') {
+                if (i + 1 < length && s.charAt(i + 1) == '.') found |= PATH_TRAVERSAL;
+                continue;
+            }
+            while (candidates != 0) {
+                int index = Integer.numberOfTrailingZeros(candidates);
+                candidates &= candidates - 1;
+                String pattern = DANGEROUS_PATTERNS[index];
+                if (pattern.length() == 1 || s.startsWith(pattern, i)) found |= 1 << index;
+            }
+        }
+        return found;
+    }
+
     public static String sanitize(String input) {
         try {
             if (input == null) {
                 Logger.log(Logger.Level.WARN, "sanitize() received null input.");
                 return "";
             }
-    
-            String original = input;
-            String sanitized = input
-                .replace("&", "&amp;")
-                .replace("<", "&lt;")
-                .replace(">", "&gt;")
-                .replace("\"", "&quot;")
-                .replace("'", "&#x27;");
-    
-            Logger.log(Logger.Level.DEBUG, "Sanitized input: '" + original + "' => '" + sanitized + "'");
+
+            // Most input needs no escaping: hand back the same string without copying it
+            int first = 0;
+            while (first < input.length() && escapeFor(input.charAt(first)) == null) first++;
+            String sanitized = input;
+            if (first < input.length()) {
+                StringBuilder out = new StringBuilder(input.length() + 16);
+                out.append(input, 0, first);
+                appendEscaped(out, input, first);
+                sanitized = out.toString();
+            }
+
+            if (Logger.isEnabled(Logger.Level.DEBUG)) {
+                Logger.log(Logger.Level.DEBUG, "Sanitized input: '" + input + "' => '" + sanitized + "'");
+            }
             return sanitized;
-    
+
         } catch (Exception e) {
             Logger.log(Logger.Level.ERROR, "Error during sanitization: " + e.getMessage());
             return "";
         }
     }
-    
 
-    public static void saveToFile(Map<String, String> data) {
+    // Writes input HTML-escaped into out in one pass; same output as sanitize
+    public static void appendEscaped(StringBuilder out, String input) {
+        appendEscaped(out, input, 0);
+    }
+
+    private static void appendEscaped(StringBuilder out, String input, int from) {
+        int run = from;  // start of the stretch that needs no escaping
+        for (int i = from; i < input.length(); i++) {
+            String escape = escapeFor(input.charAt(i));
+            if (escape != null) {
+                out.append(input, run, i).append(escape);
+                run = i + 1;
+            }
+        }
+        out.append(input, run, input.length());
+    }
+
+    private static String escapeFor(char c) {
+        switch (c) {
+            case '&': return "&amp;";
+            case '<': return "&lt;";
+            case '>': return "&gt;";
+            case '"': return "&quot;";
+            case '\'': return "&#x27;";
+            default: return null;
+        }
+    }
+
+    // Whether the submission was stored
+    public static boolean saveToFile(Map<String, String> data) {
+        long start = System.nanoTime();
+        SubmissionWriter writer = SubmissionWriter.getInstance();
+        boolean saved;
+
+        if (writer.getMode() == SubmissionWriter.Mode.SPAWN) {
+            saved = saveInNewProcess(data);
+        } else if (saved = writer.save(data)) {
+            Logger.log(Logger.Level.INFO, "Form data saved via IsolatedFormSaver (" + writer.getMode() + ", " + elapsedMillis(start) + " ms).");
+        } else {
+            Logger.log(Logger.Level.ERROR, "Form data could not be saved (" + elapsedMillis(start) + " ms).");
+        }
+        Metrics.recordFormSave(System.nanoTime() - start, saved);
+        return saved;
+    }
+
+    private static long elapsedMillis(long startNanos) {
+        return (System.nanoTime() - startNanos) / 1_000_000;
+    }
+
+    // Legacy saver (saver.mode=spawn): a fresh JVM per submission
+    private static boolean saveInNewProcess(Map<String, String> data) {
+    long start = System.nanoTime();
     try {
         // Start a new process to run IsolatedFormSaver
-        ProcessBuilder pb = new ProcessBuilder("java", "-cp", "out", "IsolatedFormSaver");
+        // Written as the worker would: same store, segment size and fsync policy
+        SubmissionWriter saver = SubmissionWriter.getInstance();
+        ProcessBuilder pb = new ProcessBuilder(SubmissionWriter.saverCommand("--fsync=" + saver.getFsync().name().toLowerCase(),
+                                                                             "--segment-bytes=" + saver.getSegmentBytes(),
+                                                                             "--dir=" + saver.getDir()));
         Process process = pb.start();
 
         // Send form data to the subprocess through stdin
@@ -133,12 +225,14 @@ public class FormHandler {
         int exitCode = process.waitFor();
         if (exitCode != 0) {
             Logger.log(Logger.Level.ERROR, "IsolatedFormSaver exited with code " + exitCode);
-        } else {
-            Logger.log(Logger.Level.INFO, "Form data saved via IsolatedFormSaver.");
+            return false;
         }
+        Logger.log(Logger.Level.INFO, "Form data saved via IsolatedFormSaver (SPAWN, " + elapsedMillis(start) + " ms).");
+        return true;
 
     } catch (IOException | InterruptedException e) {
         Logger.log(Logger.Level.ERROR, "ProcessBuilder exception: " + e.getMessage());
+        return false;
     }
 }
 
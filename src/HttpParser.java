@@ -0,0 +1,643 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+
+// Incremental HTTP/1.x request parser working directly on bytes; one per connection, shared by
+// the blocking and NIO engines. The engine feeds it with readFrom() and calls parse() until a
+// request is ready. Headers stay in the buffer as offsets (see HttpRequest) and chunked bodies
+// are decoded in place, so a request costs the HttpRequest, its path String and one small
+// offsets array at most. Request and body are valid until next() is called.
+//
+// An engine that can block on its input may instead have bodies streamed (streamBodiesFrom):
+// parse() then returns the request as soon as its headers are in, and the handler reads the body
+// through request.getBodyStream(), which decodes chunked framing on the fly and never holds more
+// than a fixed window of it.
+public class HttpParser {
+
+    public enum Result {
+        INCOMPLETE, // need more bytes
+        REQUEST,    // getRequest() is ready
+        ERROR,      // malformed or over a limit; answer with writeError() and close
+        CLOSED      // input ended between requests (or inside headers)
+    }
+
+    private enum State { HEADERS, BODY, CHUNK_SIZE, CHUNK_DATA, CHUNK_END, TRAILERS, DONE, FAILED }
+
+    private static final int MAX_CHUNK_LINE = 1024;
+    private static final int STREAM_WINDOW = 16 * 1024;
+    private static final String[] KNOWN_METHODS = { "GET", "POST", "HEAD", "PUT", "DELETE", "OPTIONS", "PATCH" };
+    private static final String[] KNOWN_VERSIONS = { "HTTP/1.1", "HTTP/1.0" };
+
+    private final int maxHeaderBytes;
+    private final int maxBodyBytes;
+    private final int maxBufferBytes;
+
+    private byte[] buf;
+    private ByteBuffer channelView;     // wraps buf for channel reads
+    private int start = 0;              // first byte of the current message
+    private int limit = 0;              // end of buffered input
+    private int scan = 0;               // where parsing resumes
+    private State state = State.HEADERS;
+
+    private int[] headerOffsets = new int[64];
+    private int bodyStart;
+    private int bodyEnd;                // BODY: end of the body; chunked: end of the decoded data so far
+    private long chunkRemaining;
+    private int messageEnd;
+
+    private InputStream streamSource;   // set with streamBodiesFrom
+    private long maxStreamedBodyBytes;
+    private boolean streaming = false;  // the current request's body is read through its body stream
+    private long bodyRemaining;         // streamed Content-Length body: bytes still to come
+    private long streamedBytes;         // streamed chunked body: decoded bytes so far
+    private long bodyStartNanos;        // streamed body: for the minimum transfer rate
+    private long bodyBytesRead;
+    private byte[] skipBuf;
+
+    private HttpRequest request;
+    private int errorStatus;
+    private String errorReason;
+    private String errorDetail;
+
+    public HttpParser(int maxHeaderBytes, int maxBodyBytes) {
+        this.maxHeaderBytes = maxHeaderBytes;
+        this.maxBodyBytes = maxBodyBytes;
+        this.maxBufferBytes = maxHeaderBytes + maxBodyBytes + MAX_CHUNK_LINE;
+        this.buf = new byte[Math.min(4096, maxBufferBytes)];
+    }
+
+    public static HttpParser fromConfig() {
+        return new HttpParser(ServerConfig.getInt("server.maxHeaderBytes", 8192),
+                              ServerConfig.getInt("server.maxBodyBytes", 1024 * 1024));
+    }
+
+    // Streams request bodies from in instead of buffering them; maxBodyBytes replaces the buffered limit
+    public void streamBodiesFrom(InputStream in, long maxBodyBytes) {
+        this.streamSource = in;
+        this.maxStreamedBodyBytes = maxBodyBytes;
+    }
+
+    // ---- Input ----
+
+    // Returns the number of bytes read, or -1 at end of stream
+    public int readFrom(InputStream in) throws IOException {
+        ensureSpace();
+        int n = in.read(buf, limit, buf.length - limit);
+        if (n > 0) limit += n;
+        return n;
+    }
+
+    public int readFrom(ReadableByteChannel channel) throws IOException {
+        ensureSpace();
+        if (channelView == null || channelView.array() != buf) channelView = ByteBuffer.wrap(buf);
+        channelView.limit(buf.length).position(limit);
+        int n = channel.read(channelView);
+        if (n > 0) limit += n;
+        return n;
+    }
+
+    // Copies bytes in directly; used by tests and benchmarks
+    public void feed(byte[] data, int offset, int length) throws IOException {
+        while (length > 0) {
+            ensureSpace();
+            int n = Math.min(length, buf.length - limit);
+            System.arraycopy(data, offset, buf, limit, n);
+            limit += n;
+            offset += n;
+            length -= n;
+        }
+    }
+
+    private void ensureSpace() throws IOException {
+        if (limit < buf.length) return;
+
+        // Bytes already decoded out of a chunked body leave a gap behind the data still to parse
+        if (isChunkedState() && scan > bodyEnd) {
+            System.arraycopy(buf, scan, buf, bodyEnd, limit - scan);
+            limit -= scan - bodyEnd;
+            scan = bodyEnd;
+            if (limit < buf.length) return;
+        }
+
+        if (buf.length >= maxBufferBytes) {
+            throw new IOException("HTTP parser buffer full");
+        }
+        // While reading a Content-Length body we know exactly how much is still needed
+        int needed = state == State.BODY ? bodyEnd : buf.length * 2;
+        byte[] bigger = new byte[Math.min(Math.max(needed, buf.length * 2), maxBufferBytes)];
+        System.arraycopy(buf, 0, bigger, 0, limit);
+        buf = bigger;
+    }
+
+    private boolean isChunkedState() {
+        return state == State.CHUNK_SIZE || state == State.CHUNK_DATA || state == State.CHUNK_END || state == State.TRAILERS;
+    }
+
+    // True while nothing of a next request has been received
+    public boolean isIdle() {
+        return state == State.HEADERS && start == limit;
+    }
+
+    public HttpRequest getRequest() { return request; }
+
+    // ---- Parsing ----
+
+    public Result parse(InetAddress client) {
+        switch (state) {
+            case DONE:
+                return Result.REQUEST;
+            case FAILED:
+                return Result.ERROR;
+            case HEADERS:
+                if (!parseHeaders(client)) return state == State.FAILED ? Result.ERROR : Result.INCOMPLETE;
+                break;
+            default:
+                break;
+        }
+
+        if (streaming) return Result.REQUEST;
+        if (state == State.BODY) {
+            if (limit < bodyEnd) return Result.INCOMPLETE;
+            request.setBody(buf, bodyStart, bodyEnd - bodyStart, true);
+            messageEnd = bodyEnd;
+            state = State.DONE;
+        } else if (isChunkedState() && !parseChunks()) {
+            return state == State.FAILED ? Result.ERROR : Result.INCOMPLETE;
+        }
+        return state == State.DONE ? Result.REQUEST : Result.INCOMPLETE;
+    }
+
+    // The peer closed its side. A request cut off inside its body is still handed out (marked
+    // incomplete) so the handler can answer 400, as before.
+    public Result endOfInput() {
+        if (state == State.BODY || isChunkedState()) {
+            int end = state == State.BODY ? Math.min(limit, bodyEnd) : bodyEnd;
+            request.setBody(buf, bodyStart, end - bodyStart, false);
+            request.setKeepAlive(false);
+            messageEnd = limit;
+            state = State.DONE;
+            return Result.REQUEST;
+        }
+        return state == State.DONE ? Result.REQUEST : Result.CLOSED;
+    }
+
+    // Releases the current request; anything pipelined after it stays buffered
+    public void next() {
+        request = null;
+        streaming = false;
+        state = State.HEADERS;
+        start = messageEnd;
+        if (start >= limit) {
+            start = 0;
+            limit = 0;
+        }
+        scan = start;
+    }
+
+    private boolean parseHeaders(InetAddress client) {
+        // Stray CRLFs before a request line are ignored (RFC 9112 section 2.2)
+        while (start < limit && (buf[start] == '\r' || buf[start] == '\n')) start++;
+        if (scan < start) scan = start;
+
+        // Nothing of the previous message is referenced any more: move pipelined bytes to the front
+        if (start > 0) {
+            System.arraycopy(buf, start, buf, 0, limit - start);
+            limit -= start;
+            scan -= start;
+            start = 0;
+        }
+
+        int end = -1;
+        for (int i = Math.max(scan, start + 1); i < limit; i++) {
+            if (buf[i] == '\n' && (buf[i - 1] == '\n' || (i - start >= 2 && buf[i - 1] == '\r' && buf[i - 2] == '\n'))) {
+                end = i + 1;
+                break;
+            }
+        }
+
+        if (end < 0) {
+            scan = Math.max(limit - 1, start);
+            if (limit - start >= maxHeaderBytes) {
+                Logger.log(Logger.Level.WARN, "Request headers too large from " + client);
+                fail(431, "Request Header Fields Too Large", null);
+            }
+            return false;
+        }
+        if (end - start > maxHeaderBytes) {
+            Logger.log(Logger.Level.WARN, "Request headers too large from " + client);
+            fail(431, "Request Header Fields Too Large", null);
+            return false;
+        }
+
+        // Request line: method SP target [SP version]
+        int lineEnd = lineEnd(start, end);
+        int methodEnd = indexOf(' ', start, lineEnd);
+        int pathEnd = methodEnd < 0 ? -1 : indexOf(' ', methodEnd + 1, lineEnd);
+        if (pathEnd < 0) pathEnd = lineEnd;
+
+        if (Logger.isEnabled(Logger.Level.INFO)) {
+            Logger.log(Logger.Level.INFO, "Request from " + client + " - " + new String(buf, start, lineEnd - start, StandardCharsets.UTF_8));
+        }
+
+        if (methodEnd <= start || pathEnd <= methodEnd + 1) {
+            Logger.log(Logger.Level.WARN, "Malformed HTTP request from " + client + ": " + new String(buf, start, lineEnd - start, StandardCharsets.UTF_8));
+            fail(400, "Bad Request", "Malformed request.");
+            return false;
+        }
+
+        int versionEnd = pathEnd < lineEnd ? indexOf(' ', pathEnd + 1, lineEnd) : -1;
+        if (versionEnd < 0) versionEnd = lineEnd;
+
+        String method = intern(KNOWN_METHODS, start, methodEnd);
+        String path = new String(buf, methodEnd + 1, pathEnd - methodEnd - 1, StandardCharsets.UTF_8);
+        String version = pathEnd < lineEnd ? intern(KNOWN_VERSIONS, pathEnd + 1, versionEnd) : null;
+        request = new HttpRequest(method, path, version, client);
+
+        if (Logger.isEnabled(Logger.Level.DEBUG)) {
+            Logger.log(Logger.Level.DEBUG, "Parsed method: " + method + ", path: " + path);
+        }
+
+        // Header lines; malformed ones (no colon) are skipped
+        int count = 0;
+        long contentLength = -1;
+        boolean invalidLength = false;
+        boolean chunked = false;
+        boolean otherCoding = false;
+
+        int pos = nextLine(start, end);
+        while (pos < end) {
+            int le = lineEnd(pos, end);
+            if (le == pos) break;
+
+            int colon = indexOf(':', pos, le);
+            if (colon > pos) {
+                int vs = colon + 1;
+                int ve = le;
+                while (vs < ve && (buf[vs] == ' ' || buf[vs] == '\t')) vs++;
+                while (ve > vs && (buf[ve - 1] == ' ' || buf[ve - 1] == '\t')) ve--;
+                int ne = colon;
+                while (ne > pos && (buf[ne - 1] == ' ' || buf[ne - 1] == '\t')) ne--;
+
+                if (count * 4 + 4 > headerOffsets.length) {
+                    int[] bigger = new int[headerOffsets.length * 2];
+                    System.arraycopy(headerOffsets, 0, bigger, 0, headerOffsets.length);
+                    headerOffsets = bigger;
+                }
+                headerOffsets[count * 4] = pos;
+                headerOffsets[count * 4 + 1] = ne;
+                headerOffsets[count * 4 + 2] = vs;
+                headerOffsets[count * 4 + 3] = ve;
+                count++;
+
+                if (HttpRequest.equalsIgnoreCase(buf, pos, ne, "Content-Length")) {
+                    long length = parseLength(vs, ve);
+                    if (length < 0 || (contentLength >= 0 && length != contentLength)) invalidLength = true;
+                    else contentLength = length;
+                } else if (HttpRequest.equalsIgnoreCase(buf, pos, ne, "Transfer-Encoding")) {
+                    if (HttpRequest.equalsIgnoreCase(buf, vs, ve, "chunked")) chunked = true;
+                    else otherCoding = true;
+                }
+            }
+            pos = nextLine(pos, end);
+        }
+        request.setParsedHeaders(buf, headerOffsets, count);
+        request.setKeepAlive(request.wantsKeepAlive());
+
+        bodyStart = end;
+        bodyEnd = end;
+        messageEnd = end;
+
+        if (otherCoding) {
+            Logger.log(Logger.Level.WARN, "Unsupported Transfer-Encoding from " + client);
+            fail(501, "Not Implemented", "Unsupported transfer coding.");
+            return false;
+        }
+        if (chunked) {
+            // Content-Length is ignored next to chunked; the connection is closed afterwards (RFC 9112 6.3)
+            if (contentLength >= 0 || invalidLength) request.setKeepAlive(false);
+            request.setChunked(true);
+            scan = end;
+            state = State.CHUNK_SIZE;
+            if (streamSource != null) startStreaming(end, count);
+            return true;
+        }
+        if (invalidLength) {
+            // No way to tell where the body ends: no body, and the connection is closed after the response
+            request.setKeepAlive(false);
+            request.setBody(buf, end, 0, true);
+            state = State.DONE;
+            return true;
+        }
+        if (contentLength > (streamSource != null ? maxStreamedBodyBytes : maxBodyBytes)) {
+            Logger.log(Logger.Level.WARN, "Request body too large from " + client + ": " + contentLength + " bytes");
+            fail(413, "Payload Too Large", null);
+            return false;
+        }
+        if (contentLength > 0 && streamSource != null) {
+            bodyRemaining = contentLength;
+            scan = end;
+            state = State.BODY;
+            startStreaming(end, count);
+            return true;
+        }
+        if (contentLength > 0) {
+            bodyEnd = end + (int) contentLength;
+            state = State.BODY;
+            return true;
+        }
+
+        request.setBody(buf, end, 0, true);
+        state = State.DONE;
+        return true;
+    }
+
+    private boolean parseChunks() {
+        while (true) {
+            switch (state) {
+                case CHUNK_SIZE -> {
+                    int lf = indexOf('\n', scan, limit);
+                    if (lf < 0) {
+                        if (limit - scan > MAX_CHUNK_LINE) fail(400, "Bad Request", "Malformed chunk size.");
+                        return false;
+                    }
+                    long size = 0;
+                    int digits = 0;
+                    int i = scan;
+                    for (; i < lf; i++) {
+                        int digit = Character.digit(buf[i], 16);
+                        if (digit < 0) break;
+                        size = size * 16 + digit;
+                        if (++digits > 8) break;
+                    }
+                    // Only chunk extensions (";...") or whitespace may follow the size
+                    boolean validEnd = i == lf || buf[i] == ';' || buf[i] == ' ' || buf[i] == '\t' || buf[i] == '\r';
+                    if (digits == 0 || digits > 8 || !validEnd) {
+                        fail(400, "Bad Request", "Malformed chunk size.");
+                        return false;
+                    }
+                    long decoded = streaming ? streamedBytes : bodyEnd - bodyStart;
+                    if (decoded + size > (streaming ? maxStreamedBodyBytes : maxBodyBytes)) {
+                        Logger.log(Logger.Level.WARN, "Chunked request body too large from " + request.getClientAddress());
+                        fail(413, "Payload Too Large", null);
+                        return false;
+                    }
+                    scan = lf + 1;
+                    chunkRemaining = size;
+                    state = size == 0 ? State.TRAILERS : State.CHUNK_DATA;
+                }
+                case CHUNK_DATA -> {
+                    if (streaming) return false;   // handed out by readBody
+                    int n = (int) Math.min(limit - scan, chunkRemaining);
+                    if (n > 0 && scan != bodyEnd) System.arraycopy(buf, scan, buf, bodyEnd, n);
+                    bodyEnd += n;
+                    scan += n;
+                    chunkRemaining -= n;
+                    if (chunkRemaining > 0) return false;
+                    state = State.CHUNK_END;
+                }
+                case CHUNK_END -> {
+                    if (scan >= limit) return false;
+                    if (buf[scan] == '\r') {
+                        if (scan + 1 >= limit) return false;
+                        if (buf[scan + 1] != '\n') {
+                            fail(400, "Bad Request", "Malformed chunk.");
+                            return false;
+                        }
+                        scan += 2;
+                    } else if (buf[scan] == '\n') {
+                        scan++;
+                    } else {
+                        fail(400, "Bad Request", "Malformed chunk.");
+                        return false;
+                    }
+                    state = State.CHUNK_SIZE;
+                }
+                case TRAILERS -> {
+                    // Trailer fields are read and discarded, up to an empty line
+                    int lf = indexOf('\n', scan, limit);
+                    if (lf < 0) {
+                        if (limit - scan > maxHeaderBytes) fail(431, "Request Header Fields Too Large", null);
+                        return false;
+                    }
+                    boolean empty = lf == scan || (lf == scan + 1 && buf[scan] == '\r');
+                    scan = lf + 1;
+                    if (empty) {
+                        if (!streaming) request.setBody(buf, bodyStart, bodyEnd - bodyStart, true);
+                        messageEnd = scan;
+                        state = State.DONE;
+                        return true;
+                    }
+                }
+                default -> {
+                    return state == State.DONE;
+                }
+            }
+        }
+    }
+
+    // ---- Streamed bodies ----
+
+    private void startStreaming(int end, int headerCount) {
+        streaming = true;
+        streamedBytes = 0;
+        bodyStart = end;
+        bodyStartNanos = System.nanoTime();
+        bodyBytesRead = 0;
+
+        // The body passes through the space after the headers, which stays the same size
+        int window = Math.max(STREAM_WINDOW, maxHeaderBytes + 2 * MAX_CHUNK_LINE);
+        if (buf.length - end < window) {
+            byte[] bigger = new byte[end + window];
+            System.arraycopy(buf, 0, bigger, 0, limit);
+            buf = bigger;
+            request.setParsedHeaders(buf, headerOffsets, headerCount);
+        }
+        request.setBodyStream(new BodyStream());
+    }
+
+    private final class BodyStream extends InputStream {
+        private final HttpRequest owner = request;
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            // A stream kept past next() must not read the following request
+            if (owner != request) return -1;
+            return readBody(b, off, len);
+        }
+    }
+
+    private int readBody(byte[] b, int off, int len) throws IOException {
+        if (len == 0) return 0;
+        while (true) {
+            switch (state) {
+                case BODY -> {
+                    if (scan < limit) {
+                        int n = (int) Math.min(Math.min(len, limit - scan), bodyRemaining);
+                        System.arraycopy(buf, scan, b, off, n);
+                        scan += n;
+                        bodyRemaining -= n;
+                        if (bodyRemaining == 0) {
+                            messageEnd = scan;
+                            state = State.DONE;
+                        }
+                        return n;
+                    }
+                }
+                case CHUNK_DATA -> {
+                    if (scan < limit) {
+                        int n = (int) Math.min(Math.min(len, limit - scan), chunkRemaining);
+                        System.arraycopy(buf, scan, b, off, n);
+                        scan += n;
+                        chunkRemaining -= n;
+                        streamedBytes += n;
+                        if (chunkRemaining == 0) state = State.CHUNK_END;
+                        return n;
+                    }
+                }
+                case CHUNK_SIZE, CHUNK_END, TRAILERS -> {
+                    if (parseChunks()) return -1;
+                    if (state == State.CHUNK_DATA) continue;
+                    if (state == State.FAILED) {
+                        request.setBodyError(errorStatus, errorReason);
+                        return -1;
+                    }
+                }
+                default -> {
+                    return -1;   // DONE, or FAILED earlier
+                }
+            }
+
+            if (!fillBody()) {
+                if (state != State.FAILED) {
+                    Logger.log(Logger.Level.WARN, "Connection from " + request.getClientAddress() + " closed inside the request body");
+                    fail(400, "Bad Request", "Incomplete request body.");
+                }
+                request.setBodyError(errorStatus, errorReason);
+                return -1;
+            }
+        }
+    }
+
+    private boolean fillBody() throws IOException {
+        if (scan == limit) {
+            scan = bodyStart;
+            limit = bodyStart;
+        } else if (limit == buf.length) {
+            System.arraycopy(buf, scan, buf, bodyStart, limit - scan);
+            limit -= scan - bodyStart;
+            scan = bodyStart;
+        }
+        if (limit == buf.length) {
+            throw new IOException("HTTP parser buffer full");
+        }
+        int n;
+        try {
+            n = streamSource.read(buf, limit, buf.length - limit);   // bounded by the socket's SO_TIMEOUT
+        } catch (SocketTimeoutException e) {
+            Logger.log(Logger.Level.WARN, "Request body from " + request.getClientAddress() + " stalled, giving up");
+            fail(408, "Request Timeout", "Request body timed out.");
+            return false;
+        }
+        if (n < 0) return false;
+        limit += n;
+
+        bodyBytesRead += n;
+        if (Deadlines.isTooSlow(bodyBytesRead, System.nanoTime() - bodyStartNanos)) {
+            Logger.log(Logger.Level.WARN, "Request body from " + request.getClientAddress() + " below the minimum rate (" + bodyBytesRead + " bytes), giving up");
+            fail(408, "Request Timeout", "Request body too slow.");
+            return false;
+        }
+        return true;
+    }
+
+    public boolean hasUnreadBody() {
+        return streaming && state != State.DONE && state != State.FAILED;
+    }
+
+    // Reads and drops what the handler left of a streamed body. False if that was more than
+    // maxBytes, or the body broke off; the connection cannot be reused then.
+    public boolean skipBody(long maxBytes) throws IOException {
+        if (!streaming) return state != State.FAILED;
+        if (skipBuf == null) skipBuf = new byte[4096];
+        long skipped = 0;
+        while (skipped <= maxBytes) {
+            int n = readBody(skipBuf, 0, skipBuf.length);
+            if (n < 0) return state == State.DONE;
+            skipped += n;
+        }
+        return false;
+    }
+
+    // Digits only, at most Integer.MAX_VALUE; -1 if invalid
+    private long parseLength(int from, int to) {
+        if (from == to || to - from > 10) return -1;
+        long value = 0;
+        for (int i = from; i < to; i++) {
+            int b = buf[i];
+            if (b < '0' || b > '9') return -1;
+            value = value * 10 + (b - '0');
+        }
+        return value <= Integer.MAX_VALUE ? value : -1;
+    }
+
+    // Known tokens map to constants so common requests do not allocate for them
+    private String intern(String[] known, int from, int to) {
+        for (String candidate : known) {
+            if (to - from != candidate.length()) continue;
+            int i = 0;
+            while (i < candidate.length() && buf[from + i] == candidate.charAt(i)) i++;
+            if (i == candidate.length()) return candidate;
+        }
+        return new String(buf, from, to - from, StandardCharsets.UTF_8);
+    }
+
+    private int indexOf(char c, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (buf[i] == c) return i;
+        }
+        return -1;
+    }
+
+    // End of the line starting at pos, excluding CR LF
+    private int lineEnd(int pos, int end) {
+        int lf = indexOf('\n', pos, end);
+        if (lf < 0) lf = end;
+        return lf > pos && buf[lf - 1] == '\r' ? lf - 1 : lf;
+    }
+
+    private int nextLine(int pos, int end) {
+        int lf = indexOf('\n', pos, end);
+        return lf < 0 ? end : lf + 1;
+    }
+
+    // ---- Errors ----
+
+    private void fail(int status, String reason, String detail) {
+        errorStatus = status;
+        errorReason = reason;
+        errorDetail = detail;
+        state = State.FAILED;
+        if (request != null) request.setKeepAlive(false);
+    }
+
+    public int getErrorStatus() { return errorStatus; }
+
+    public String getErrorReason() { return errorReason; }
+
+    // The error response always closes the connection
+    public void writeError(OutputStream out) {
+        String body = "<h1>" + errorStatus + " " + errorReason + "</h1>" + (errorDetail != null ? "<p>" + errorDetail + "</p>" : "");
+        RequestHandler.sendResponse(out, errorStatus, errorReason, "text/html", body);
+    }
+}
@@ -0,0 +1,231 @@
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.TreeMap;
+
+public class HttpRequest {
+    private final String method;
+    private final String path;
+    private final String version;
+    private final InetAddress clientAddress;
+
+    // Headers as parsed: offsets into the parser's buffer (nameStart, nameEnd, valueStart, valueEnd per
+    // header), only turned into Strings when a handler asks for one. Valid until the parser moves on.
+    private byte[] headerBuf;
+    private int[] headerOffsets;
+    private int headerCount = 0;
+    private Map<String, String> extraHeaders;   // added with addHeader
+
+    private byte[] bodyBuf;
+    private int bodyOffset = 0;
+    private int bodyLength = 0;
+    private String body;
+    private boolean bodyComplete = true;
+    private InputStream bodyStream;             // set when the engine streams the body (see HttpParser)
+    private int bodyErrorStatus = 400;
+    private String bodyErrorReason = "Bad Request";
+    private boolean chunked = false;
+    private boolean keepAlive = false;
+    private int responseStatus = 0;             // set by whoever answers the request, for metrics
+    private Site site;                          // the listener the request came in on, set by the engine
+
+    public HttpRequest(String method, String path, String version, InetAddress clientAddress) {
+        this.method = method;
+        this.path = path;
+        this.version = version;
+        this.clientAddress = clientAddress;
+    }
+
+    public String getMethod() { return method; }
+
+    public String getPath() { return path; }
+
+    public String getVersion() { return version; }
+
+    public InetAddress getClientAddress() { return clientAddress; }
+
+    void setParsedHeaders(byte[] buf, int[] offsets, int count) {
+        this.headerBuf = buf;
+        this.headerOffsets = offsets;
+        this.headerCount = count;
+    }
+
+    public void addHeader(String name, String value) {
+        if (extraHeaders == null) extraHeaders = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        extraHeaders.put(name, value);
+    }
+
+    // Header lookup is case-insensitive, as required by RFC 9110. The first occurrence wins.
+    public String getHeader(String name) {
+        int i = findHeader(name);
+        if (i >= 0) return getHeaderValue(i);
+        return extraHeaders != null ? extraHeaders.get(name) : null;
+    }
+
+    public boolean hasHeader(String name) {
+        return findHeader(name) >= 0 || (extraHeaders != null && extraHeaders.containsKey(name));
+    }
+
+    // Checks a comma-separated header (e.g. Connection) for a token without building Strings
+    public boolean headerHasToken(String name, String token) {
+        int i = findHeader(name);
+        if (i < 0) {
+            String value = extraHeaders != null ? extraHeaders.get(name) : null;
+            if (value == null) return false;
+            for (String option : value.split(",")) {
+                if (option.trim().equalsIgnoreCase(token)) return true;
+            }
+            return false;
+        }
+
+        int pos = headerOffsets[i * 4 + 2];
+        int end = headerOffsets[i * 4 + 3];
+        while (pos < end) {
+            int comma = pos;
+            while (comma < end && headerBuf[comma] != ',') comma++;
+            int s = pos;
+            int e = comma;
+            while (s < e && (headerBuf[s] == ' ' || headerBuf[s] == '\t')) s++;
+            while (e > s && (headerBuf[e - 1] == ' ' || headerBuf[e - 1] == '\t')) e--;
+            if (equalsIgnoreCase(headerBuf, s, e, token)) return true;
+            pos = comma + 1;
+        }
+        return false;
+    }
+
+    private int findHeader(String name) {
+        for (int i = 0; i < headerCount; i++) {
+            if (equalsIgnoreCase(headerBuf, headerOffsets[i * 4], headerOffsets[i * 4 + 1], name)) return i;
+        }
+        return -1;
+    }
+
+    // ASCII case-insensitive comparison of buf[start, end) with s
+    static boolean equalsIgnoreCase(byte[] buf, int start, int end, String s) {
+        if (end - start != s.length()) return false;
+        for (int i = 0; i < s.length(); i++) {
+            int a = buf[start + i];
+            int b = s.charAt(i);
+            if (a == b) continue;
+            if (a >= 'A' && a <= 'Z') a += 32;
+            if (b >= 'A' && b <= 'Z') b += 32;
+            if (a != b) return false;
+        }
+        return true;
+    }
+
+    // Builds a map of all headers; meant for debugging, handlers should use getHeader
+    public Map<String, String> getHeaders() {
+        Map<String, String> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        for (int i = headerCount - 1; i >= 0; i--) {
+            int start = headerOffsets[i * 4];
+            String name = new String(headerBuf, start, headerOffsets[i * 4 + 1] - start, StandardCharsets.UTF_8);
+            headers.put(name, getHeaderValue(i));
+        }
+        if (extraHeaders != null) headers.putAll(extraHeaders);
+        return headers;
+    }
+
+    private String getHeaderValue(int i) {
+        int start = headerOffsets[i * 4 + 2];
+        return new String(headerBuf, start, headerOffsets[i * 4 + 3] - start, StandardCharsets.UTF_8);
+    }
+
+    // Decoded as UTF-8 on first use. Buffered bodies only: a streamed body is read with getBodyStream().
+    public String getBody() {
+        if (bodyStream != null) {
+            throw new IllegalStateException("Request body is streamed; read it with getBodyStream()");
+        }
+        if (body == null) {
+            body = bodyLength == 0 ? "" : new String(bodyBuf, bodyOffset, bodyLength, StandardCharsets.UTF_8);
+        }
+        return body;
+    }
+
+    // Length of a buffered body
+    public int getBodyLength() { return bodyLength; }
+
+    // The body as a stream, whether it was buffered by the parser or is still arriving. A
+    // streamed body can be read only once; check isBodyComplete() after reading it.
+    public InputStream getBodyStream() {
+        if (bodyStream != null) return bodyStream;
+        if (bodyBuf == null) return InputStream.nullInputStream();
+        return new ByteArrayInputStream(bodyBuf, bodyOffset, bodyLength);
+    }
+
+    public boolean isBodyStreamed() { return bodyStream != null; }
+
+    void setBodyStream(InputStream bodyStream) {
+        this.bodyStream = bodyStream;
+        this.bodyComplete = true;
+    }
+
+    // A streamed body that broke off: the client went away, bad chunk framing, or over the size limit
+    void setBodyError(int status, String reason) {
+        this.bodyComplete = false;
+        this.bodyErrorStatus = status;
+        this.bodyErrorReason = reason;
+    }
+
+    public int getBodyErrorStatus() { return bodyErrorStatus; }
+
+    public String getBodyErrorReason() { return bodyErrorReason; }
+
+    // complete = false when the connection ended before Content-Length bytes arrived
+    public void setBody(String body, boolean complete) {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        setBody(bytes, 0, bytes.length, complete);
+        this.body = body;
+    }
+
+    void setBody(byte[] buf, int offset, int length, boolean complete) {
+        this.bodyBuf = buf;
+        this.bodyOffset = offset;
+        this.bodyLength = length;
+        this.body = null;
+        this.bodyComplete = complete;
+    }
+
+    public boolean isBodyComplete() { return bodyComplete; }
+
+    // True when the body arrived with Transfer-Encoding: chunked (already decoded)
+    public boolean isChunked() { return chunked; }
+
+    void setChunked(boolean chunked) {
+        this.chunked = chunked;
+    }
+
+    // What the client asked for: HTTP/1.1 keeps the connection open unless told to close, HTTP/1.0 only on request
+    public boolean wantsKeepAlive() {
+        if (headerHasToken("Connection", "close")) return false;
+        if (headerHasToken("Connection", "keep-alive")) return true;
+        return "HTTP/1.1".equals(version);
+    }
+
+    // What the server decided; drives the Connection header of the response. Once the server is
+    // shutting down, every response closes its connection.
+    public boolean isKeepAlive() { return keepAlive && !Shutdown.isDraining(); }
+
+    public void setKeepAlive(boolean keepAlive) {
+        this.keepAlive = keepAlive;
+    }
+
+    public Site getSite() { return site; }
+
+    public void setSite(Site site) {
+        this.site = site;
+    }
+
+    public int getResponseStatus() { return responseStatus; }
+
+    public void setResponseStatus(int status) {
+        this.responseStatus = status;
+    }
+
+    @Override
+    public String toString() {
+        return method + " " + path + (version != null ? " " + version : "");
+    }
+}
@@ -2,7 +2,44 @@ import java.io.*;
 import java.util.*;
 
 public class IsolatedFormSaver {
+
+    public enum FsyncPolicy {
+        NONE,   // leave it to the OS
+        BATCH,  // one fsync once the whole batch is appended
+        ALWAYS  // fsync after every submission
+    }
+
+    private static File dir = new File("submissions");
+    private static long segmentBytes = 64L * 1024 * 1024;
+    private static SubmissionStore store;  // opened on first write, held for the life of the process
+    private static boolean waitForLock = false;  // only the legacy one-shot saver queues for the store
+
+    // Legacy mode: one submission as key=value lines on stdin.
+    // Daemon mode (--daemon): long-lived worker fed batches over a framed protocol, see runDaemon.
     public static void main(String[] args) {
+        FsyncPolicy policy = FsyncPolicy.NONE;
+        boolean daemon = false;
+        for (String arg : args) {
+            if (arg.equals("--daemon")) daemon = true;
+            if (arg.startsWith("--fsync=")) policy = parsePolicy(arg.substring(8));
+            if (arg.startsWith("--segment-bytes=")) segmentBytes = Long.parseLong(arg.substring(16));
+            if (arg.startsWith("--dir=")) dir = new File(arg.substring(6));
+        }
+
+        if (daemon) {
+            // The server waits for each batch only so long; a worker that cannot have the store says
+            // so and exits rather than blocking it
+            try {
+                openStore();
+            } catch (IOException e) {
+                System.err.println("IsolatedFormSaver error: cannot open the submission store in " + dir + ": " + e.getMessage());
+                System.exit(1);
+            }
+            runDaemon(policy);
+            return;
+        }
+        waitForLock = true;
+
         try (BufferedReader in = new BufferedReader(new InputStreamReader(System.in))) {
             Map<String, String> data = new LinkedHashMap<>();
             String line;
@@ -13,19 +50,110 @@ public class IsolatedFormSaver {
                 }
             }
 
-            File dir = new File("submissions");
-            if (!dir.exists()) dir.mkdir();
+            writeBatch(List.of(data), policy);
+            closeStore();
+
+        } catch (IOException e) {
+            System.err.println("IsolatedFormSaver error: " + e.getMessage());
+            System.exit(1);   // the server answers 503 rather than reporting it saved
+        }
+    }
+
+    // Protocol on stdin/stdout (DataInput/DataOutput encoding):
+    //   request: int submissionCount, then per submission: int fieldCount, then UTF key / UTF value pairs
+    //   reply:   int submissionCount, boolean saved  (sent once the batch is written per the fsync policy)
+    // The worker exits when stdin is closed.
+    private static void runDaemon(FsyncPolicy policy) {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(System.in));
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(System.out))) {
+
+            while (true) {
+                int count;
+                try {
+                    count = in.readInt();
+                } catch (EOFException e) {
+                    return; // server closed the pipe
+                }
 
-            File file = new File(dir, "submission_" + System.currentTimeMillis() + ".txt");
-            try (BufferedWriter writer = new BufferedWriter(new FileWriter(file))) {
-                for (Map.Entry<String, String> entry : data.entrySet()) {
-                    writer.write(entry.getKey() + ": " + entry.getValue());
-                    writer.newLine();
+                List<Map<String, String>> batch = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    batch.add(readSubmission(in));
                 }
+
+                boolean saved = true;
+                try {
+                    writeBatch(batch, policy);
+                } catch (IOException e) {
+                    System.err.println("IsolatedFormSaver error: " + e.getMessage());
+                    saved = false;
+                }
+
+                out.writeInt(count);
+                out.writeBoolean(saved);
+                out.flush();
             }
 
         } catch (IOException e) {
             System.err.println("IsolatedFormSaver error: " + e.getMessage());
+        } finally {
+            closeStore();
+        }
+    }
+
+    public static void writeSubmission(DataOutputStream out, Map<String, String> data) throws IOException {
+        out.writeInt(data.size());
+        for (Map.Entry<String, String> entry : data.entrySet()) {
+            out.writeUTF(entry.getKey());
+            out.writeUTF(entry.getValue());
+        }
+    }
+
+    private static Map<String, String> readSubmission(DataInputStream in) throws IOException {
+        int fields = in.readInt();
+        Map<String, String> data = new LinkedHashMap<>();
+        for (int i = 0; i < fields; i++) {
+            data.put(in.readUTF(), in.readUTF());
+        }
+        return data;
+    }
+
+    // Also used directly by the server when submissions are saved in-process
+    public static synchronized void writeBatch(List<Map<String, String>> batch, FsyncPolicy policy) throws IOException {
+        openStore();
+        store.append(batch, policy);
+    }
+
+    // Fails if another process holds the store, unless this is a legacy one-shot saver, which waits
+    private static synchronized void openStore() throws IOException {
+        if (store == null) {
+            store = SubmissionStore.open(dir, segmentBytes, waitForLock);
+        }
+    }
+
+    public static synchronized void setSegmentBytes(long bytes) {
+        segmentBytes = bytes;
+    }
+
+    public static synchronized void setDir(File directory) {
+        dir = directory;
+    }
+
+    public static synchronized void closeStore() {
+        if (store == null) return;
+        try {
+            store.close();
+        } catch (IOException e) {
+            System.err.println("IsolatedFormSaver error: " + e.getMessage());
+        }
+        store = null;
+    }
+
+    public static FsyncPolicy parsePolicy(String value) {
+        try {
+            return FsyncPolicy.valueOf(value.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            System.err.println("Unknown fsync policy '" + value + "', using batch");
+            return FsyncPolicy.BATCH;
         }
     }
 }
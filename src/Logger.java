@@ -1,32 +1,175 @@
 import java.io.*;
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDateTime;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
 
 public class Logger {
 
-    private static final File logDir = new File("logs");
+    private static final File logDir = new File(firstNonBlank(System.getProperty("log.dir"), "logs"));
 
     static {
-        if (!logDir.exists()) logDir.mkdir();
+        if (!logDir.exists()) logDir.mkdirs();
     }
 
     public enum Level {
         DEBUG, INFO, WARN, ERROR
     }
 
+    // What an async caller does when the ring buffer is full
+    public enum Overflow {
+        DROP, BLOCK
+    }
+
+    // Read straight from system properties: ServerConfig logs through this class
+    private static volatile Level threshold = parseLevel(System.getProperty("log.level"), Level.DEBUG);
+    private static final boolean console = !"false".equalsIgnoreCase(System.getProperty("log.console"));
+    private static final boolean async = !"false".equalsIgnoreCase(System.getProperty("log.async"));
+    private static final Overflow overflow = "block".equalsIgnoreCase(System.getProperty("log.overflow")) ? Overflow.BLOCK : Overflow.DROP;
+    private static final int bufferSize = parseInt(System.getProperty("log.bufferSize"), 8192);
+
+    private static final RingBuffer ring = async ? new RingBuffer(bufferSize) : null;
+    private static final Thread writerThread;
+    private static volatile boolean writerParked = false;
+    private static volatile long flushedUpTo = 0;  // ring position the writer has flushed to disk
+    private static final AtomicLong dropped = new AtomicLong();
+
+    private static Writer fileWriter;  // kept open; guarded by Logger.class in sync mode, owned by writerThread in async mode
+
+    static {
+        if (async) {
+            writerThread = new Thread(Logger::drainLoop, "log-writer");
+            writerThread.setDaemon(true);
+            writerThread.start();
+        } else {
+            writerThread = null;
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread(Logger::flush, "log-flush"));
+        ServerConfig.onReload(() -> setLevel(parseLevel(System.getProperty("log.level"), Level.DEBUG)));
+    }
+
+    // Callers building expensive messages check this first
+    public static boolean isEnabled(Level level) {
+        return level.ordinal() >= threshold.ordinal();
+    }
+
+    public static void setLevel(Level level) {
+        threshold = level;
+    }
+
+    public static Level getLevel() { return threshold; }
+
     public static void log(Level level, String message) {
-        String filename = "server.log"; // We'll log all levels in a single file for now
+        if (!isEnabled(level)) return;
 
-        File file = new File(logDir, filename);
         String logEntry = "[" + LocalDateTime.now() + "] [" + level + "] " + message;
 
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter(file, true))) {
-            writer.write(logEntry + "\n");
-        } catch (IOException e) {
-            System.err.println("Logging failed: " + e.getMessage());
+        if (async) {
+            // Formatting stays on the caller so it runs in parallel; only the I/O is handed off
+            if (!ring.offer(level, logEntry, overflow == Overflow.BLOCK)) {
+                dropped.incrementAndGet();
+                return;
+            }
+            if (writerParked) LockSupport.unpark(writerThread);
+            return;
+        }
+
+        synchronized (Logger.class) {
+            try {
+                Writer writer = openWriter();
+                writer.write(logEntry);
+                writer.write('\n');
+                writer.flush();
+            } catch (IOException e) {
+                closeWriter();
+                System.err.println("Logging failed: " + e.getMessage());
+            }
         }
 
         // Optional: Also print to console (color-coded for extra flair)
-        printToConsole(level, logEntry);
+        if (console) printToConsole(level, logEntry);
+    }
+
+    // Blocks until everything logged so far is written to the file
+    public static void flush() {
+        if (async) {
+            long target = ring.claimed();
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (flushedUpTo < target && System.nanoTime() < deadline) {
+                LockSupport.unpark(writerThread);
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+            }
+        } else {
+            synchronized (Logger.class) {
+                try {
+                    if (fileWriter != null) fileWriter.flush();
+                } catch (IOException e) {
+                    System.err.println("Logging failed: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    public static long getDroppedCount() { return dropped.get(); }
+
+    public static boolean isAsync() { return async; }
+
+    private static Writer openWriter() throws IOException {
+        if (fileWriter == null) {
+            File file = new File(logDir, "server.log"); // We'll log all levels in a single file for now
+            fileWriter = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, true), StandardCharsets.UTF_8), 64 * 1024);
+        }
+        return fileWriter;
+    }
+
+    private static void closeWriter() {
+        try {
+            if (fileWriter != null) fileWriter.close();
+        } catch (IOException ignored) {
+        }
+        fileWriter = null;
+    }
+
+    // Single consumer: writes whatever is queued in one batch, flushes, then sleeps until woken
+    private static void drainLoop() {
+        Level[] level = new Level[1];
+        String[] logEntry = new String[1];
+        long reportedDrops = 0;
+
+        while (true) {
+            int batch = 0;
+            try {
+                Writer writer = openWriter();
+                while (batch < bufferSize && ring.poll(level, logEntry)) {
+                    writer.write(logEntry[0]);
+                    writer.write('\n');
+                    if (console) printToConsole(level[0], logEntry[0]);
+                    batch++;
+                }
+
+                long drops = dropped.get();
+                if (drops != reportedDrops) {
+                    writer.write("[" + LocalDateTime.now() + "] [" + Level.WARN + "] Log buffer full, dropped " + (drops - reportedDrops) + " message(s)");
+                    writer.write('\n');
+                    reportedDrops = drops;
+                    batch++;
+                }
+
+                if (batch > 0) writer.flush();
+                flushedUpTo = ring.consumed();
+            } catch (IOException e) {
+                closeWriter();
+                System.err.println("Logging failed: " + e.getMessage());
+            }
+
+            if (batch == 0) {
+                writerParked = true;
+                if (ring.isEmpty()) LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(100));
+                writerParked = false;
+            }
+        }
     }
 
     private static void printToConsole(Level level, String message) {
@@ -40,4 +183,100 @@ public class Logger {
         }
         System.out.println(color + message + "\u001B[0m"); // Reset color after log
     }
+
+    private static Level parseLevel(String value, Level defaultLevel) {
+        if (value == null) return defaultLevel;
+        try {
+            return Level.valueOf(value.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            System.err.println("Unknown log.level '" + value + "', using " + defaultLevel);
+            return defaultLevel;
+        }
+    }
+
+    private static String firstNonBlank(String value, String defaultValue) {
+        return value == null || value.isBlank() ? defaultValue : value.trim();
+    }
+
+    private static int parseInt(String value, int defaultValue) {
+        if (value == null) return defaultValue;
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    // Bounded multi-producer / single-consumer queue (Vyukov style). Each slot carries a sequence
+    // number: a producer claims a slot with one CAS on the tail, fills it and publishes it by
+    // advancing the slot's sequence; the consumer frees it the same way. No locks on either side.
+    private static final class RingBuffer {
+        private final int mask;
+        private final AtomicLongArray sequences;
+        private final Level[] levels;
+        private final String[] entries;
+        private final AtomicLong tail = new AtomicLong();
+        private volatile long head = 0;  // only written by the consumer
+
+        RingBuffer(int requestedCapacity) {
+            int capacity = Integer.highestOneBit(Math.max(2, requestedCapacity - 1)) << 1;
+            this.mask = capacity - 1;
+            this.sequences = new AtomicLongArray(capacity);
+            for (int i = 0; i < capacity; i++) sequences.set(i, i);
+            this.levels = new Level[capacity];
+            this.entries = new String[capacity];
+        }
+
+        boolean offer(Level level, String entry, boolean block) {
+            long pos = tail.get();
+            while (true) {
+                int index = (int) (pos & mask);
+                long difference = sequences.get(index) - pos;
+
+                if (difference == 0) {
+                    if (tail.compareAndSet(pos, pos + 1)) {
+                        levels[index] = level;
+                        entries[index] = entry;
+                        sequences.set(index, pos + 1);  // publish
+                        return true;
+                    }
+                    pos = tail.get();
+                } else if (difference < 0) {
+                    // Full
+                    if (!block) return false;
+                    if (writerParked) LockSupport.unpark(writerThread);
+                    LockSupport.parkNanos(50_000);
+                    pos = tail.get();
+                } else {
+                    pos = tail.get();
+                }
+            }
+        }
+
+        boolean poll(Level[] level, String[] entry) {
+            long pos = head;
+            int index = (int) (pos & mask);
+            if (sequences.get(index) != pos + 1) return false;
+
+            level[0] = levels[index];
+            entry[0] = entries[index];
+            entries[index] = null;
+            sequences.set(index, pos + mask + 1);  // hand the slot back to producers
+            head = pos + 1;
+            return true;
+        }
+
+        boolean isEmpty() {
+            long pos = head;
+            return sequences.get((int) (pos & mask)) != pos + 1;
+        }
+
+        long claimed() {
+            return tail.get();
+        }
+
+        long consumed() {
+            return head;
+        }
+    }
 }
@@ -0,0 +1,247 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToLongFunction;
+
+// Request, connection and form-save metrics, served in the Prometheus text format on
+// metrics.path. Series are found by array index (method x route x status), so recording a request
+// looks nothing up by string and allocates nothing once a series exists.
+public class Metrics {
+
+    public static final int ROUTE_STATIC = 0;
+    public static final int ROUTE_FORM = 1;
+    public static final int ROUTE_METRICS = 2;
+    public static final int ROUTE_UNMATCHED = 3;
+    private static final String[] ROUTES = { "static", "form", "metrics", "unmatched" };
+
+    private static final String[] METHODS = { "GET", "POST", "OTHER" };
+    private static final int MIN_STATUS = 100;
+    private static final int STATUSES = 500;   // 100..599
+    private static final double[] QUANTILES = { 0.5, 0.9, 0.99, 0.999 };
+
+    // Empty turns the endpoint off
+    private static final String PATH = ServerConfig.get("metrics.path", "/metrics");
+    private static volatile boolean allowRemote = readAllowRemote();
+
+    private static final class Series {
+        final int method;
+        final int route;
+        final int status;
+        final LatencyHistogram latency = new LatencyHistogram();
+
+        Series(int method, int route, int status) {
+            this.method = method;
+            this.route = route;
+            this.status = status;
+        }
+    }
+
+    private static final AtomicReferenceArray<Series> requests = new AtomicReferenceArray<>(METHODS.length * ROUTES.length * STATUSES);
+    private static final LongAdder[] rejected = new LongAdder[STATUSES];   // answered by the engine, never dispatched
+
+    private static final LongAdder connectionsOpened = new LongAdder();
+    private static final LongAdder connectionsClosed = new LongAdder();
+
+    private static final LatencyHistogram formSaves = new LatencyHistogram();
+    private static final LongAdder formSaveFailures = new LongAdder();
+
+    private static final long START_MILLIS = System.currentTimeMillis();
+
+    // A pool of worker threads, reported as gauges (-1 for a limit that does not exist) and the
+    // count of work it refused because it was full
+    public interface WorkerGauges {
+        int getActiveCount();
+        int getMaxPoolSize();
+        int getQueueDepth();
+        int getQueueCapacity();
+        long getRejectedCount();
+    }
+
+    // By the pool label; registered by the server engine at startup. All listeners share a pool.
+    private static final Map<String, WorkerGauges> workerPools = new ConcurrentHashMap<>();
+
+    static {
+        for (int i = 0; i < STATUSES; i++) {
+            rejected[i] = new LongAdder();
+        }
+        ServerConfig.onReload(() -> allowRemote = readAllowRemote());
+    }
+
+    private static boolean readAllowRemote() {
+        return ServerConfig.get("metrics.allowRemote", "false").equalsIgnoreCase("true");
+    }
+
+    // Where the endpoint is routed; empty when it is turned off
+    public static String getPath() {
+        return PATH;
+    }
+
+    public static void recordRequest(String method, int route, int status, long nanos) {
+        int m = method.equals("GET") ? 0 : method.equals("POST") ? 1 : 2;
+        int index = (m * ROUTES.length + route) * STATUSES + statusIndex(status);
+        Series series = requests.get(index);
+        if (series == null) {
+            // First request of this kind; a racing thread's series wins and this one is dropped
+            requests.compareAndSet(index, null, new Series(m, route, statusIndex(status) + MIN_STATUS));
+            series = requests.get(index);
+        }
+        series.latency.record(nanos);
+    }
+
+    // A request answered before it reached a handler: malformed, too large, or shed under load
+    public static void recordRejected(int status) {
+        rejected[statusIndex(status)].increment();
+    }
+
+    public static void connectionOpened() { connectionsOpened.increment(); }
+
+    public static void connectionClosed() { connectionsClosed.increment(); }
+
+    public static void registerWorkers(String pool, WorkerGauges gauges) {
+        workerPools.put(pool, gauges);
+    }
+
+    public static void recordFormSave(long nanos, boolean saved) {
+        formSaves.record(nanos);
+        if (!saved) formSaveFailures.increment();
+    }
+
+    private static int statusIndex(int status) {
+        return Math.max(0, Math.min(STATUSES - 1, status - MIN_STATUS));
+    }
+
+    // Writes the whole response; the endpoint is only open to loopback clients unless metrics.allowRemote=true
+    public static void handle(HttpRequest request, OutputStream out) throws IOException {
+        if (!allowRemote && !request.getClientAddress().isLoopbackAddress()) {
+            Logger.log(Logger.Level.WARN, "Metrics request from non-loopback client " + request.getClientAddress() + " refused");
+            RequestHandler.sendResponse(request, out, 403, "Forbidden", "text/html", "<h1>403 Forbidden</h1><p>Access denied.</p>");
+            return;
+        }
+        byte[] body = render().getBytes(StandardCharsets.UTF_8);
+        String header = "HTTP/1.1 200 OK\r\n" +
+                        "Content-Type: text/plain; version=0.0.4; charset=utf-8\r\n" +
+                        "Cache-Control: no-store\r\n" +
+                        "Content-Length: " + body.length + "\r\n" +
+                        RequestHandler.connectionHeader(request.isKeepAlive());
+        request.setResponseStatus(200);
+        out.write(header.getBytes(StandardCharsets.US_ASCII));
+        out.write(body);
+        out.flush();
+    }
+
+    static String render() {
+        StringBuilder sb = new StringBuilder(4096);
+
+        sb.append("# HELP http_request_duration_seconds Time from dispatch to the response being written, by method, route and status.\n");
+        sb.append("# TYPE http_request_duration_seconds summary\n");
+        for (int i = 0; i < requests.length(); i++) {
+            Series series = requests.get(i);
+            if (series == null) continue;
+            String labels = "method=\"" + METHODS[series.method] + "\",route=\"" + ROUTES[series.route] + "\",status=\"" + series.status + "\"";
+            appendSummary(sb, "http_request_duration_seconds", labels, series.latency);
+        }
+
+        sb.append("# HELP http_requests_rejected_total Requests answered by the server engine without reaching a handler, by status.\n");
+        sb.append("# TYPE http_requests_rejected_total counter\n");
+        for (int i = 0; i < STATUSES; i++) {
+            long n = rejected[i].sum();
+            if (n > 0) sb.append("http_requests_rejected_total{status=\"").append(i + MIN_STATUS).append("\"} ").append(n).append('\n');
+        }
+
+        long opened = connectionsOpened.sum();
+        long closed = connectionsClosed.sum();
+        sb.append("# HELP http_connections_total Connections accepted.\n");
+        sb.append("# TYPE http_connections_total counter\n");
+        sb.append("http_connections_total ").append(opened).append('\n');
+        sb.append("# HELP http_connections_active Connections currently open.\n");
+        sb.append("# TYPE http_connections_active gauge\n");
+        sb.append("http_connections_active ").append(Math.max(0, opened - closed)).append('\n');
+
+        appendWorkerSeries(sb, "server_workers_active", "gauge", "Worker threads busy with a connection or request.", WorkerGauges::getActiveCount);
+        appendWorkerSeries(sb, "server_workers_max", "gauge", "Most worker threads (or concurrent connections) allowed.", WorkerGauges::getMaxPoolSize);
+        appendWorkerSeries(sb, "server_queue_depth", "gauge", "Work waiting for a worker thread.", WorkerGauges::getQueueDepth);
+        appendWorkerSeries(sb, "server_queue_capacity", "gauge", "Work that may wait before new work is refused with 503.", WorkerGauges::getQueueCapacity);
+        appendWorkerSeries(sb, "server_rejected_total", "counter", "Work refused with 503 because the pool and its queue were full.", WorkerGauges::getRejectedCount);
+
+        sb.append("# HELP form_save_duration_seconds Time to hand a submission to the saver and get it stored.\n");
+        sb.append("# TYPE form_save_duration_seconds summary\n");
+        appendSummary(sb, "form_save_duration_seconds", "", formSaves);
+        sb.append("# HELP form_save_failures_total Submissions that could not be stored.\n");
+        sb.append("# TYPE form_save_failures_total counter\n");
+        sb.append("form_save_failures_total ").append(formSaveFailures.sum()).append('\n');
+
+        // One series per document root; listeners sharing a root share its cache
+        Map<StaticFileCache, String> caches = new LinkedHashMap<>();
+        for (Site site : Site.all()) {
+            caches.putIfAbsent(site.getCache(), "{root=\"" + site.getRoot().replace("\\", "\\\\").replace("\"", "\\\"") + "\"}");
+        }
+        appendCacheCounter(sb, "static_file_cache_hits_total", "Static file requests answered from memory.", caches, StaticFileCache::getHitCount);
+        appendCacheCounter(sb, "static_file_cache_misses_total", "Static file requests not found in memory.", caches, StaticFileCache::getMissCount);
+        appendCacheCounter(sb, "static_file_cache_evictions_total", "Entries evicted for the memory budget.", caches, StaticFileCache::getEvictionCount);
+        sb.append("# HELP static_file_cache_bytes Bytes held by the static file cache.\n");
+        sb.append("# TYPE static_file_cache_bytes gauge\n");
+        for (Map.Entry<StaticFileCache, String> cache : caches.entrySet()) {
+            sb.append("static_file_cache_bytes").append(cache.getValue()).append(' ').append(cache.getKey().getCurrentBytes()).append('\n');
+        }
+
+        sb.append("# HELP client_limiter_clients Clients with rate limit or connection state held.\n");
+        sb.append("# TYPE client_limiter_clients gauge\n");
+        sb.append("client_limiter_clients ").append(ClientLimiter.getInstance().getClientCount()).append('\n');
+
+        appendCounter(sb, "log_messages_dropped_total", "Log messages dropped because the async log buffer was full.", Logger.getDroppedCount());
+
+        sb.append("# HELP server_startup_seconds Time from JVM start to each startup milestone: warmed up, listening, first response sent.\n");
+        sb.append("# TYPE server_startup_seconds gauge\n");
+        appendMilestone(sb, "steady", Warmup.getSteadyMillis());
+        appendMilestone(sb, "ready", Warmup.getReadyMillis());
+        appendMilestone(sb, "first_response", Warmup.getFirstResponseMillis());
+
+        sb.append("# HELP process_start_time_seconds Start time of the process since the epoch.\n");
+        sb.append("# TYPE process_start_time_seconds gauge\n");
+        sb.append("process_start_time_seconds ").append(START_MILLIS / 1000).append('\n');
+        return sb.toString();
+    }
+
+    private static void appendSummary(StringBuilder sb, String name, String labels, LatencyHistogram histogram) {
+        String separator = labels.isEmpty() ? "" : ",";
+        for (double q : QUANTILES) {
+            sb.append(name).append("{").append(labels).append(separator).append("quantile=\"").append(q).append("\"} ")
+              .append(histogram.quantileMicros(q) / 1e6).append('\n');
+        }
+        String braces = labels.isEmpty() ? "" : "{" + labels + "}";
+        sb.append(name).append("_sum").append(braces).append(' ').append(histogram.getSumNanos() / 1e9).append('\n');
+        sb.append(name).append("_count").append(braces).append(' ').append(histogram.getCount()).append('\n');
+    }
+
+    private static void appendWorkerSeries(StringBuilder sb, String name, String type, String help, ToLongFunction<WorkerGauges> value) {
+        sb.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        sb.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+        for (Map.Entry<String, WorkerGauges> pool : workerPools.entrySet()) {
+            long n = value.applyAsLong(pool.getValue());
+            if (n >= 0) sb.append(name).append("{pool=\"").append(pool.getKey()).append("\"} ").append(n).append('\n');
+        }
+    }
+
+    private static void appendCacheCounter(StringBuilder sb, String name, String help, Map<StaticFileCache, String> caches, ToLongFunction<StaticFileCache> value) {
+        sb.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        sb.append("# TYPE ").append(name).append(" counter\n");
+        for (Map.Entry<StaticFileCache, String> cache : caches.entrySet()) {
+            sb.append(name).append(cache.getValue()).append(' ').append(value.applyAsLong(cache.getKey())).append('\n');
+        }
+    }
+
+    private static void appendMilestone(StringBuilder sb, String phase, long millis) {
+        if (millis >= 0) sb.append("server_startup_seconds{phase=\"").append(phase).append("\"} ").append(millis / 1e3).append('\n');
+    }
+
+    private static void appendCounter(StringBuilder sb, String name, String help, long value) {
+        sb.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        sb.append("# TYPE ").append(name).append(" counter\n");
+        sb.append(name).append(' ').append(value).append('\n');
+    }
+}
@@ -0,0 +1,89 @@
+// Content types by file extension, built once with the class. A lookup hashes the extension where
+// it sits in the path, ignoring case, and probes an open-addressed table, so it allocates nothing.
+final class MimeTypes {
+
+    private static final String[][] TYPES = {
+        { "html", "text/html" },
+        { "htm", "text/html" },
+        { "css", "text/css" },
+        { "js", "application/javascript" },
+        { "mjs", "application/javascript" },
+        { "json", "application/json" },
+        { "map", "application/json" },
+        { "xml", "application/xml" },
+        { "txt", "text/plain" },
+        { "csv", "text/csv" },
+        { "png", "image/png" },
+        { "jpg", "image/jpeg" },
+        { "jpeg", "image/jpeg" },
+        { "gif", "image/gif" },
+        { "webp", "image/webp" },
+        { "svg", "image/svg+xml" },
+        { "ico", "image/x-icon" },
+        { "pdf", "application/pdf" },
+        { "woff", "font/woff" },
+        { "woff2", "font/woff2" },
+        { "wasm", "application/wasm" },
+        { "mp4", "video/mp4" },
+    };
+
+    // Power-of-two sized, at most a quarter full, so probes are short
+    private static final String[] extensions;
+    private static final String[] contentTypes;
+    private static final int mask;
+
+    static {
+        int size = Integer.highestOneBit(TYPES.length * 4 - 1) << 1;
+        extensions = new String[size];
+        contentTypes = new String[size];
+        mask = size - 1;
+        for (String[] type : TYPES) {
+            String extension = type[0];
+            int i = hash(extension, 0, extension.length()) & mask;
+            while (extensions[i] != null) i = (i + 1) & mask;
+            extensions[i] = extension;
+            contentTypes[i] = type[1];
+        }
+    }
+
+    private MimeTypes() {}
+
+    // The type for the path's extension (after the last '.' of its last segment), or null if it has
+    // none or an unknown one
+    static String find(String path) {
+        int end = path.length();
+        int dot = -1;
+        for (int i = end - 1; i >= 0; i--) {
+            char c = path.charAt(i);
+            if (c == '.') {
+                dot = i;
+                break;
+            }
+            if (c == '/') return null;
+        }
+        if (dot < 0 || dot == end - 1) return null;
+
+        int from = dot + 1;
+        int length = end - from;
+        int i = hash(path, from, end) & mask;
+        String extension;
+        while ((extension = extensions[i]) != null) {
+            if (extension.length() == length && path.regionMatches(true, from, extension, 0, length)) {
+                return contentTypes[i];
+            }
+            i = (i + 1) & mask;
+        }
+        return null;
+    }
+
+    // Of the ASCII-lowercased characters; the table's extensions are all lower case
+    private static int hash(String s, int from, int to) {
+        int h = 0;
+        for (int i = from; i < to; i++) {
+            char c = s.charAt(i);
+            if (c >= 'A' && c <= 'Z') c += 'a' - 'A';
+            h = 31 * h + c;
+        }
+        return h ^ (h >>> 16);
+    }
+}
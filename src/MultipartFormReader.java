@@ -0,0 +1,338 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Streaming multipart/form-data reader (RFC 7578). The body goes through one fixed buffer: text
+// fields are collected like urlencoded ones (same limits), file parts are written straight to
+// upload.dir under a generated name, which becomes the field's value. Memory use does not
+// depend on the size of the upload.
+public class MultipartFormReader {
+
+    private static final int BUFFER_BYTES = 16 * 1024;
+    private static final int MAX_PART_HEADER_BYTES = 8192;
+    private static final int MAX_BOUNDARY_LENGTH = 70;   // RFC 2046 section 5.1.1
+    private static final AtomicLong UPLOAD_IDS = new AtomicLong();
+
+    private final byte[] delimiter;       // CRLF "--" boundary
+    private final int maxFields;
+    private final int maxFieldBytes;
+    private final Path uploadDir;
+    private final List<Path> uploads = new ArrayList<>();
+    private final Map<String, Path> uploadFields = new HashMap<>();   // the file each file field holds
+
+    private final byte[] buf = new byte[BUFFER_BYTES];
+    private int pos = 0;
+    private int limit = 0;
+    private InputStream in;
+
+    // Where the current part's bytes go: a file, the field buffer, or nowhere
+    private OutputStream fileOut;
+    private byte[] field;
+    private int fieldLength = 0;
+    private boolean collectingField = false;
+    private long partBytes = 0;
+
+    private int errorStatus;
+    private String errorReason;
+
+    public MultipartFormReader(String boundary, int maxFields, int maxFieldBytes, Path uploadDir) {
+        this.delimiter = ("\r\n--" + boundary).getBytes(StandardCharsets.ISO_8859_1);
+        this.maxFields = maxFields;
+        this.maxFieldBytes = maxFieldBytes;
+        this.uploadDir = uploadDir;
+    }
+
+    // Null if the Content-Type has no usable boundary
+    public static MultipartFormReader fromConfig(String contentType) {
+        String boundary = boundary(contentType);
+        if (boundary == null) return null;
+        return new MultipartFormReader(boundary,
+                                       FormBodyDecoder.MAX_FIELDS,
+                                       FormBodyDecoder.MAX_FIELD_BYTES,
+                                       Paths.get(ServerConfig.get("upload.dir", "uploads")));
+    }
+
+    public static boolean isMultipart(String contentType) {
+        return contentType != null && contentType.regionMatches(true, 0, "multipart/form-data", 0, 19);
+    }
+
+    static String boundary(String contentType) {
+        String value = parameter(contentType, "boundary");
+        if (value == null || value.isEmpty() || value.length() > MAX_BOUNDARY_LENGTH) return null;
+        for (int i = 0; i < value.length(); i++) {
+            if (value.charAt(i) > 126) return null;
+        }
+        return value;
+    }
+
+    // A parameter of a header value like: form-data; name="field"; filename="a.txt"
+    static String parameter(String headerValue, String name) {
+        if (headerValue == null) return null;
+        int i = headerValue.indexOf(';');
+        while (i >= 0 && i < headerValue.length()) {
+            i++;
+            while (i < headerValue.length() && (headerValue.charAt(i) == ' ' || headerValue.charAt(i) == '\t')) i++;
+            int eq = headerValue.indexOf('=', i);
+            int semi = headerValue.indexOf(';', i);
+            if (eq < 0) return null;
+            if (semi >= 0 && semi < eq) {
+                i = semi;
+                continue;
+            }
+
+            boolean match = headerValue.substring(i, eq).trim().equalsIgnoreCase(name);
+            int v = eq + 1;
+            StringBuilder value = new StringBuilder();
+            if (v < headerValue.length() && headerValue.charAt(v) == '"') {
+                // Quoted string; a backslash escapes the next character
+                v++;
+                while (v < headerValue.length() && headerValue.charAt(v) != '"') {
+                    if (headerValue.charAt(v) == '\\' && v + 1 < headerValue.length()) v++;
+                    value.append(headerValue.charAt(v++));
+                }
+                i = headerValue.indexOf(';', v);
+            } else {
+                int end = semi < 0 ? headerValue.length() : semi;
+                value.append(headerValue, v, end);
+                i = semi;
+            }
+            if (match) return value.toString().trim();
+        }
+        return null;
+    }
+
+    // Reads every part into the map (files are stored on disk). Returns false if the body is
+    // malformed or over a limit (see getErrorStatus); files written so far are in getUploads().
+    public boolean read(InputStream in, Map<String, String> into) throws IOException {
+        this.in = in;
+
+        // The first delimiter may start the body without a preceding CRLF
+        buf[0] = '\r';
+        buf[1] = '\n';
+        limit = 2;
+
+        if (!readPart()) return fail(400, "Malformed multipart body.");   // preamble, discarded
+
+        int parts = 0;
+        while (true) {
+            if (!ensure(2)) return fail(400, "Malformed multipart body.");
+            if (buf[pos] == '-' && buf[pos + 1] == '-') {
+                // Close delimiter: whatever follows is an epilogue and is ignored
+                while (fill()) pos = limit;
+                return true;
+            }
+            if (++parts > maxFields) return fail(413, "Too many form fields.");
+
+            // Rest of the delimiter line (transport padding), then the part's header lines
+            int lineEnd = lineEnd();
+            if (lineEnd < 0) return fail(400, "Malformed multipart body.");
+            pos = lineEnd + 2;
+
+            String disposition = null;
+            int headerBytes = 0;
+            while (true) {
+                lineEnd = lineEnd();
+                if (lineEnd < 0) return fail(400, "Malformed multipart part headers.");
+                int length = lineEnd - pos;
+                headerBytes += length + 2;
+                if (headerBytes > MAX_PART_HEADER_BYTES) return fail(400, "Multipart part headers too large.");
+                if (length == 0) {
+                    pos = lineEnd + 2;
+                    break;
+                }
+                String line = new String(buf, pos, length, StandardCharsets.UTF_8);
+                pos = lineEnd + 2;
+                int colon = line.indexOf(':');
+                if (colon > 0 && line.substring(0, colon).trim().equalsIgnoreCase("Content-Disposition")) {
+                    disposition = line.substring(colon + 1).trim();
+                }
+            }
+
+            String name = parameter(disposition, "name");
+            String filename = parameter(disposition, "filename");
+
+            if (name == null || (filename != null && filename.isEmpty())) {
+                // Not a form field, or a file input left empty: skipped
+                if (!readPart()) return fail(400, "Incomplete multipart body.");
+            } else if (filename != null) {
+                Path file = newUploadFile(filename);
+                try (OutputStream out = Files.newOutputStream(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+                    fileOut = out;
+                    if (!readPart()) return fail(400, "Incomplete multipart body.");
+                } finally {
+                    fileOut = null;
+                }
+                put(into, name, file.getFileName().toString());
+                uploadFields.put(name, file);
+                Logger.log(Logger.Level.INFO, "Upload stored: " + file + " (" + partBytes + " bytes, field '" + name + "')");
+            } else {
+                collectingField = true;
+                fieldLength = 0;
+                boolean complete = readPart();
+                collectingField = false;
+                if (!complete) return fail(400, "Incomplete multipart body.");
+                if (fieldLength > maxFieldBytes) return fail(413, "Form field too long.");
+                put(into, name, fieldLength == 0 ? "" : new String(field, 0, fieldLength, StandardCharsets.UTF_8));
+                if (Logger.isEnabled(Logger.Level.DEBUG)) {
+                    Logger.log(Logger.Level.DEBUG, "Parsed multipart field: " + name + " (" + fieldLength + " bytes)");
+                }
+            }
+        }
+    }
+
+    // A repeated name keeps its last value, as in urlencoded forms; a file it replaces is deleted
+    // at once, since nothing refers to it any more
+    private void put(Map<String, String> into, String name, String value) {
+        into.put(name, value);
+        Path file = uploadFields.remove(name);
+        if (file == null) return;
+        uploads.remove(file);
+        try {
+            Files.deleteIfExists(file);
+            Logger.log(Logger.Level.INFO, "Upload replaced by a repeated field '" + name + "', deleted: " + file);
+        } catch (IOException e) {
+            Logger.log(Logger.Level.WARN, "Could not delete upload " + file + ": " + e.getMessage());
+        }
+    }
+
+    public List<Path> getUploads() { return uploads; }
+
+    // Removes the files of a submission that was not accepted
+    public void deleteUploads() {
+        for (Path file : uploads) {
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException e) {
+                Logger.log(Logger.Level.WARN, "Could not delete upload " + file + ": " + e.getMessage());
+            }
+        }
+        uploads.clear();
+        uploadFields.clear();
+    }
+
+    public int getErrorStatus() { return errorStatus; }
+
+    public String getErrorReason() { return errorReason; }
+
+    private boolean fail(int status, String reason) {
+        errorStatus = status;
+        errorReason = reason;
+        return false;
+    }
+
+    // The stored name never contains anything from the client except a short alphanumeric extension
+    private Path newUploadFile(String clientName) throws IOException {
+        Files.createDirectories(uploadDir);
+        String extension = "";
+        int dot = clientName.lastIndexOf('.');
+        if (dot >= 0 && clientName.length() - dot <= 11) {
+            String candidate = clientName.substring(dot + 1).toLowerCase();
+            if (!candidate.isEmpty() && candidate.chars().allMatch(c -> (c >= 'a' && c <= 'z') || (c >= '0' && c <= '9'))) {
+                extension = "." + candidate;
+            }
+        }
+        Path file = uploadDir.resolve("upload_" + System.currentTimeMillis() + "_" + UPLOAD_IDS.incrementAndGet() + extension);
+        uploads.add(file);
+        return file;
+    }
+
+    // Hands the bytes up to the next delimiter to the current sink and moves past the delimiter.
+    // False if the body ends first.
+    private boolean readPart() throws IOException {
+        partBytes = 0;
+        while (true) {
+            int found = indexOfDelimiter();
+            if (found >= 0) {
+                emit(pos, found);
+                pos = found + delimiter.length;
+                return true;
+            }
+            // Bytes that cannot be the start of a delimiter are passed on before reading more
+            int safe = limit - (delimiter.length - 1);
+            if (safe > pos) {
+                emit(pos, safe);
+                pos = safe;
+            }
+            if (!fill()) return false;
+        }
+    }
+
+    private int indexOfDelimiter() {
+        int last = limit - delimiter.length;
+        outer:
+        for (int i = pos; i <= last; i++) {
+            if (buf[i] != '\r') continue;
+            for (int j = 1; j < delimiter.length; j++) {
+                if (buf[i + j] != delimiter[j]) continue outer;
+            }
+            return i;
+        }
+        return -1;
+    }
+
+    private void emit(int from, int to) throws IOException {
+        int n = to - from;
+        if (n <= 0) return;
+        partBytes += n;
+        if (fileOut != null) {
+            fileOut.write(buf, from, n);
+        } else if (collectingField) {
+            // Past the limit the rest is dropped; the caller rejects the form
+            if (fieldLength + n > maxFieldBytes) {
+                fieldLength = maxFieldBytes + 1;
+                return;
+            }
+            if (field == null || fieldLength + n > field.length) {
+                byte[] bigger = new byte[Math.min(Math.max(fieldLength + n, field == null ? 256 : field.length * 2), maxFieldBytes)];
+                if (field != null) System.arraycopy(field, 0, bigger, 0, fieldLength);
+                field = bigger;
+            }
+            System.arraycopy(buf, from, field, fieldLength, n);
+            fieldLength += n;
+        }
+    }
+
+    // Index of the CRLF ending the line that starts at pos, reading more as needed; -1 if the
+    // body ends first or the line is longer than a part header may be
+    private int lineEnd() throws IOException {
+        int scanned = 0;
+        while (true) {
+            for (int i = pos + scanned; i + 1 < limit; i++) {
+                if (buf[i] == '\r' && buf[i + 1] == '\n') return i;
+            }
+            scanned = Math.max(0, limit - pos - 1);
+            if (scanned > MAX_PART_HEADER_BYTES || !fill()) return -1;
+        }
+    }
+
+    private boolean ensure(int bytes) throws IOException {
+        while (limit - pos < bytes) {
+            if (!fill()) return false;
+        }
+        return true;
+    }
+
+    // Moves the unread bytes to the front and reads more; false at the end of the body
+    private boolean fill() throws IOException {
+        if (pos > 0) {
+            System.arraycopy(buf, pos, buf, 0, limit - pos);
+            limit -= pos;
+            pos = 0;
+        }
+        if (limit == buf.length) return true;
+        int n = in.read(buf, limit, buf.length - limit);
+        if (n < 0) return false;
+        limit += n;
+        return true;
+    }
+}
@@ -0,0 +1,275 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+
+// Per-connection state for the NIO engine: incremental request parsing (HttpParser) and non-blocking response writes
+public class NioConnection {
+
+    private static final String REQUEST_TIMEOUT_BODY = "<h1>408 Request Timeout</h1>";
+    private static final byte[] REQUEST_TIMEOUT = ("HTTP/1.1 408 Request Timeout\r\n" +
+                                                   "Content-Type: text/html\r\n" +
+                                                   "Content-Length: " + REQUEST_TIMEOUT_BODY.length() + "\r\n" +
+                                                   "Connection: close\r\n\r\n" +
+                                                   REQUEST_TIMEOUT_BODY).getBytes(StandardCharsets.UTF_8);
+
+    private enum State { HEADERS, BODY, PROCESSING, WRITING }
+
+    private final SocketChannel channel;
+    private final Site site;
+    private final InetAddress clientAddress;
+    private final int maxRequests;
+    private final HttpParser parser;
+
+    private int served = 0;
+    private long lastActivityNanos = System.nanoTime();
+    private long requestStartNanos = lastActivityNanos;   // first byte of the request (accept, for the first); 0 before it
+    private long bodyStartNanos;
+    private long bodyBytes;
+    private long writeProgressNanos;                      // last time a write moved data
+
+    private State state = State.HEADERS;
+    private HttpRequest request;
+    private ArrayDeque<Object> pendingWrites;    // ByteBuffer or NioResponseBuffer.FileRegion
+    private FileChannel sendingFile;             // open while a file region is being transferred
+    private long sendingPosition;
+
+    public NioConnection(SocketChannel channel, Site site, int maxHeaderBytes, int maxBodyBytes, int maxRequests) {
+        this.channel = channel;
+        this.site = site;
+        this.clientAddress = channel.socket().getInetAddress();
+        this.maxRequests = maxRequests;
+        this.parser = new HttpParser(maxHeaderBytes, maxBodyBytes);
+    }
+
+    public SocketChannel getChannel() { return channel; }
+
+    public InetAddress getClientAddress() { return clientAddress; }
+
+    public HttpRequest getRequest() { return request; }
+
+    // Reads what is available. Returns true once a full request is ready to be dispatched.
+    public boolean onReadable() throws IOException {
+        if (state != State.HEADERS && state != State.BODY) return false;
+
+        int n = parser.readFrom(channel);
+
+        if (n < 0) {
+            // Client closed its side: an incomplete body is still answered, like the blocking engine does
+            if (parser.endOfInput() == HttpParser.Result.REQUEST) {
+                return dispatchable();
+            }
+            throw new IOException("Connection closed by client");
+        }
+
+        lastActivityNanos = System.nanoTime();
+        if (requestStartNanos == 0) requestStartNanos = lastActivityNanos;
+        if (state == State.BODY) bodyBytes += n;
+        return parseAvailable();
+    }
+
+    // Parses from what is already buffered, which after a response may be a pipelined request
+    public boolean parseAvailable() {
+        switch (parser.parse(clientAddress)) {
+            case REQUEST -> {
+                return admitted() && dispatchable();
+            }
+            case ERROR -> {
+                Metrics.recordRejected(parser.getErrorStatus());
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                parser.writeError(out);
+                request = null;
+                queueResponse(out.toByteArray());
+                return false;
+            }
+            default -> {
+                // Headers are in once the parser has a request object
+                if (state == State.HEADERS && parser.getRequest() != null && admitted()) {
+                    state = State.BODY;
+                    bodyStartNanos = System.nanoTime();
+                    bodyBytes = 0;
+                }
+                return false;
+            }
+        }
+    }
+
+    // Checked once per request, as soon as its headers are in: over the client's budget, the
+    // request is answered with 429 and the connection closed without reading the body
+    private boolean admitted() {
+        if (state != State.HEADERS) return true;
+        HttpRequest headers = parser.getRequest();
+        long wait = ClientLimiter.getInstance().acquire(clientAddress, headers.getMethod());
+        if (wait == 0) return true;
+
+        Logger.log(Logger.Level.WARN, "Rate limit exceeded by " + clientAddress + " (" + headers.getMethod() + "), refused with 429");
+        Metrics.recordRejected(429);
+        request = headers;
+        request.setKeepAlive(false);
+        queueResponse(ClientLimiter.tooManyRequests(wait));
+        return false;
+    }
+
+    private boolean dispatchable() {
+        request = parser.getRequest();
+        request.setSite(site);
+        served++;
+        if (served >= maxRequests) request.setKeepAlive(false);
+        state = State.PROCESSING;
+        return true;
+    }
+
+    // Called once the response is written. Returns false if the connection should be closed.
+    public boolean startNextRequest() {
+        if (request == null || !request.isKeepAlive()) return false;
+
+        parser.next();
+        request = null;
+        pendingWrites = null;
+        state = State.HEADERS;
+        lastActivityNanos = System.nanoTime();
+        requestStartNanos = parser.isIdle() ? 0 : lastActivityNanos;
+        return true;
+    }
+
+    // True when waiting between requests with nothing buffered
+    public boolean isIdleBetweenRequests() {
+        return state == State.HEADERS && served > 0 && parser.isIdle();
+    }
+
+    // True when no part of a request has been received, the first one included (for the shutdown drain)
+    public boolean isWaitingForRequest() {
+        return state == State.HEADERS && parser.isIdle();
+    }
+
+    // Checked by the event loop's periodic sweep: a description of the deadline this connection
+    // has missed, or null
+    public String missedDeadline(long now) {
+        switch (state) {
+            case HEADERS -> {
+                if (requestStartNanos != 0 && !isIdleBetweenRequests() && now - requestStartNanos > Deadlines.headerNanos()) {
+                    return "request headers not complete within " + Deadlines.millis(Deadlines.headerNanos()) + " ms";
+                }
+            }
+            case BODY -> {
+                if (now - lastActivityNanos > Deadlines.readNanos()) {
+                    return "no request body data for " + Deadlines.millis(Deadlines.readNanos()) + " ms";
+                }
+                if (Deadlines.isTooSlow(bodyBytes, now - bodyStartNanos)) {
+                    return "request body too slow (" + bodyBytes + " bytes in " + Deadlines.millis(now - bodyStartNanos) + " ms)";
+                }
+            }
+            case WRITING -> {
+                if (now - writeProgressNanos > Deadlines.writeNanos()) {
+                    return "response write stalled for " + Deadlines.millis(Deadlines.writeNanos()) + " ms";
+                }
+            }
+            case PROCESSING -> {
+            }
+        }
+        return null;
+    }
+
+    // Best effort 408 for a request that missed a read deadline, as far as the socket buffer takes it
+    public void sendTimeout() {
+        if (state != State.HEADERS && state != State.BODY) return;
+        Metrics.recordRejected(408);
+        try {
+            channel.write(ByteBuffer.wrap(REQUEST_TIMEOUT));
+        } catch (IOException e) {
+            Logger.log(Logger.Level.DEBUG, "Failed to send 408 to " + clientAddress + ": " + e.getMessage());
+        }
+    }
+
+    public long getLastActivityNanos() { return lastActivityNanos; }
+
+    public void queueResponse(byte[] response) {
+        pendingWrites = new ArrayDeque<>(1);
+        pendingWrites.add(ByteBuffer.wrap(response));
+        state = State.WRITING;
+        writeProgressNanos = System.nanoTime();
+    }
+
+    public void queueResponse(NioResponseBuffer response) {
+        pendingWrites = response.parts();
+        state = State.WRITING;
+        writeProgressNanos = System.nanoTime();
+    }
+
+    public boolean hasPendingWrite() {
+        return state == State.WRITING;
+    }
+
+    // Returns true when everything queued has been written; false if the socket buffer is full
+    public boolean onWritable() throws IOException {
+        Object part;
+        while ((part = pendingWrites.peek()) != null) {
+            if (part instanceof ByteBuffer buffer) {
+                if (channel.write(buffer) > 0) writeProgressNanos = System.nanoTime();
+                if (buffer.hasRemaining()) return false;
+            } else if (!transfer((NioResponseBuffer.FileRegion) part)) {
+                return false;
+            }
+            pendingWrites.poll();
+        }
+        return true;
+    }
+
+    private boolean transfer(NioResponseBuffer.FileRegion region) throws IOException {
+        if (sendingFile == null) {
+            sendingFile = FileChannel.open(region.file, StandardOpenOption.READ);
+            sendingPosition = region.position;
+        }
+
+        long end = region.position + region.count;
+        while (sendingPosition < end) {
+            long sent = sendingFile.transferTo(sendingPosition, end - sendingPosition, channel);
+            if (sent <= 0) {
+                if (sendingPosition >= sendingFile.size()) throw new IOException("File truncated while sending: " + region.file);
+                return false; // socket buffer full
+            }
+            sendingPosition += sent;
+            writeProgressNanos = System.nanoTime();
+        }
+
+        closeSendingFile();
+        return true;
+    }
+
+    private void closeSendingFile() {
+        if (sendingFile == null) return;
+        try {
+            sendingFile.close();
+        } catch (IOException e) {
+            Logger.log(Logger.Level.DEBUG, "Error closing file channel: " + e.getMessage());
+        }
+        sendingFile = null;
+    }
+
+    public int interestOps() {
+        return switch (state) {
+            case HEADERS, BODY -> SelectionKey.OP_READ;
+            case WRITING -> SelectionKey.OP_WRITE;
+            case PROCESSING -> 0;
+        };
+    }
+
+    public void close() {
+        if (channel.isOpen()) {
+            Metrics.connectionClosed();
+            ClientLimiter.getInstance().release(clientAddress);
+        }
+        closeSendingFile();
+        try {
+            channel.close();
+        } catch (IOException e) {
+            Logger.log(Logger.Level.DEBUG, "Error closing connection to " + clientAddress + ": " + e.getMessage());
+        }
+    }
+}
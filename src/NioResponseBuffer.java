@@ -0,0 +1,45 @@
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+
+// Collects a response for the NIO engine: in-memory bytes, plus file regions that the event loop
+// later sends with transferTo without loading them onto the heap.
+public class NioResponseBuffer extends ByteArrayOutputStream implements FileRegionSink {
+
+    public static final class FileRegion {
+        final Path file;
+        final long position;
+        final long count;
+
+        FileRegion(Path file, long position, long count) {
+            this.file = file;
+            this.position = position;
+            this.count = count;
+        }
+    }
+
+    private final ArrayDeque<Object> parts = new ArrayDeque<>();  // ByteBuffer or FileRegion, in send order
+
+    public NioResponseBuffer() {
+        super(1024);
+    }
+
+    @Override
+    public void sendFile(Path file, long position, long count) {
+        takeBytes();
+        parts.add(new FileRegion(file, position, count));
+    }
+
+    private void takeBytes() {
+        if (size() > 0) {
+            parts.add(ByteBuffer.wrap(toByteArray()));
+            reset();
+        }
+    }
+
+    public ArrayDeque<Object> parts() {
+        takeBytes();
+        return parts;
+    }
+}
@@ -0,0 +1,351 @@
+import java.io.IOException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Non-blocking engine: one acceptor plus a few selector event loops (one per core by default).
+// GET requests are answered on the event loop; POSTs are handed to a small worker pool because
+// saving a submission blocks.
+public class NioServer implements Shutdown.Drainable {
+
+    private static final String SATURATED_BODY = "<h1>503 Service Unavailable</h1>";
+    private static final byte[] SATURATED = ("HTTP/1.1 503 Service Unavailable\r\n" +
+                                             "Content-Type: text/html\r\n" +
+                                             "Content-Length: " + SATURATED_BODY.length() + "\r\n" +
+                                             "Connection: close\r\n\r\n" +
+                                             SATURATED_BODY).getBytes(StandardCharsets.UTF_8);
+
+    private final List<Site> sites;
+    private final EventLoop[] loops;
+    private final ThreadPoolExecutor postWorkers;
+    private final AtomicLong postRejected = new AtomicLong();
+    private final int maxHeaderBytes;
+    private final int maxBodyBytes;
+    private final int maxRequestsPerConnection;
+    private final long keepAliveTimeoutNanos;
+    private final List<ServerSocketChannel> serverChannels = new CopyOnWriteArrayList<>();
+
+    public NioServer(List<Site> sites) throws IOException {
+        int cpus = Runtime.getRuntime().availableProcessors();
+        this.sites = sites;
+        this.maxHeaderBytes = Math.max(1024, ServerConfig.getInt("server.maxHeaderBytes", 8192));
+        this.maxBodyBytes = Math.max(0, ServerConfig.getInt("server.maxBodyBytes", 1024 * 1024));
+        this.maxRequestsPerConnection = Math.max(1, ServerConfig.getInt("server.maxRequestsPerConnection", 100));
+        this.keepAliveTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(ServerConfig.getInt("server.keepAliveTimeoutMillis", 5000));
+
+        int loopCount = Math.max(1, ServerConfig.getInt("server.eventLoops", cpus));
+        this.loops = new EventLoop[loopCount];
+        for (int i = 0; i < loopCount; i++) {
+            loops[i] = new EventLoop(i);
+        }
+
+        int workers = Math.max(1, ServerConfig.getInt("server.poolSize", cpus * 2));
+        AtomicInteger threadIds = new AtomicInteger();
+        this.postWorkers = new ThreadPoolExecutor(
+            workers, workers, 60, TimeUnit.SECONDS,
+            new ArrayBlockingQueue<>(Math.max(1, ServerConfig.getInt("server.queueCapacity", 256))),
+            r -> {
+                Thread t = new Thread(r, "nio-worker-" + threadIds.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            },
+            new ThreadPoolExecutor.AbortPolicy());
+        this.postWorkers.allowCoreThreadTimeOut(true);
+        Metrics.registerWorkers("nio-post", new Metrics.WorkerGauges() {
+            public int getActiveCount() { return postWorkers.getActiveCount(); }
+            public int getMaxPoolSize() { return postWorkers.getMaximumPoolSize(); }
+            public int getQueueDepth() { return postWorkers.getQueue().size(); }
+            public int getQueueCapacity() { return postWorkers.getQueue().size() + postWorkers.getQueue().remainingCapacity(); }
+            public long getRejectedCount() { return postRejected.get(); }
+        });
+    }
+
+    // Binds every listener, then blocks on the first one's accept loop for the lifetime of the
+    // server; the others get a thread each
+    public void run() throws IOException {
+        try {
+            for (Site site : sites) {
+                ServerSocketChannel serverChannel = ServerSocketChannel.open();
+                serverChannels.add(serverChannel);
+                SocketSettings.bind(serverChannel, site.getPort());
+            }
+        } catch (IOException e) {
+            stopAccepting();
+            throw e;
+        }
+
+        for (EventLoop loop : loops) {
+            Thread t = new Thread(loop, "nio-loop-" + loop.id);
+            t.setDaemon(true);
+            t.start();
+        }
+        for (int i = 0; i < sites.size(); i++) {
+            Logger.log(Logger.Level.INFO, "NIO server started on port " + sites.get(i).getPort() + " serving '" + sites.get(i).getRoot() + "'");
+        }
+        Logger.log(Logger.Level.INFO, "NIO engine: " + loops.length + " event loop(s) (" + SocketSettings.describe() + ")");
+        Shutdown.install(this);
+        Warmup.ready();
+
+        for (int i = 1; i < sites.size(); i++) {
+            int index = i;
+            new Thread(() -> accept(serverChannels.get(index), sites.get(index)), "acceptor-" + sites.get(i).getPort()).start();
+        }
+        accept(serverChannels.get(0), sites.get(0));
+    }
+
+    private void accept(ServerSocketChannel serverChannel, Site site) {
+        ClientLimiter limiter = ClientLimiter.getInstance();
+        int next = 0;
+        // Ends when the shutdown hook closes the channel
+        while (serverChannel.isOpen()) {
+            try {
+                SocketChannel client = serverChannel.accept();
+                if (Logger.isEnabled(Logger.Level.DEBUG)) {
+                    Logger.log(Logger.Level.DEBUG, "Accepted connection from " + client.socket().getInetAddress());
+                }
+                if (!limiter.tryOpen(client.socket().getInetAddress())) {
+                    Logger.log(Logger.Level.WARN, "Too many connections from " + client.socket().getInetAddress() + ", refused with 503");
+                    Metrics.recordRejected(503);
+                    ClientLimiter.refuse(client);
+                    continue;
+                }
+                SocketSettings.apply(client);
+                client.configureBlocking(false);
+                loops[next].register(client, site);
+                next = (next + 1) % loops.length;
+            } catch (IOException e) {
+                if (serverChannel.isOpen()) Logger.log(Logger.Level.WARN, "Failed to accept connection: " + e.getMessage());
+            }
+        }
+    }
+
+    @Override
+    public void stopAccepting() {
+        for (ServerSocketChannel serverChannel : serverChannels) {
+            try {
+                serverChannel.close();
+            } catch (IOException e) {
+                Logger.log(Logger.Level.WARN, "Failed to close listening socket: " + e.getMessage());
+            }
+        }
+    }
+
+    @Override
+    public int closeIdle() {
+        int busy = 0;
+        for (EventLoop loop : loops) {
+            loop.selector.wakeup();
+            busy += loop.busy < 0 ? 1 : loop.busy;   // a loop that has not swept since draining began counts as busy
+        }
+        return busy;
+    }
+
+    @Override
+    public void closeAll() {
+        for (EventLoop loop : loops) {
+            loop.execute(() -> {
+                for (SelectionKey key : loop.selector.keys()) {
+                    if (key.attachment() instanceof NioConnection connection) {
+                        key.cancel();
+                        connection.close();
+                    }
+                }
+            });
+        }
+    }
+
+    private class EventLoop implements Runnable {
+        private final int id;
+        private final Selector selector;
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        private volatile int busy = -1;   // connections busy with a request, counted while draining
+
+        EventLoop(int id) throws IOException {
+            this.id = id;
+            this.selector = Selector.open();
+        }
+
+        void register(SocketChannel client, Site site) {
+            execute(() -> {
+                try {
+                    NioConnection connection = new NioConnection(client, site, maxHeaderBytes, maxBodyBytes, maxRequestsPerConnection);
+                    client.register(selector, SelectionKey.OP_READ, connection);
+                    Metrics.connectionOpened();
+                } catch (IOException e) {
+                    Logger.log(Logger.Level.WARN, "Failed to register connection: " + e.getMessage());
+                    ClientLimiter.getInstance().release(client.socket().getInetAddress());
+                    closeQuietly(client);
+                }
+            });
+        }
+
+        // Runs a task on this loop's thread
+        void execute(Runnable task) {
+            tasks.add(task);
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            try {
+                long lastSweep = System.nanoTime();
+                while (true) {
+                    selector.select(Shutdown.isDraining() ? 50 : 1000);
+
+                    Runnable task;
+                    while ((task = tasks.poll()) != null) {
+                        task.run();
+                    }
+
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        handle(key);
+                    }
+
+                    long now = System.nanoTime();
+                    if (now - lastSweep >= TimeUnit.SECONDS.toNanos(1)) {
+                        closeIdleConnections(now);
+                        lastSweep = now;
+                    }
+                    if (Shutdown.isDraining()) {
+                        busy = closeWaitingConnections();
+                    }
+                }
+            } catch (IOException | ClosedSelectorException e) {
+                Logger.log(Logger.Level.ERROR, "Event loop " + id + " stopped: " + e.getMessage());
+            }
+        }
+
+        private void handle(SelectionKey key) {
+            NioConnection connection = (NioConnection) key.attachment();
+            if (!key.isValid()) {
+                connection.close();
+                return;
+            }
+
+            try {
+                if (key.isReadable() && connection.onReadable()) {
+                    dispatch(key, connection);
+                }
+
+                while (connection.hasPendingWrite() && connection.onWritable()) {
+                    if (!connection.startNextRequest()) {
+                        key.cancel();
+                        connection.close();
+                        return;
+                    }
+                    // Pipelined requests may already be buffered; they are answered strictly in order
+                    if (connection.parseAvailable()) {
+                        dispatch(key, connection);
+                    }
+                }
+
+                key.interestOps(connection.interestOps());
+
+            } catch (IOException e) {
+                Logger.log(Logger.Level.DEBUG, "Closing connection to " + connection.getClientAddress() + ": " + e.getMessage());
+                key.cancel();
+                connection.close();
+            } catch (Exception e) {
+                Logger.log(Logger.Level.ERROR, "Unexpected error from " + connection.getClientAddress() + ": " + e.getMessage());
+                key.cancel();
+                connection.close();
+            }
+        }
+
+        // Keep-alive timeout, plus the header, body and write deadlines
+        private void closeIdleConnections(long now) {
+            for (SelectionKey key : selector.keys()) {
+                NioConnection connection = (NioConnection) key.attachment();
+                if (connection == null) continue;
+                if (connection.isIdleBetweenRequests()) {
+                    if (now - connection.getLastActivityNanos() > keepAliveTimeoutNanos) {
+                        Logger.log(Logger.Level.DEBUG, "Idle keep-alive connection from " + connection.getClientAddress() + " timed out");
+                        key.cancel();
+                        connection.close();
+                    }
+                    continue;
+                }
+                String missed = connection.missedDeadline(now);
+                if (missed != null) {
+                    Logger.log(Logger.Level.WARN, "Closing connection from " + connection.getClientAddress() + ": " + missed);
+                    connection.sendTimeout();
+                    key.cancel();
+                    connection.close();
+                }
+            }
+        }
+
+        // Shutdown drain: closes connections waiting for a request; returns how many are busy with one
+        private int closeWaitingConnections() {
+            int count = 0;
+            for (SelectionKey key : selector.keys()) {
+                NioConnection connection = (NioConnection) key.attachment();
+                if (connection == null) continue;
+                if (connection.isWaitingForRequest()) {
+                    key.cancel();
+                    connection.close();
+                } else {
+                    count++;
+                }
+            }
+            return count;
+        }
+
+        private void dispatch(SelectionKey key, NioConnection connection) {
+            HttpRequest request = connection.getRequest();
+
+            if (!request.getMethod().equals("POST")) {
+                connection.queueResponse(process(request));
+                return;
+            }
+
+            try {
+                postWorkers.execute(() -> {
+                    NioResponseBuffer response = process(request);
+                    execute(() -> {
+                        connection.queueResponse(response);
+                        if (key.isValid()) {
+                            key.interestOps(connection.interestOps());
+                        }
+                    });
+                });
+            } catch (RejectedExecutionException e) {
+                Logger.log(Logger.Level.WARN, "POST workers saturated, rejecting " + connection.getClientAddress() + " with 503");
+                Metrics.recordRejected(503);
+                postRejected.incrementAndGet();
+                request.setKeepAlive(false);   // the response says Connection: close, and the body was not read
+                connection.queueResponse(SATURATED);
+            }
+        }
+
+        private NioResponseBuffer process(HttpRequest request) {
+            NioResponseBuffer out = new NioResponseBuffer();
+            RequestHandler.process(request, out);
+            return out;
+        }
+    }
+
+    private static void closeQuietly(SocketChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+        }
+    }
+}
@@ -1,84 +1,296 @@
 import java.io.*;
+import java.net.InetAddress;
 import java.net.Socket;
+import java.net.SocketTimeoutException;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 
 public class RequestHandler implements Runnable {
     private final Socket socket;
-    private final static String WEB_ROOT = "www";
+    private final Site site;
+    private final static int KEEP_ALIVE_TIMEOUT_MILLIS = ServerConfig.getInt("server.keepAliveTimeoutMillis", 5000);
+    private final static int MAX_REQUESTS_PER_CONNECTION = ServerConfig.getInt("server.maxRequestsPerConnection", 100);
+    private final static long MAX_UPLOAD_BYTES = ServerConfig.getInt("server.maxUploadBytes", 100 * 1024 * 1024);
+    private final static long MAX_SKIPPED_BODY_BYTES = 64 * 1024;
+    private final static long MAX_LINGER_BYTES = 1024 * 1024;
+    private final static int LINGER_MILLIS = 2000;
+    private final static long ZERO_COPY_THRESHOLD = ServerConfig.getInt("server.zeroCopyThresholdBytes", 256 * 1024);
+
+    // Connections being served, for the shutdown drain
+    private final static Set<RequestHandler> LIVE = ConcurrentHashMap.newKeySet();
+    private volatile boolean idle = false;   // waiting for a request with nothing of it received
 
     public RequestHandler(Socket socket) {
+        this(socket, Site.primary());
+    }
+
+    public RequestHandler(Socket socket, Site site) {
         this.socket = socket;
+        this.site = site;
     }
 
     @Override
 public void run() {
+    Metrics.connectionOpened();
+    LIVE.add(this);
     try (
-        BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-        OutputStream out = socket.getOutputStream()
+        InputStream in = socket.getInputStream();
+        OutputStream out = new ChannelOutputStream(socket)
     ) {
-        String requestLine = in.readLine();
-        if (requestLine == null || requestLine.isEmpty()) {
-            Logger.log(Logger.Level.WARN, "Empty request received from " + socket.getInetAddress());
-            return;
-        }
+        HttpParser parser = HttpParser.fromConfig();
+        parser.streamBodiesFrom(in, MAX_UPLOAD_BYTES);   // bodies are read by the handler, never buffered whole
+        InetAddress client = socket.getInetAddress();
+        int served = 0;
 
-        Logger.log(Logger.Level.INFO, "Request from " + socket.getInetAddress() + " - " + requestLine);
+        // Keep-alive: serve requests off the same socket until the client or the limits close it.
+        // Pipelined requests are simply waiting in the parser's buffer and are answered in order.
+        while (true) {
+            HttpParser.Result result;
+            // The first request's headers must be in within the header timeout of the accept, later
+            // ones within it of their first byte; before that the keep-alive timeout applies
+            long headerDeadline = served == 0 ? System.nanoTime() + Deadlines.headerNanos() : 0;
+            while ((result = parser.parse(client)) == HttpParser.Result.INCOMPLETE) {
+                boolean betweenRequests = served > 0 && parser.isIdle();
+                int timeout = KEEP_ALIVE_TIMEOUT_MILLIS;
+                if (!betweenRequests) {
+                    if (headerDeadline == 0) headerDeadline = System.nanoTime() + Deadlines.headerNanos();
+                    long remaining = headerDeadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        rejectSlowHeaders(out, client);
+                        return;
+                    }
+                    timeout = Deadlines.millis(remaining);
+                }
 
-        String[] tokens = requestLine.split(" ");
+                int n;
+                idle = parser.isIdle();
+                try {
+                    socket.setSoTimeout(timeout);
+                    n = parser.readFrom(in);
+                } catch (SocketTimeoutException e) {
+                    if (betweenRequests) {
+                        Logger.log(Logger.Level.DEBUG, "Idle keep-alive connection from " + client + " timed out after " + served + " request(s)");
+                    } else {
+                        rejectSlowHeaders(out, client);
+                    }
+                    return;
+                } finally {
+                    idle = false;
+                }
+                if (n < 0) {
+                    result = parser.endOfInput();
+                    break;
+                }
+            }
 
-        if (tokens.length < 2) {
-            Logger.log(Logger.Level.WARN, "Malformed HTTP request from " + socket.getInetAddress() + ": " + requestLine);
-            sendResponse(out, 400, "Bad Request", "text/html", "<h1>400 Bad Request</h1><p>Malformed request.</p>");
-            return;
-        }
+            if (result == HttpParser.Result.CLOSED) {
+                if (served == 0) {
+                    Logger.log(Logger.Level.WARN, "Empty request received from " + client);
+                }
+                return;
+            }
+            if (result == HttpParser.Result.ERROR) {
+                Metrics.recordRejected(parser.getErrorStatus());
+                parser.writeError(out);
+                return;
+            }
+
+            HttpRequest request = parser.getRequest();
+            request.setSite(site);
+            served++;
+            if (served >= MAX_REQUESTS_PER_CONNECTION) {
+                request.setKeepAlive(false);
+            }
 
-        String method = tokens[0];
-        String path = tokens[1];
+            // Over its budget: refused from the request line alone, before the body or any file is touched
+            long wait = ClientLimiter.getInstance().acquire(client, request.getMethod());
+            if (wait > 0) {
+                Logger.log(Logger.Level.WARN, "Rate limit exceeded by " + client + " (" + request.getMethod() + "), refused with 429");
+                Metrics.recordRejected(429);
+                out.write(ClientLimiter.tooManyRequests(wait));
+                out.flush();
+                if (parser.hasUnreadBody()) {
+                    drainBeforeClose(parser);
+                }
+                return;
+            }
 
-        Logger.log(Logger.Level.DEBUG, "Parsed method: " + method + ", path: " + path);
+            socket.setSoTimeout(Deadlines.millis(Deadlines.readNanos()));   // for the body, read by the handler
+            process(request, out);
 
-        switch (method) {
-            case "GET" -> handleGet(path, out);
-            case "POST" -> handlePost(path, in, out);
-            default -> {
-                Logger.log(Logger.Level.WARN, "Unsupported HTTP method from " + socket.getInetAddress() + ": " + method);
-                sendResponse(out, 501, "Not Implemented", "text/html", "<h1>501 Not Implemented</h1><p>Unsupported method.</p>");
+            if (!request.isKeepAlive()) {
+                if (parser.hasUnreadBody()) {
+                    drainBeforeClose(parser);
+                }
+                return;
             }
+            // Whatever the handler did not read of the body (a GET with a body, say) is skipped if short
+            if (!parser.skipBody(MAX_SKIPPED_BODY_BYTES)) {
+                return;
+            }
+            parser.next();
         }
 
     } catch (IOException e) {
-        Logger.log(Logger.Level.ERROR, "IOException from " + socket.getInetAddress() + ": " + e.getMessage());
-        e.printStackTrace();
+        if (Shutdown.isDraining() || socket.isClosed()) {
+            // Closed by the shutdown drain or the write watchdog
+            Logger.log(Logger.Level.DEBUG, "Connection from " + socket.getInetAddress() + " closed: " + e.getMessage());
+        } else {
+            Logger.log(Logger.Level.ERROR, "IOException from " + socket.getInetAddress() + ": " + e.getMessage());
+            e.printStackTrace();
+        }
     } catch (Exception e) {
         Logger.log(Logger.Level.ERROR, "Unexpected error from " + socket.getInetAddress() + ": " + e.getMessage());
         e.printStackTrace();
+    } finally {
+        LIVE.remove(this);
+        Metrics.connectionClosed();
+        ClientLimiter.getInstance().release(socket.getInetAddress());
     }
 }
 
-private String getContentType(String path) {
-    path = path.toLowerCase(); // Make it case-insensitive
+    private static void rejectSlowHeaders(OutputStream out, InetAddress client) {
+        Logger.log(Logger.Level.WARN, "Request headers from " + client + " not complete within " + Deadlines.millis(Deadlines.headerNanos()) + " ms, closing");
+        Metrics.recordRejected(408);
+        sendResponse(out, 408, "Request Timeout", "text/html", "<h1>408 Request Timeout</h1>");
+    }
 
-    if (path.endsWith(".html") || path.endsWith(".htm")) return "text/html";
-    if (path.endsWith(".css")) return "text/css";
-    if (path.endsWith(".js")) return "application/javascript";
-    if (path.endsWith(".png")) return "image/png";
-    if (path.endsWith(".jpg") || path.endsWith(".jpeg")) return "image/jpeg";
-    if (path.endsWith(".gif")) return "image/gif";
-    if (path.endsWith(".svg")) return "image/svg+xml";
-    if (path.endsWith(".ico")) return "image/x-icon";
-    if (path.endsWith(".pdf")) return "application/pdf";
-    if (path.endsWith(".json")) return "application/json";
-    if (path.endsWith(".txt")) return "text/plain";
+    // Shutdown drain: closes connections waiting for a request; returns how many are still busy with one
+    static int closeIdleConnections() {
+        int busy = 0;
+        for (RequestHandler handler : LIVE) {
+            if (handler.idle) {
+                handler.closeSocket();
+            } else {
+                busy++;
+            }
+        }
+        return busy;
+    }
+
+    static void closeAllConnections() {
+        for (RequestHandler handler : LIVE) {
+            handler.closeSocket();
+        }
+    }
 
-    Logger.log(Logger.Level.WARN, "Unknown file type requested: " + path);
-    return "application/octet-stream"; // default binary
+    private void closeSocket() {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            Logger.log(Logger.Level.DEBUG, "Error closing connection to " + socket.getInetAddress() + ": " + e.getMessage());
+        }
     }
 
-    private void handleGet(String path, OutputStream out) {
+    // Closing a socket with unread input makes the kernel reset the connection, which can destroy a
+    // response (an early 413, say) before the client reads it. Some of the rest is read and dropped first.
+    private void drainBeforeClose(HttpParser parser) {
+        try {
+            socket.shutdownOutput();
+            socket.setSoTimeout(LINGER_MILLIS);
+            parser.skipBody(MAX_LINGER_BYTES);
+        } catch (IOException e) {
+            Logger.log(Logger.Level.DEBUG, "Connection from " + socket.getInetAddress() + " closed while draining: " + e.getMessage());
+        }
+    }
+
+
+    // GET serves files and POST saves forms, on any path unless form.path names the form's own
+    private static final Router ROUTES = defaultRoutes();
+
+    private static Router defaultRoutes() {
+        Router router = new Router();
+        router.prefix("GET", "/", Metrics.ROUTE_STATIC, RequestHandler::handleGet);
+        String formPath = ServerConfig.get("form.path", "");
+        if (formPath.isEmpty()) {
+            router.prefix("POST", "/", Metrics.ROUTE_FORM, RequestHandler::handlePost);
+        } else {
+            router.exact("POST", formPath, Metrics.ROUTE_FORM, RequestHandler::handlePost);
+        }
+        if (!Metrics.getPath().isEmpty()) {
+            router.exact("GET", Metrics.getPath(), Metrics.ROUTE_METRICS, Metrics::handle);
+        }
+        Logger.log(Logger.Level.INFO, "Routes: " + router);
+        return router;
+    }
+
+    // Dispatches a request whose headers are read (the body may still be streaming in); used by both server engines.
+    // Each request is timed into the metrics under its method, route and response status.
+    static void process(HttpRequest request, OutputStream out) {
+        long start = System.nanoTime();
+        int route = dispatch(request, out);
+        Metrics.recordRequest(request.getMethod(), route, request.getResponseStatus(), System.nanoTime() - start);
+        Warmup.responded();
+    }
+
+    // Answers the request and returns its metrics route; the self-warmup calls this directly, so its
+    // requests are not counted
+    static int dispatch(HttpRequest request, OutputStream out) {
+        Router.Route route = ROUTES.find(request.getMethod(), request.getPath());
+        if (route == null) {
+            unmatched(request, out);
+            return Metrics.ROUTE_UNMATCHED;
+        }
+        try {
+            route.handle(request, out);
+        } catch (IOException e) {
+            Logger.log(Logger.Level.ERROR, "IOException serving " + route + ": " + e.getMessage());
+            request.setKeepAlive(false);
+        }
+        return route.getMetricsRoute();
+    }
+
+    // 501 for a method nothing handles, 405 for a path only other methods are routed on, else 404
+    private static void unmatched(HttpRequest request, OutputStream out) {
+        if (!ROUTES.hasMethod(request.getMethod())) {
+            Logger.log(Logger.Level.WARN, "Unsupported HTTP method from " + request.getClientAddress() + ": " + request.getMethod());
+            request.setKeepAlive(false);
+            sendResponse(request, out, 501, "Not Implemented", "text/html", "<h1>501 Not Implemented</h1><p>Unsupported method.</p>");
+            return;
+        }
+        String allowed = ROUTES.allowedMethods(request.getPath());
+        if (allowed.isEmpty()) {
+            Logger.log(Logger.Level.WARN, "No route for " + request.getMethod() + " " + request.getPath());
+            sendResponse(request, out, 404, "Not Found", "text/html", "<h1>404 Not Found</h1>");
+            return;
+        }
+        Logger.log(Logger.Level.WARN, request.getMethod() + " not allowed on " + request.getPath());
+        try {
+            String body = "<h1>405 Method Not Allowed</h1>";
+            String response = "HTTP/1.1 405 Method Not Allowed\r\n" +
+                              "Allow: " + allowed + "\r\n" +
+                              "Content-Type: text/html\r\n" +
+                              "Content-Length: " + body.length() + "\r\n" +
+                              connectionHeader(request.isKeepAlive()) +
+                              body;
+            request.setResponseStatus(405);
+            out.write(response.getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+        } catch (IOException e) {
+            Logger.log(Logger.Level.ERROR, "IOException sending 405: " + e.getMessage());
+            request.setKeepAlive(false);
+        }
+    }
+
+    // Unknown extensions are sent as binary
+    static String getContentType(String path) {
+        String type = MimeTypes.find(path);
+        if (type != null) return type;
+        if (Logger.isEnabled(Logger.Level.DEBUG)) {
+            Logger.log(Logger.Level.DEBUG, "Unknown file type requested: " + path);
+        }
+        return "application/octet-stream";
+    }
+
+    private static void handleGet(HttpRequest request, OutputStream out) {
+        String path = request.getPath();
         try {
             if (path.equals("/")) {
                 path = "/index.html"; // default file
@@ -87,88 +299,333 @@ private String getContentType(String path) {
             // Prevent directory traversal
             if (path.contains("..")) {
                 Logger.log(Logger.Level.WARN, "Blocked path traversal attempt: " + path);
-                sendResponse(out, 403, "Forbidden", "text/html", "<h1>403 Forbidden</h1><p>Access denied.</p>");
+                sendResponse(request, out, 403, "Forbidden", "text/html", "<h1>403 Forbidden</h1><p>Access denied.</p>");
                 return;
             }
     
-            File file = new File(WEB_ROOT, path); // Safer way to join paths
-    
-            if (file.exists() && !file.isDirectory()) {
-                String contentType = getContentType(path);
-                byte[] content = Files.readAllBytes(file.toPath());
+            File file = new File(request.getSite().getRoot(), path); // Safer way to join paths
+            Path filePath = file.toPath();
     
-                String header = "HTTP/1.1 200 OK\r\n" +
-                                "Content-Type: " + contentType + "\r\n" +
-                                "Content-Length: " + content.length + "\r\n" +
-                                "Connection: close\r\n\r\n";
-    
-                out.write(header.getBytes());
-                out.write(content);
+            // Hot small files are answered from memory without touching the disk; the validators
+            // of other files are remembered too, so no request below needs a stat
+            StaticFileCache cache = request.getSite().getCache();
+            StaticFileCache.Entry cached = cache.get(filePath);
+            StaticFileCache.FileInfo info = cached != null ? cached.getInfo() : cache.info(filePath);
     
-                Logger.log(Logger.Level.INFO, "Served file: " + file.getPath() + " (" + contentType + ")");
-            } else {
+            if (info == null) {
                 String body = "<h1>404 Not Found</h1>";
                 String response = "HTTP/1.1 404 Not Found\r\n" +
                                   "Content-Type: text/html\r\n" +
                                   "Content-Length: " + body.length() + "\r\n" +
-                                  "Connection: close\r\n\r\n" +
+                                  connectionHeader(request.isKeepAlive()) +
                                   body;
     
+                request.setResponseStatus(404);
                 out.write(response.getBytes());
+                out.flush();
                 Logger.log(Logger.Level.WARN, "File not found: " + file.getPath());
+                return;
             }
     
+            String contentType = cached != null ? cached.getContentType() : getContentType(path);
+            boolean negotiable = cached != null ? cached.isNegotiable() : ContentEncoding.isCompressible(contentType, info.getSize());
+    
+            // Small files are cached before the validators are chosen: a 304 carries the ETag of the body
+            // a 200 would send, and for a cached file that is the variant it would get
+            boolean hit = cached != null;
+            if (cached == null && isCacheable(info.getSize())) {
+                cached = cache.load(filePath, info, contentType);
+            }
+    
+            if (isNotModified(request, info)) {
+                // A compressed body has the weak ETag
+                boolean compressed = cached != null
+                    ? negotiated(request, cache, filePath, cached).getContentEncoding() != null
+                    : precompressed(request, cache, filePath, info, negotiable) != null;
+                String response = "HTTP/1.1 304 Not Modified\r\n" +
+                                  "ETag: " + (compressed ? info.getWeakEtag() : info.getEtag()) + "\r\n" +
+                                  "Last-Modified: " + info.getLastModified() + "\r\n" +
+                                  (negotiable ? "Vary: Accept-Encoding\r\n" : "") +
+                                  connectionHeader(request.isKeepAlive());
+                request.setResponseStatus(304);
+                out.write(response.getBytes());
+                out.flush();
+                Logger.log(Logger.Level.INFO, "Not modified: " + file.getPath());
+                return;
+            }
+    
+            long[] range = requestedRange(request, info);
+            if (range == UNSATISFIABLE_RANGE) {
+                String response = "HTTP/1.1 416 Range Not Satisfiable\r\n" +
+                                  "Content-Range: bytes */" + info.getSize() + "\r\n" +
+                                  "Content-Length: 0\r\n" +
+                                  connectionHeader(request.isKeepAlive());
+                request.setResponseStatus(416);
+                out.write(response.getBytes());
+                out.flush();
+                Logger.log(Logger.Level.WARN, "Unsatisfiable range for " + file.getPath() + ": " + request.getHeader("Range"));
+                return;
+            }
+    
+            if (range != null) {
+                // Ranges are of the identity body; compressed variants are not ranged
+                long length = range[1] - range[0] + 1;
+                String header = "HTTP/1.1 206 Partial Content\r\n" +
+                                "Content-Type: " + contentType + "\r\n" +
+                                (negotiable ? "Vary: Accept-Encoding\r\n" : "") +
+                                "ETag: " + info.getEtag() + "\r\n" +
+                                "Last-Modified: " + info.getLastModified() + "\r\n" +
+                                "Content-Range: bytes " + range[0] + "-" + range[1] + "/" + info.getSize() + "\r\n" +
+                                "Content-Length: " + length + "\r\n" +
+                                connectionHeader(request.isKeepAlive());
+                request.setResponseStatus(206);
+                out.write(header.getBytes());
+                if (cached != null) {
+                    cached.writeBody(out, range[0], length);
+                } else {
+                    sendFile(out, filePath, range[0], length);
+                }
+                out.flush();
+                Logger.log(Logger.Level.INFO, "Served file: " + file.getPath() + " (" + contentType + ", bytes " + range[0] + "-" + range[1] + "/" + info.getSize() + (hit ? ", cached" : "") + ")");
+                return;
+            }
+    
+            if (cached != null) {
+                cached = negotiated(request, cache, filePath, cached);
+                request.setResponseStatus(200);
+                cached.writeTo(out, request.isKeepAlive());
+                out.flush();
+                Logger.log(Logger.Level.INFO, "Served file: " + file.getPath() + " (" + contentType + (hit ? ", cached" : "") + encodingNote(cached.getContentEncoding()) + ")");
+                return;
+            }
+    
+            // Not cached: only a precompressed file.gz is sent compressed, nothing is compressed per request
+            String encoding = null;
+            Path body = filePath;
+            long size = info.getSize();
+            Path sibling = precompressed(request, cache, filePath, info, negotiable);
+            if (sibling != null) {
+                body = sibling;
+                size = info.getGzipSize();
+                encoding = ContentEncoding.GZIP;
+            }
+    
+            // Large files are streamed with transferTo so heap use does not grow with file size
+            byte[] content = size < ZERO_COPY_THRESHOLD ? Files.readAllBytes(body) : null;
+    
+            String header = "HTTP/1.1 200 OK\r\n" +
+                            "Content-Type: " + contentType + "\r\n" +
+                            (encoding != null ? "Content-Encoding: " + encoding + "\r\n" : "") +
+                            (negotiable ? "Vary: Accept-Encoding\r\n" : "") +
+                            "ETag: " + (encoding != null ? info.getWeakEtag() : info.getEtag()) + "\r\n" +
+                            "Last-Modified: " + info.getLastModified() + "\r\n" +
+                            (encoding == null ? "Accept-Ranges: bytes\r\n" : "") +
+                            "Content-Length: " + (content != null ? content.length : size) + "\r\n" +
+                            connectionHeader(request.isKeepAlive());
+            request.setResponseStatus(200);
+            out.write(header.getBytes());
+    
+            if (content != null) {
+                out.write(content);
+            } else {
+                sendFile(out, body, 0, size);
+            }
+    
+            Logger.log(Logger.Level.INFO, "Served file: " + file.getPath() + " (" + contentType + encodingNote(encoding) + ")");
             out.flush();
     
         } catch (IOException e) {
             Logger.log(Logger.Level.ERROR, "IOException in handleGet: " + e.getMessage());
-            sendResponse(out, 500, "Internal Server Error", "text/html", "<h1>500 Internal Server Error</h1>");    
+            request.setKeepAlive(false); // part of a response may already be on the wire
+            sendResponse(request, out, 500, "Internal Server Error", "text/html", "<h1>500 Internal Server Error</h1>");    
         }
     }
     
     
-    private void handlePost(String path, BufferedReader in, OutputStream out) {
+    // If-None-Match, or failing that If-Modified-Since (RFC 9110 section 13.2.2). ETags are
+    // compared weakly, so a copy of a compressed variant still validates.
+    private static boolean isNotModified(HttpRequest request, StaticFileCache.FileInfo info) {
+        String ifNoneMatch = request.getHeader("If-None-Match");
+        if (ifNoneMatch != null) {
+            return etagListMatches(ifNoneMatch, info.getEtag(), true);
+        }
+        String ifModifiedSince = request.getHeader("If-Modified-Since");
+        if (ifModifiedSince != null) {
+            long since = HttpDate.parse(ifModifiedSince);
+            // HTTP dates have whole seconds
+            return since >= 0 && info.getLastModifiedMillis() / 1000 <= since / 1000;
+        }
+        return false;
+    }
+
+    // Whether a comma-separated list of entity tags (or "*") contains the given strong tag; weak
+    // tags in the list only count for the weak comparison
+    private static boolean etagListMatches(String list, String etag, boolean weak) {
+        int pos = 0;
+        int length = list.length();
+        while (pos < length) {
+            int comma = list.indexOf(',', pos);
+            if (comma < 0) comma = length;
+            int from = pos;
+            int to = comma;
+            while (from < to && list.charAt(from) == ' ') from++;
+            while (to > from && list.charAt(to - 1) == ' ') to--;
+            if (to - from == 1 && list.charAt(from) == '*') return true;
+            boolean weakTag = to - from > 2 && list.startsWith("W/", from);
+            if (weakTag) from += 2;
+            if ((weak || !weakTag) && to - from == etag.length() && list.regionMatches(from, etag, 0, etag.length())) return true;
+            pos = comma + 1;
+        }
+        return false;
+    }
+
+    private static final long[] UNSATISFIABLE_RANGE = new long[0];
+
+    // The first and last byte of a single "bytes=" range (RFC 9110 section 14), UNSATISFIABLE_RANGE,
+    // or null to send the whole file: no Range, an If-Range that does not match, several ranges
+    // or a malformed one
+    private static long[] requestedRange(HttpRequest request, StaticFileCache.FileInfo info) {
+        String range = request.getHeader("Range");
+        if (range == null) return null;
+
+        String ifRange = request.getHeader("If-Range");
+        if (ifRange != null) {
+            ifRange = ifRange.trim();
+            boolean current;
+            if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+                current = etagListMatches(ifRange, info.getEtag(), false);   // strong comparison only
+            } else {
+                long date = HttpDate.parse(ifRange);
+                current = date >= 0 && date / 1000 == info.getLastModifiedMillis() / 1000;
+            }
+            if (!current) return null;
+        }
+
+        range = range.trim();
+        if (!range.regionMatches(true, 0, "bytes=", 0, 6) || range.indexOf(',') >= 0) return null;
+        int dash = range.indexOf('-', 6);
+        if (dash < 0) return null;
+
+        long size = info.getSize();
+        long first;
+        long last;
+        try {
+            String from = range.substring(6, dash).trim();
+            String to = range.substring(dash + 1).trim();
+            if (from.isEmpty()) {
+                // Suffix range: the last n bytes
+                long suffix = Long.parseLong(to);
+                if (suffix < 0) return null;
+                if (suffix == 0 || size == 0) return UNSATISFIABLE_RANGE;
+                first = Math.max(0, size - suffix);
+                last = size - 1;
+            } else {
+                first = Long.parseLong(from);
+                last = to.isEmpty() ? size - 1 : Long.parseLong(to);
+                if (first < 0 || (!to.isEmpty() && last < first)) return null;
+                if (first >= size) return UNSATISFIABLE_RANGE;
+                last = Math.min(last, size - 1);
+            }
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        return new long[] { first, last };
+    }
+
+    // The compressed variant of a cached file when the client accepts one
+    private static StaticFileCache.Entry negotiated(HttpRequest request, StaticFileCache cache, Path file, StaticFileCache.Entry entry) throws IOException {
+        if (!entry.isNegotiable()) return entry;
+        return cache.variant(file, entry, ContentEncoding.negotiate(request.getHeader("Accept-Encoding")));
+    }
+
+    // The file.gz to send instead of an uncached file, or null if there is none or the client does not
+    // take gzip; nothing else would be compressed, so gzip need not be the client's first choice
+    private static Path precompressed(HttpRequest request, StaticFileCache cache, Path file, StaticFileCache.FileInfo info, boolean negotiable) {
+        if (!negotiable || !ContentEncoding.acceptsGzip(request.getHeader("Accept-Encoding"))) return null;
+        return cache.gzipSibling(file, info);
+    }
+
+    // Smaller files are cached on first request; larger ones are always streamed from disk (identity only,
+    // unless a .gz sibling exists). The warmup preloads by the same rule, so a warm server behaves as a steady one.
+    static boolean isCacheable(long size) {
+        return size < ZERO_COPY_THRESHOLD;
+    }
+
+    private static String encodingNote(String encoding) {
+        return encoding != null ? ", " + encoding : "";
+    }
+
+    private static void handlePost(HttpRequest request, OutputStream out) {
+        MultipartFormReader multipart = null;
+        boolean saved = false;
         try {
+            String path = request.getPath();
             Logger.log(Logger.Level.INFO, "Handling POST request to: " + path);
     
-            // Step 1: Read headers
-            String line;
-            int contentLength = -1;
-    
-            while ((line = in.readLine()) != null && !line.isEmpty()) {
-                if (line.startsWith("Content-Length:")) {
-                    try {
-                        contentLength = Integer.parseInt(line.substring(15).trim());
-                    } catch (NumberFormatException e) {
-                        Logger.log(Logger.Level.WARN, "Invalid Content-Length header.");
-                        sendResponse(out, 411, "Length Required", "text/html", "<h1>411 Length Required</h1>");
-                        return;
-                    }
+            // Step 1: Check headers (a chunked body is decoded by the parser)
+            String lengthHeader = request.isChunked() ? null : request.getHeader("Content-Length");
+            int contentLength = request.isChunked() ? 0 : -1;
+    
+            if (lengthHeader != null) {
+                try {
+                    contentLength = Integer.parseInt(lengthHeader.trim());
+                } catch (NumberFormatException e) {
+                    Logger.log(Logger.Level.WARN, "Invalid Content-Length header.");
+                    request.setKeepAlive(false); // the body cannot be framed
+                    sendResponse(request, out, 411, "Length Required", "text/html", "<h1>411 Length Required</h1>");
+                    return;
                 }
             }
     
             if (contentLength < 0) {
                 Logger.log(Logger.Level.WARN, "No Content-Length header found.");
-                sendResponse(out, 411, "Length Required", "text/html", "<h1>411 Length Required</h1>");
+                request.setKeepAlive(false); // the body cannot be framed
+                sendResponse(request, out, 411, "Length Required", "text/html", "<h1>411 Length Required</h1>");
                 return;
             }
     
-            // Step 2: Read body
-            char[] bodyChars = new char[contentLength];
-            int read = in.read(bodyChars, 0, contentLength);
+            // Step 2: Decode the body as it arrives: urlencoded fields, or multipart with files going to disk
+            String contentType = request.getHeader("Content-Type");
+            Map<String, String> rawParams = new HashMap<>();
+            int errorStatus = 0;
+            String errorReason = null;
+
+            if (MultipartFormReader.isMultipart(contentType)) {
+                multipart = MultipartFormReader.fromConfig(contentType);
+                if (multipart == null) {
+                    errorStatus = 400;
+                    errorReason = "Missing multipart boundary.";
+                } else if (!multipart.read(request.getBodyStream(), rawParams)) {
+                    errorStatus = multipart.getErrorStatus();
+                    errorReason = multipart.getErrorReason();
+                }
+            } else {
+                FormBodyDecoder decoder = FormBodyDecoder.fromConfig();
+                if (!decoder.decode(request.getBodyStream(), rawParams)) {
+                    errorStatus = decoder.getErrorStatus();
+                    errorReason = decoder.getErrorReason();
+                }
+            }
     
-            if (read < contentLength) {
-                Logger.log(Logger.Level.WARN, "Incomplete body read: expected " + contentLength + ", got " + read);
-                sendResponse(out, 400, "Bad Request", "text/html", "<h1>400 Bad Request</h1><p>Incomplete request body.</p>");
+            if (!request.isBodyComplete()) {
+                Logger.log(Logger.Level.WARN, "Incomplete body read from " + request.getClientAddress() + ": " + request.getBodyErrorStatus() + " " + request.getBodyErrorReason());
+                request.setKeepAlive(false);
+                int status = request.getBodyErrorStatus();
+                String detail = status == 400 ? "<p>Incomplete request body.</p>" : "";
+                sendResponse(request, out, status, request.getBodyErrorReason(), "text/html", "<h1>" + status + " " + request.getBodyErrorReason() + "</h1>" + detail);
+                return;
+            }
+            if (errorStatus != 0) {
+                Logger.log(Logger.Level.WARN, "Rejected form body from " + request.getClientAddress() + ": " + errorReason);
+                request.setKeepAlive(false); // the rest of the body was not read
+                String statusText = errorStatus == 413 ? "Payload Too Large" : "Bad Request";
+                sendResponse(request, out, errorStatus, statusText, "text/html", "<h1>" + errorStatus + " " + statusText + "</h1><p>" + errorReason + "</p>");
                 return;
             }
     
-            String requestBody = new String(bodyChars);
-            Logger.log(Logger.Level.DEBUG, "Raw form data: " + requestBody);
-    
-            // Step 3: Parse and validate
-            Map<String, String> rawParams = FormHandler.parseFormData(requestBody);
+            // Step 3: Validate
             Map<String, String> cleanParams = new LinkedHashMap<>();
+            int textLength = 0;
     
             Logger.log(Logger.Level.DEBUG, "🔍 Validating form data...");
     
@@ -176,52 +633,100 @@ private String getContentType(String path) {
                 String key = entry.getKey();
                 String value = entry.getValue();
     
-                Logger.log(Logger.Level.DEBUG, "👉 Field: " + key + ", Length: " + value.length());
+                if (Logger.isEnabled(Logger.Level.DEBUG)) {
+                    Logger.log(Logger.Level.DEBUG, "👉 Field: " + key + ", Length: " + value.length());
+                }
     
                 if (!FormHandler.isValidFormData(key, value)) {
                     Logger.log(Logger.Level.WARN, "❌ Rejected input: " + key + "=" + value);
-                    sendResponse(out, 400, "Bad Request", "text/html", "<h1>400 Bad Request</h1><p>Invalid input detected.</p>");
+                    sendResponse(request, out, 400, "Bad Request", "text/html", "<h1>400 Bad Request</h1><p>Invalid input detected.</p>");
                     return;
                 }
     
                 cleanParams.put(FormHandler.sanitize(key), FormHandler.sanitize(value));
+                textLength += key.length() + value.length();
             }
     
             // Step 4: Save via isolated process
-            FormHandler.saveToFile(cleanParams);
+            if (!FormHandler.saveToFile(cleanParams)) {
+                // Nothing was stored, so the client may safely send it again
+                request.setKeepAlive(false);
+                sendResponse(request, out, 503, "Service Unavailable", "text/html", "<h1>503 Service Unavailable</h1><p>Your submission could not be saved. Please try again.</p>");
+                return;
+            }
+            saved = true;
             Logger.log(Logger.Level.INFO, "Form data saved successfully.");
     
-            // Step 5: Prepare and send response
-            StringBuilder responseHtml = new StringBuilder("<html><body><h1>Form Submission Received</h1><ul>");
-            for (Map.Entry<String, String> entry : cleanParams.entrySet()) {
-                responseHtml.append("<li>").append(entry.getKey()).append(": ").append(entry.getValue()).append("</li>");
+            // Step 5: Prepare and send response. The escaper writes straight into the page; every
+            // field passed validation (no '&'), so this lists exactly what cleanParams holds.
+            StringBuilder responseHtml = new StringBuilder(128 + textLength * 2 + rawParams.size() * 16);
+            responseHtml.append("<html><body><h1>Form Submission Received</h1><ul>");
+            for (Map.Entry<String, String> entry : rawParams.entrySet()) {
+                responseHtml.append("<li>");
+                FormHandler.appendEscaped(responseHtml, entry.getKey());
+                responseHtml.append(": ");
+                FormHandler.appendEscaped(responseHtml, entry.getValue());
+                responseHtml.append("</li>");
             }
             responseHtml.append("</ul></body></html>");
     
-            sendResponse(out, 200, "OK", "text/html", responseHtml.toString());
+            sendResponse(request, out, 200, "OK", "text/html", responseHtml.toString());
     
-        } catch (IOException e) {
-            Logger.log(Logger.Level.ERROR, "IOException in handlePost: " + e.getMessage());
-            sendResponse(out, 500, "Internal Server Error", "text/html", "<h1>500 Internal Server Error</h1>");
-
         } catch (Exception e) {
             Logger.log(Logger.Level.ERROR, "Unexpected error in handlePost: " + e.getMessage());
-            sendResponse(out, 500, "Internal Server Error", "text/html", "<h1>500 Internal Server Error</h1>");
+            request.setKeepAlive(false);
+            sendResponse(request, out, 500, "Internal Server Error", "text/html", "<h1>500 Internal Server Error</h1>");
 
+        } finally {
+            // Files of a submission that was not saved are not kept
+            if (multipart != null && !saved) multipart.deleteUploads();
         }
     }
     
     
 
 
-    private void sendResponse(OutputStream out, int statusCode, String statusText, String contentType, String body) {
+    static void sendFile(OutputStream out, Path file, long position, long count) throws IOException {
+        if (out instanceof FileRegionSink sink) {
+            sink.sendFile(file, position, count);
+        } else {
+            copyFile(out, file, position, count);
+        }
+    }
+
+    // Fallback when no channel is available: a fixed-size buffer, never the whole file
+    static void copyFile(OutputStream out, Path file, long position, long count) throws IOException {
+        try (InputStream in = Files.newInputStream(file)) {
+            in.skipNBytes(position);
+            byte[] buffer = new byte[16 * 1024];
+            long remaining = count;
+            while (remaining > 0) {
+                int n = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                if (n < 0) throw new EOFException("File truncated while sending: " + file);
+                out.write(buffer, 0, n);
+                remaining -= n;
+            }
+        }
+    }
+
+    // Answers a request, recording the status for the metrics
+    static void sendResponse(HttpRequest request, OutputStream out, int statusCode, String statusText, String contentType, String body) {
+        request.setResponseStatus(statusCode);
+        sendResponse(out, statusCode, statusText, contentType, body, request.isKeepAlive());
+    }
+
+    static void sendResponse(OutputStream out, int statusCode, String statusText, String contentType, String body) {
+        sendResponse(out, statusCode, statusText, contentType, body, false);
+    }
+
+    static void sendResponse(OutputStream out, int statusCode, String statusText, String contentType, String body, boolean keepAlive) {
         try {
             byte[] bodyBytes = body.getBytes(StandardCharsets.UTF_8);
     
             String response = "HTTP/1.1 " + statusCode + " " + statusText + "\r\n" +
                               "Content-Type: " + contentType + "\r\n" +
                               "Content-Length: " + bodyBytes.length + "\r\n" +
-                              "Connection: close\r\n\r\n";
+                              connectionHeader(keepAlive);
     
             out.write(response.getBytes(StandardCharsets.UTF_8));
             out.write(bodyBytes);
@@ -238,4 +743,9 @@ private String getContentType(String path) {
 
 
       
+    // Ends the header block
+    static String connectionHeader(boolean keepAlive) {
+        return keepAlive ? "Connection: keep-alive\r\n\r\n" : "Connection: close\r\n\r\n";
+    }
+
 }
@@ -0,0 +1,142 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.StringJoiner;
+
+// Maps a request's method and path to the handler that answers it. A route is either an exact path
+// or a prefix ending in '/'. Each method has a character trie of its routes, so a lookup walks the
+// path once and takes the exact route if there is one, else the longest matching prefix; it
+// allocates nothing. The query string is not part of the match. Routes are all registered before
+// the server starts and never change afterwards.
+final class Router {
+
+    interface Handler {
+        // Writes the whole response, or leaves the connection to be closed
+        void handle(HttpRequest request, OutputStream out) throws IOException;
+    }
+
+    static final class Route {
+        private final String pattern;   // the path, or the prefix followed by '*'
+        private final int metricsRoute;
+        private final Handler handler;
+
+        private Route(String pattern, int metricsRoute, Handler handler) {
+            this.pattern = pattern;
+            this.metricsRoute = metricsRoute;
+            this.handler = handler;
+        }
+
+        int getMetricsRoute() { return metricsRoute; }
+
+        void handle(HttpRequest request, OutputStream out) throws IOException {
+            handler.handle(request, out);
+        }
+
+        @Override
+        public String toString() {
+            return pattern;
+        }
+    }
+
+    private static final class Node {
+        private char[] keys = new char[0];
+        private Node[] children = new Node[0];
+        private Route exact;
+        private Route prefix;
+
+        Node child(char c) {
+            for (int i = 0; i < keys.length; i++) {
+                if (keys[i] == c) return children[i];
+            }
+            return null;
+        }
+
+        Node addChild(char c) {
+            Node child = child(c);
+            if (child != null) return child;
+            int n = keys.length;
+            keys = Arrays.copyOf(keys, n + 1);
+            children = Arrays.copyOf(children, n + 1);
+            keys[n] = c;
+            children[n] = new Node();
+            return children[n];
+        }
+    }
+
+    private final Map<String, Node> methods = new HashMap<>();
+
+    // Requests for exactly this path (e.g. /metrics)
+    void exact(String method, String path, int metricsRoute, Handler handler) {
+        Node node = insert(method, path);
+        if (node.exact != null) throw new IllegalArgumentException(method + " " + path + " is already routed");
+        node.exact = new Route(path, metricsRoute, handler);
+    }
+
+    // Requests for any path under the prefix (e.g. /static/), unless a longer route matches
+    void prefix(String method, String prefix, int metricsRoute, Handler handler) {
+        if (!prefix.endsWith("/")) throw new IllegalArgumentException("Route prefix " + prefix + " does not end with '/'");
+        Node node = insert(method, prefix);
+        if (node.prefix != null) throw new IllegalArgumentException(method + " " + prefix + "* is already routed");
+        node.prefix = new Route(prefix + "*", metricsRoute, handler);
+    }
+
+    private Node insert(String method, String path) {
+        if (!path.startsWith("/")) throw new IllegalArgumentException("Route path " + path + " does not start with '/'");
+        Node node = methods.computeIfAbsent(method, m -> new Node());
+        for (int i = 0; i < path.length(); i++) {
+            node = node.addChild(path.charAt(i));
+        }
+        return node;
+    }
+
+    // Null when no route of the method matches the path
+    Route find(String method, String path) {
+        Node node = methods.get(method);
+        return node == null ? null : find(node, path);
+    }
+
+    private static Route find(Node node, String path) {
+        Route match = null;
+        int length = path.length();
+        for (int i = 0; i < length; i++) {
+            char c = path.charAt(i);
+            if (c == '?') break;
+            node = node.child(c);
+            if (node == null) return match;
+            if (node.prefix != null) match = node.prefix;
+        }
+        return node.exact != null ? node.exact : match;
+    }
+
+    boolean hasMethod(String method) {
+        return methods.containsKey(method);
+    }
+
+    // The methods that have a route for the path, for the Allow header of a 405; empty if none
+    String allowedMethods(String path) {
+        StringJoiner allowed = new StringJoiner(", ");
+        for (Map.Entry<String, Node> method : methods.entrySet()) {
+            if (find(method.getValue(), path) != null) allowed.add(method.getKey());
+        }
+        return allowed.toString();
+    }
+
+    @Override
+    public String toString() {
+        StringJoiner routes = new StringJoiner(", ");
+        for (Map.Entry<String, Node> method : methods.entrySet()) {
+            describe(method.getKey(), method.getValue(), routes);
+        }
+        return routes.toString();
+    }
+
+    private static void describe(String method, Node node, StringJoiner routes) {
+        if (node.exact != null) routes.add(method + " " + node.exact);
+        if (node.prefix != null) routes.add(method + " " + node.prefix);
+        for (Node child : node.children) {
+            describe(method, child, routes);
+        }
+    }
+}
@@ -1,53 +1,115 @@
-import java.io.File;
 import java.io.IOException;
-import java.net.ServerSocket;
 import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
 
 public class Server {
     public static void main(String[] args) {
-        int port = 8080;
-    
+        ServerConfig.load(args);   // before anything reads a setting
+
         try {
-            File wwwDir = new File("www");
-            if (!wwwDir.exists()) {
-                boolean created = wwwDir.mkdir();
-                if (created) {
-                    Logger.log(Logger.Level.INFO, "'www/' directory created.");
-                } else {
-                    Logger.log(Logger.Level.WARN, "Failed to create 'www/' directory.");
+            List<Site> sites = Site.all();
+            Logger.log(Logger.Level.INFO, "Configuration: " + ServerConfig.describeSource() + ", listeners " + sites);
+
+            // Before listening: clients only arrive once the caches are filled and the handlers compiled
+            Warmup.run(sites);
+            if (Warmup.exitAfter()) {
+                Logger.log(Logger.Level.INFO, "Warmed up, exiting (warmup.exitAfter)");
+                Logger.flush();
+                System.exit(0);
+            }
+
+            String engine = ServerConfig.get("server.engine", "blocking");
+            if (engine.equalsIgnoreCase("nio")) {
+                try {
+                    new NioServer(sites).run();
+                } catch (IOException e) {
+                    Logger.log(Logger.Level.ERROR, "Could not start NIO server on " + sites + ": " + e.getMessage());
                 }
+                return;
             }
-    
-            // Set permissions on www/
+
+            WorkerPool workerPool = WorkerPool.fromConfig();
+
+            // Accepting through a channel gives each socket a SocketChannel, which large files are sent with
+            List<ServerSocketChannel> serverChannels = new ArrayList<>();
             try {
-                wwwDir.setReadable(true, true);
-                wwwDir.setWritable(false, false); // No write permissions for anyone
-                Logger.log(Logger.Level.INFO, "'www/' directory permissions updated (read-only).");
-            } catch (SecurityException e) {
-                Logger.log(Logger.Level.WARN, "Failed to set permissions on 'www/' directory: " + e.getMessage());
-            }
-    
-            try (ServerSocket serverSocket = new ServerSocket(port)) {
-                Logger.log(Logger.Level.INFO, "Server started on port " + port);
-    
-                while (true) {
-                    try {
-                        Socket clientSocket = serverSocket.accept();
-                        Logger.log(Logger.Level.DEBUG, "Accepted connection from " + clientSocket.getInetAddress());
-                        new Thread(new RequestHandler(clientSocket)).start();
-                    } catch (IOException e) {
-                        Logger.log(Logger.Level.WARN, "Failed to accept connection: " + e.getMessage());
-                    }
+                for (Site site : sites) {
+                    ServerSocketChannel serverChannel = ServerSocketChannel.open();
+                    serverChannels.add(serverChannel);
+                    SocketSettings.bind(serverChannel, site.getPort());
+                    Logger.log(Logger.Level.INFO, "Server started on port " + site.getPort() + " serving '" + site.getRoot() + "' (" + SocketSettings.describe() + ")");
                 }
-    
             } catch (IOException e) {
-                Logger.log(Logger.Level.ERROR, "Could not start server on port " + port + ": " + e.getMessage());
+                Logger.log(Logger.Level.ERROR, "Could not start server on " + sites + ": " + e.getMessage());
+                closeAll(serverChannels);
+                return;
+            }
+
+            Shutdown.install(new Shutdown.Drainable() {
+                public void stopAccepting() {
+                    Server.closeAll(serverChannels);
+                }
+
+                public int closeIdle() {
+                    // Connections still queued for a worker will be served their first request
+                    return RequestHandler.closeIdleConnections() + workerPool.getQueueDepth();
+                }
+
+                public void closeAll() {
+                    RequestHandler.closeAllConnections();
+                }
+            });
+            Warmup.ready();
+
+            // One accept loop per listener; the first runs on this thread
+            for (int i = 1; i < sites.size(); i++) {
+                ServerSocketChannel serverChannel = serverChannels.get(i);
+                Site site = sites.get(i);
+                new Thread(() -> acceptLoop(serverChannel, site, workerPool), "acceptor-" + site.getPort()).start();
             }
-    
+            acceptLoop(serverChannels.get(0), sites.get(0), workerPool);
+
         } catch (Exception e) {
             Logger.log(Logger.Level.ERROR, "Unexpected error in main(): " + e.getMessage());
             e.printStackTrace();
         }
     }
-    
+
+    // Ends when the shutdown hook closes the channel
+    private static void acceptLoop(ServerSocketChannel serverChannel, Site site, WorkerPool workerPool) {
+        ClientLimiter limiter = ClientLimiter.getInstance();
+        while (serverChannel.isOpen()) {
+            try {
+                SocketChannel channel = serverChannel.accept();
+                Socket clientSocket = channel.socket();
+                if (Logger.isEnabled(Logger.Level.DEBUG)) {
+                    Logger.log(Logger.Level.DEBUG, "Accepted connection from " + clientSocket.getInetAddress());
+                }
+                // Refused before a worker or a buffer is spent on it
+                if (!limiter.tryOpen(clientSocket.getInetAddress())) {
+                    Logger.log(Logger.Level.WARN, "Too many connections from " + clientSocket.getInetAddress() + ", refused with 503");
+                    Metrics.recordRejected(503);
+                    ClientLimiter.refuse(channel);
+                    continue;
+                }
+                SocketSettings.apply(channel);
+                workerPool.submit(clientSocket, site);
+            } catch (IOException e) {
+                if (serverChannel.isOpen()) Logger.log(Logger.Level.WARN, "Failed to accept connection: " + e.getMessage());
+            }
+        }
+    }
+
+    private static void closeAll(List<ServerSocketChannel> serverChannels) {
+        for (ServerSocketChannel serverChannel : serverChannels) {
+            try {
+                serverChannel.close();
+            } catch (IOException e) {
+                Logger.log(Logger.Level.WARN, "Failed to close listening socket: " + e.getMessage());
+            }
+        }
+    }
 }
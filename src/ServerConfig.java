@@ -0,0 +1,417 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+public class ServerConfig {
+
+    // Settings come from, highest precedence first:
+    //   --key=value flags on the command line       java -cp out Server --server.port=8081
+    //   JVM system properties                       java -Dserver.mode=virtual -cp out Server
+    //   environment variables, WEBSERVER_ and the key upper-cased with dots as underscores (WEBSERVER_SERVER_PORT)
+    //   a properties file: --config=path, else server.properties in the working directory if there is one
+    // load() validates them against the table below and resolves them into system properties, which
+    // get/getInt (and the Logger, which cannot log through this class) read. The file is then
+    // polled for changes; settings marked RELOADABLE take effect without a restart.
+
+    private static final String ENV_PREFIX = "WEBSERVER_";
+    private static final String DEFAULT_FILE = "server.properties";
+    private static final String[] PREFIXES = { "server.", "cache.", "compress.", "form.", "upload.", "limit.", "metrics.", "log.", "saver.", "warmup.", "config." };
+    private static final boolean RELOADABLE = true;
+
+    private enum Kind { INT, BOOL, CHOICE, TEXT, DIR, LISTENERS, PATH }
+
+    private static final class Setting {
+        final Kind kind;
+        final int min;
+        final int max;
+        final String[] choices;
+        final boolean reloadable;
+
+        Setting(Kind kind, int min, int max, String[] choices, boolean reloadable) {
+            this.kind = kind;
+            this.min = min;
+            this.max = max;
+            this.choices = choices;
+            this.reloadable = reloadable;
+        }
+    }
+
+    private static final Map<String, Setting> SETTINGS = new LinkedHashMap<>();
+
+    static {
+        number("server.port", 1, 65535);
+        add("server.root", Kind.DIR);
+        add("server.listeners", Kind.LISTENERS);
+        choice("server.engine", false, "blocking", "nio");
+        choice("server.mode", false, "pool", "virtual", "thread");
+        number("server.poolSize", 1);
+        number("server.queueCapacity", 1);
+        number("server.statsIntervalSeconds", 0);
+        number("server.eventLoops", 1);
+        number("server.maxHeaderBytes", 1024);
+        number("server.maxBodyBytes", 0);
+        number("server.maxUploadBytes", 0);
+        number("server.keepAliveTimeoutMillis", 1);
+        number("server.maxRequestsPerConnection", 1);
+        number("server.zeroCopyThresholdBytes", 0);
+        reloadable("server.headerTimeoutMillis", 1);
+        reloadable("server.readTimeoutMillis", 1);
+        reloadable("server.writeTimeoutMillis", 1);
+        reloadable("server.minBodyBytesPerSecond", 0);
+        reloadable("server.minRateGraceMillis", 1);
+        number("server.backlog", 0);
+        add("server.tcpNoDelay", Kind.BOOL);
+        add("server.reuseAddress", Kind.BOOL);
+        number("server.receiveBufferBytes", 0);
+        number("server.sendBufferBytes", 0);
+        number("server.shutdownTimeoutMillis", 0);
+
+        number("cache.maxBytes", 0);
+        number("cache.maxFileBytes", 0);
+        add("compress.enabled", Kind.BOOL);
+        number("compress.minBytes", 0);
+        number("compress.level", 1, 9);
+        number("form.maxFields", 1);
+        number("form.maxFieldBytes", 1);
+        add("form.path", Kind.PATH);
+        add("upload.dir", Kind.TEXT);
+
+        reloadable("limit.enabled", Kind.BOOL);
+        reloadable("limit.exemptLoopback", Kind.BOOL);
+        reloadable("limit.getPerSecond", 1);
+        reloadable("limit.getBurst", 1);
+        reloadable("limit.postPerSecond", 1);
+        reloadable("limit.postBurst", 1);
+        reloadable("limit.maxConnectionsPerClient", 1);
+        number("limit.maxClients", 16);
+
+        add("metrics.path", Kind.TEXT);
+        reloadable("metrics.allowRemote", Kind.BOOL);
+
+        choice("log.level", RELOADABLE, "debug", "info", "warn", "error");
+        add("log.async", Kind.BOOL);
+        choice("log.overflow", false, "drop", "block");
+        number("log.bufferSize", 1);
+        add("log.console", Kind.BOOL);
+        add("log.dir", Kind.TEXT);
+
+        choice("saver.mode", false, "process", "inprocess", "spawn");
+        choice("saver.fsync", false, "none", "batch", "always");
+        number("saver.maxBatch", 1);
+        number("saver.queueCapacity", 1);
+        number("saver.timeoutMillis", 1);
+        number("saver.segmentMegabytes", 1);
+        add("saver.dir", Kind.TEXT);
+        add("saver.classArchive", Kind.TEXT);
+
+        add("warmup.preload", Kind.BOOL);
+        number("warmup.maxMillis", 0);
+        add("warmup.exitAfter", Kind.BOOL);
+
+        add("config.file", Kind.TEXT);
+        number("config.reloadSeconds", 0);
+    }
+
+    private static final List<Runnable> reloadListeners = new CopyOnWriteArrayList<>();
+
+    // State of the loaded file, guarded by ServerConfig.class
+    private static Path file;
+    private static long fileStamp;
+    private static Set<String> fileKeys = new LinkedHashSet<>();
+    private static final Set<String> pinnedKeys = new LinkedHashSet<>();   // set by a flag, -D or the environment: the file cannot change them
+
+    public static String get(String key, String defaultValue) {
+        String value = System.getProperty(key);
+        return (value == null || value.isBlank()) ? defaultValue : value.trim();
+    }
+
+    public static int getInt(String key, int defaultValue) {
+        String value = System.getProperty(key);
+        if (value == null || value.isBlank()) return defaultValue;
+
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            Logger.log(Logger.Level.WARN, "Invalid integer for '" + key + "': " + value + " (using " + defaultValue + ")");
+            return defaultValue;
+        }
+    }
+
+    // Called first thing in main, before anything reads a setting. Exits with status 2, listing
+    // every problem, if the configuration is invalid.
+    public static synchronized void load(String[] args) {
+        List<String> errors = new ArrayList<>();
+
+        Map<String, String> flags = new LinkedHashMap<>();
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (!arg.startsWith("--") || eq < 0) {
+                errors.add("Unrecognized argument '" + arg + "' (expected --key=value)");
+                continue;
+            }
+            String key = arg.substring(2, eq);
+            flags.put(key.equals("config") ? "config.file" : key, arg.substring(eq + 1).trim());
+        }
+
+        Map<String, String> env = new LinkedHashMap<>();
+        Map<String, String> envNames = new LinkedHashMap<>();
+        for (String key : SETTINGS.keySet()) {
+            envNames.put(envName(key), key);
+        }
+        for (Map.Entry<String, String> variable : System.getenv().entrySet()) {
+            if (!variable.getKey().startsWith(ENV_PREFIX)) continue;
+            String key = envNames.get(variable.getKey());
+            if (key == null) {
+                errors.add("Unknown setting in environment variable " + variable.getKey());
+            } else {
+                env.put(key, variable.getValue().trim());
+            }
+        }
+
+        Map<String, String> system = new LinkedHashMap<>();
+        for (String key : System.getProperties().stringPropertyNames()) {
+            if (isOurs(key)) system.put(key, System.getProperty(key).trim());
+        }
+
+        String fileName = first(flags.get("config.file"), system.get("config.file"), env.get("config.file"));
+        Properties fileSettings = new Properties();
+        if (fileName != null || Files.isRegularFile(Path.of(DEFAULT_FILE))) {
+            file = Path.of(fileName != null ? fileName : DEFAULT_FILE);
+            fileStamp = stamp(file);
+            readFile(file, fileSettings, errors);
+        }
+
+        // Highest precedence last, so it wins
+        Map<String, String> resolved = new LinkedHashMap<>();
+        for (String key : fileSettings.stringPropertyNames()) resolved.put(key, fileSettings.getProperty(key).trim());
+        resolved.putAll(env);
+        resolved.putAll(system);
+        resolved.putAll(flags);
+        for (Map.Entry<String, String> setting : resolved.entrySet()) {
+            validate(setting.getKey(), setting.getValue(), sourceOf(setting.getKey(), flags, system, env), errors);
+        }
+
+        if (!errors.isEmpty()) {
+            System.err.println("Invalid configuration:");
+            for (String error : errors) System.err.println("  " + error);
+            System.exit(2);
+        }
+
+        for (Map.Entry<String, String> setting : resolved.entrySet()) {
+            System.setProperty(setting.getKey(), setting.getValue());
+        }
+        pinnedKeys.addAll(flags.keySet());
+        pinnedKeys.addAll(system.keySet());
+        pinnedKeys.addAll(env.keySet());
+        fileKeys = fileSettings.stringPropertyNames();
+
+        int reloadSeconds = getInt("config.reloadSeconds", 5);
+        if (file != null && reloadSeconds > 0) watch(reloadSeconds);
+    }
+
+    // Runs after a reload that changed a reloadable setting; components re-read their settings
+    public static void onReload(Runnable listener) {
+        reloadListeners.add(listener);
+    }
+
+    public static synchronized String describeSource() {
+        return file != null ? "file " + file : "no config file";
+    }
+
+    // Re-reads the file. A file that no longer validates is ignored as a whole; settings that cannot
+    // be reloaded keep their value until a restart.
+    static synchronized void reload() {
+        List<String> errors = new ArrayList<>();
+        Properties fileSettings = new Properties();
+        readFile(file, fileSettings, errors);
+        for (String key : fileSettings.stringPropertyNames()) {
+            validate(key, fileSettings.getProperty(key).trim(), "file " + file, errors);
+        }
+        if (!errors.isEmpty()) {
+            Logger.log(Logger.Level.ERROR, "Config file " + file + " not reloaded: " + String.join("; ", errors));
+            return;
+        }
+
+        Set<String> keys = new LinkedHashSet<>(fileKeys);
+        keys.addAll(fileSettings.stringPropertyNames());
+        keys.removeAll(pinnedKeys);
+        List<String> applied = new ArrayList<>();
+        List<String> needRestart = new ArrayList<>();
+        for (String key : keys) {
+            String value = fileSettings.getProperty(key);
+            if (value != null) value = value.trim();
+            String current = System.getProperty(key);
+            if (value == null ? current == null : value.equals(current)) continue;
+
+            if (!SETTINGS.get(key).reloadable) {
+                needRestart.add(key);
+            } else {
+                if (value == null) {
+                    System.clearProperty(key);
+                } else {
+                    System.setProperty(key, value);
+                }
+                applied.add(key + "=" + (value == null ? "(default)" : value));
+            }
+        }
+        fileKeys = fileSettings.stringPropertyNames();
+
+        if (!applied.isEmpty()) {
+            Logger.log(Logger.Level.INFO, "Reloaded " + file + ": " + String.join(", ", applied));
+            for (Runnable listener : reloadListeners) listener.run();
+        }
+        if (!needRestart.isEmpty()) {
+            Logger.log(Logger.Level.WARN, "Changed in " + file + " but only applied on restart: " + String.join(", ", needRestart));
+        }
+    }
+
+    private static void watch(int intervalSeconds) {
+        Thread watcher = new Thread(() -> {
+            while (true) {
+                try {
+                    TimeUnit.SECONDS.sleep(intervalSeconds);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                long stamp;
+                synchronized (ServerConfig.class) {
+                    stamp = stamp(file);
+                    if (stamp == fileStamp) continue;
+                    fileStamp = stamp;
+                }
+                reload();
+            }
+        }, "config-watcher");
+        watcher.setDaemon(true);
+        watcher.start();
+    }
+
+    private static void readFile(Path path, Properties into, List<String> errors) {
+        try (InputStream in = Files.newInputStream(path)) {
+            into.load(in);
+        } catch (IOException e) {
+            errors.add("Cannot read config file " + path + ": " + e);
+        }
+    }
+
+    // Modification time and size, so an edit within the same second is still noticed
+    private static long stamp(Path path) {
+        try {
+            return Files.getLastModifiedTime(path).toMillis() * 31 + Files.size(path);
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    private static void validate(String key, String value, String source, List<String> errors) {
+        Setting setting = SETTINGS.get(key);
+        if (setting == null) {
+            errors.add("Unknown setting '" + key + "' (" + source + ")");
+            return;
+        }
+        if (value.isEmpty()) return;   // same as unset
+        String problem = check(setting, value);
+        if (problem != null) errors.add(key + "=" + value + ": " + problem + " (" + source + ")");
+    }
+
+    // Null if the value is acceptable for the setting
+    private static String check(Setting setting, String value) {
+        switch (setting.kind) {
+            case INT -> {
+                try {
+                    int n = Integer.parseInt(value);
+                    if (n < setting.min || n > setting.max) {
+                        return setting.max == Integer.MAX_VALUE ? "must be at least " + setting.min : "must be between " + setting.min + " and " + setting.max;
+                    }
+                } catch (NumberFormatException e) {
+                    return "not an integer";
+                }
+            }
+            case BOOL -> {
+                if (!value.equalsIgnoreCase("true") && !value.equalsIgnoreCase("false")) return "must be true or false";
+            }
+            case CHOICE -> {
+                for (String choice : setting.choices) {
+                    if (choice.equalsIgnoreCase(value)) return null;
+                }
+                return "must be one of " + String.join(", ", setting.choices);
+            }
+            case DIR -> {
+                if (!Site.isUsableRoot(value)) return "not a directory";
+            }
+            case LISTENERS -> {
+                try {
+                    Site.parseListeners(value);
+                } catch (IllegalArgumentException e) {
+                    return e.getMessage();
+                }
+            }
+            case PATH -> {
+                if (!value.startsWith("/")) return "must start with '/'";
+            }
+            case TEXT -> {
+            }
+        }
+        return null;
+    }
+
+    private static String sourceOf(String key, Map<String, String> flags, Map<String, String> system, Map<String, String> env) {
+        if (flags.containsKey(key)) return "command line";
+        if (system.containsKey(key)) return "system property";
+        if (env.containsKey(key)) return "environment variable " + envName(key);
+        return "file " + file;
+    }
+
+    private static boolean isOurs(String key) {
+        for (String prefix : PREFIXES) {
+            if (key.startsWith(prefix)) return true;
+        }
+        return false;
+    }
+
+    private static String envName(String key) {
+        return ENV_PREFIX + key.toUpperCase(Locale.ROOT).replace('.', '_');
+    }
+
+    private static String first(String... values) {
+        for (String value : values) {
+            if (value != null) return value;
+        }
+        return null;
+    }
+
+    private static void add(String key, Kind kind) {
+        SETTINGS.put(key, new Setting(kind, 0, 0, null, false));
+    }
+
+    private static void reloadable(String key, Kind kind) {
+        SETTINGS.put(key, new Setting(kind, 0, 0, null, RELOADABLE));
+    }
+
+    private static void number(String key, int min) {
+        number(key, min, Integer.MAX_VALUE);
+    }
+
+    private static void number(String key, int min, int max) {
+        SETTINGS.put(key, new Setting(Kind.INT, min, max, null, false));
+    }
+
+    private static void reloadable(String key, int min) {
+        SETTINGS.put(key, new Setting(Kind.INT, min, Integer.MAX_VALUE, null, RELOADABLE));
+    }
+
+    private static void choice(String key, boolean reloadable, String... choices) {
+        SETTINGS.put(key, new Setting(Kind.CHOICE, 0, 0, choices, reloadable));
+    }
+}
@@ -0,0 +1,56 @@
+import java.util.concurrent.TimeUnit;
+
+// Graceful shutdown on SIGTERM or Ctrl-C (a JVM shutdown hook): stop accepting, close connections
+// as they go idle while in-flight requests finish, for up to server.shutdownTimeoutMillis, then
+// close whatever is left, commit the submissions still queued and flush the log.
+public final class Shutdown {
+
+    // What an engine provides to be drained
+    public interface Drainable {
+        void stopAccepting();
+        int closeIdle();    // closes connections waiting for a request; returns how many are still busy
+        void closeAll();
+    }
+
+    private static final long TIMEOUT_NANOS = TimeUnit.MILLISECONDS.toNanos(Math.max(0, ServerConfig.getInt("server.shutdownTimeoutMillis", 10_000)));
+    private static final long MIN_SAVER_MILLIS = 1000;   // submissions get at least this long even if the drain used up the timeout
+
+    private static volatile boolean draining = false;
+
+    private Shutdown() {
+    }
+
+    // Once set, responses are sent with Connection: close
+    public static boolean isDraining() { return draining; }
+
+    public static void install(Drainable server) {
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> drain(server), "shutdown"));
+    }
+
+    private static void drain(Drainable server) {
+        long start = System.nanoTime();
+        long deadline = start + TIMEOUT_NANOS;
+        Logger.log(Logger.Level.INFO, "Shutting down, draining connections for up to " + TimeUnit.NANOSECONDS.toMillis(TIMEOUT_NANOS) + " ms");
+
+        draining = true;
+        server.stopAccepting();
+        int busy;
+        while ((busy = server.closeIdle()) > 0 && System.nanoTime() - deadline < 0) {
+            try {
+                TimeUnit.MILLISECONDS.sleep(50);
+            } catch (InterruptedException e) {
+                break;
+            }
+        }
+        if (busy > 0) {
+            Logger.log(Logger.Level.WARN, busy + " connection(s) still busy at the shutdown deadline, closing them");
+            server.closeAll();
+        }
+
+        long remainingMillis = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+        SubmissionWriter.shutdownInstance(Math.max(MIN_SAVER_MILLIS, remainingMillis));
+
+        Logger.log(Logger.Level.INFO, "Shutdown complete in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms");
+        Logger.flush();
+    }
+}
@@ -0,0 +1,116 @@
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// A listening port and the document root served on it. server.listeners lists several as
+// port=root pairs (8080=www,8081=docs); without it there is one, server.port serving server.root.
+// Each distinct root gets its own static file cache, with the full cache.maxBytes budget.
+public final class Site {
+
+    public static final String DEFAULT_ROOT = "www";
+
+    // Built on first use rather than with the class, which ServerConfig uses to validate settings
+    // before they are all in place
+    private static final class Configured {
+        static final List<Site> ALL = fromConfig();
+    }
+
+    private final int port;
+    private final String root;
+    private final StaticFileCache cache;
+
+    Site(int port, String root, StaticFileCache cache) {
+        this.port = port;
+        this.root = root;
+        this.cache = cache;
+    }
+
+    public static List<Site> all() { return Configured.ALL; }
+
+    // The first listener; also serves connections that were not accepted by a listener (benchmarks)
+    public static Site primary() { return Configured.ALL.get(0); }
+
+    public int getPort() { return port; }
+
+    public String getRoot() { return root; }
+
+    public StaticFileCache getCache() { return cache; }
+
+    private static List<Site> fromConfig() {
+        Map<Integer, String> listeners = parseListeners(ServerConfig.get("server.listeners", ""));
+        if (listeners.isEmpty()) {
+            listeners.put(ServerConfig.getInt("server.port", 8080), ServerConfig.get("server.root", DEFAULT_ROOT));
+        }
+
+        Map<Path, StaticFileCache> caches = new HashMap<>();
+        List<Site> sites = new ArrayList<>();
+        for (Map.Entry<Integer, String> listener : listeners.entrySet()) {
+            String root = listener.getValue();
+            if (root.equals(DEFAULT_ROOT)) prepareDefaultRoot();
+            StaticFileCache cache = caches.computeIfAbsent(Path.of(root).toAbsolutePath().normalize(), p -> StaticFileCache.fromConfig(root));
+            sites.add(new Site(listener.getKey(), root, cache));
+        }
+        return Collections.unmodifiableList(sites);
+    }
+
+    // "8080=www, 8081=docs" in order; empty for an empty spec. Throws IllegalArgumentException
+    // describing the first problem found.
+    static Map<Integer, String> parseListeners(String spec) {
+        Map<Integer, String> listeners = new LinkedHashMap<>();
+        for (String part : spec.split(",")) {
+            part = part.trim();
+            if (part.isEmpty()) continue;
+            int eq = part.indexOf('=');
+            if (eq < 0) throw new IllegalArgumentException("'" + part + "' is not port=root");
+            int port;
+            try {
+                port = Integer.parseInt(part.substring(0, eq).trim());
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("'" + part + "' has no valid port");
+            }
+            String root = part.substring(eq + 1).trim();
+            if (port < 1 || port > 65535) throw new IllegalArgumentException("port " + port + " out of range");
+            if (!isUsableRoot(root)) throw new IllegalArgumentException("root '" + root + "' is not a directory");
+            if (listeners.put(port, root) != null) throw new IllegalArgumentException("port " + port + " listed twice");
+        }
+        return listeners;
+    }
+
+    // The default root is created at startup if missing; any other must already exist
+    static boolean isUsableRoot(String root) {
+        return root.equals(DEFAULT_ROOT) || Files.isDirectory(Path.of(root));
+    }
+
+    // Other roots are left as their owner set them up
+    private static void prepareDefaultRoot() {
+        File wwwDir = new File(DEFAULT_ROOT);
+        if (!wwwDir.exists()) {
+            boolean created = wwwDir.mkdir();
+            if (created) {
+                Logger.log(Logger.Level.INFO, "'www/' directory created.");
+            } else {
+                Logger.log(Logger.Level.WARN, "Failed to create 'www/' directory.");
+            }
+        }
+
+        // Set permissions on www/
+        try {
+            wwwDir.setReadable(true, true);
+            wwwDir.setWritable(false, false); // No write permissions for anyone
+            Logger.log(Logger.Level.INFO, "'www/' directory permissions updated (read-only).");
+        } catch (SecurityException e) {
+            Logger.log(Logger.Level.WARN, "Failed to set permissions on 'www/' directory: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public String toString() {
+        return port + "=" + root;
+    }
+}
@@ -0,0 +1,42 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+// Listening and per-connection socket options, shared by both engines. Buffer sizes of 0 leave
+// the OS defaults (and its autotuning) alone.
+public final class SocketSettings {
+
+    private static final int BACKLOG = Math.max(0, ServerConfig.getInt("server.backlog", 1024));
+    private static final boolean REUSE_ADDRESS = !ServerConfig.get("server.reuseAddress", "true").equalsIgnoreCase("false");
+    private static final boolean TCP_NO_DELAY = !ServerConfig.get("server.tcpNoDelay", "true").equalsIgnoreCase("false");
+    private static final int RECEIVE_BUFFER_BYTES = Math.max(0, ServerConfig.getInt("server.receiveBufferBytes", 0));
+    private static final int SEND_BUFFER_BYTES = Math.max(0, ServerConfig.getInt("server.sendBufferBytes", 0));
+
+    private SocketSettings() {
+    }
+
+    public static void bind(ServerSocketChannel serverChannel, int port) throws IOException {
+        serverChannel.setOption(StandardSocketOptions.SO_REUSEADDR, REUSE_ADDRESS);
+        // Set before listening so accepted sockets inherit it, window scaling included
+        if (RECEIVE_BUFFER_BYTES > 0) serverChannel.setOption(StandardSocketOptions.SO_RCVBUF, RECEIVE_BUFFER_BYTES);
+        serverChannel.bind(new InetSocketAddress(port), BACKLOG);
+    }
+
+    // For a newly accepted connection; a failure here (the client already gone) shows up on first use
+    public static void apply(SocketChannel channel) {
+        try {
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, TCP_NO_DELAY);
+            if (SEND_BUFFER_BYTES > 0) channel.setOption(StandardSocketOptions.SO_SNDBUF, SEND_BUFFER_BYTES);
+        } catch (IOException e) {
+            Logger.log(Logger.Level.DEBUG, "Failed to set socket options: " + e.getMessage());
+        }
+    }
+
+    public static String describe() {
+        return "backlog " + BACKLOG + ", TCP_NODELAY " + TCP_NO_DELAY +
+               (RECEIVE_BUFFER_BYTES > 0 ? ", SO_RCVBUF " + RECEIVE_BUFFER_BYTES : "") +
+               (SEND_BUFFER_BYTES > 0 ? ", SO_SNDBUF " + SEND_BUFFER_BYTES : "");
+    }
+}
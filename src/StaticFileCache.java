@@ -0,0 +1,447 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+// Keeps ready-to-send 200 responses (headers + body) for small files under the web root.
+// Entries are evicted least-recently-used once the byte budget is exceeded and dropped
+// as soon as the WatchService reports a change under the root. Text-like files also get
+// gzip/deflate variants, made on first request and kept (and counted) with the plain entry.
+// Validators (size, mtime, ETag) are kept for every file served, cached or not, so conditional
+// and range requests are answered without a stat.
+public class StaticFileCache {
+
+    // What a file is validated by: strong ETag from mtime and size (like nginx and Apache), and
+    // Last-Modified. Compressed variants are sent with the weak form of the same ETag.
+    public static final class FileInfo {
+        private static final long UNCHECKED = -2;
+
+        private final long size;
+        private final long lastModifiedMillis;
+        private final String etag;
+        private final String lastModified;
+        // Size of a file.gz sibling worth sending instead, -1 if there is none; looked up on first use
+        private volatile long gzipSize = UNCHECKED;
+
+        private FileInfo(long size, long lastModifiedMillis) {
+            this.size = size;
+            this.lastModifiedMillis = lastModifiedMillis;
+            this.etag = "\"" + Long.toHexString(lastModifiedMillis) + "-" + Long.toHexString(size) + "\"";
+            this.lastModified = HttpDate.format(lastModifiedMillis);
+        }
+
+        public long getSize() { return size; }
+
+        public long getLastModifiedMillis() { return lastModifiedMillis; }
+
+        public String getEtag() { return etag; }
+
+        public String getWeakEtag() { return "W/" + etag; }
+
+        public String getLastModified() { return lastModified; }
+
+        // Only once gzipSibling has looked
+        public long getGzipSize() { return gzipSize; }
+    }
+
+    public static final class Entry {
+        private final byte[] response;   // status line and headers without the Connection line, then the body
+        private final int headerLength;
+        private final String contentType;
+        private final String contentEncoding;   // null for the plain entry
+        private final boolean negotiable;       // may have compressed variants; sent with Vary: Accept-Encoding
+        private final FileInfo info;
+
+        // Compressed variants, set on first request; the plain entry itself when compressing does not pay
+        private volatile Entry gzip;
+        private volatile Entry deflate;
+
+        private Entry(byte[] response, int headerLength, String contentType, String contentEncoding, boolean negotiable, FileInfo info) {
+            this.response = response;
+            this.headerLength = headerLength;
+            this.contentType = contentType;
+            this.contentEncoding = contentEncoding;
+            this.negotiable = negotiable;
+            this.info = info;
+        }
+
+        public String getContentType() { return contentType; }
+
+        public String getContentEncoding() { return contentEncoding; }
+
+        public boolean isNegotiable() { return negotiable; }
+
+        public FileInfo getInfo() { return info; }
+
+        public int getBodyLength() { return response.length - headerLength; }
+
+        public void writeTo(OutputStream out, boolean keepAlive) throws IOException {
+            out.write(response, 0, headerLength);
+            out.write(keepAlive ? KEEP_ALIVE_END : CLOSE_END);
+            out.write(response, headerLength, response.length - headerLength);
+        }
+
+        // Part of the body only, for a 206 whose headers the caller has written
+        public void writeBody(OutputStream out, long offset, long length) throws IOException {
+            out.write(response, headerLength + (int) offset, (int) length);
+        }
+    }
+
+    private static final int MAX_INFOS = 4096;
+
+    private static final byte[] KEEP_ALIVE_END = RequestHandler.connectionHeader(true).getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] CLOSE_END = RequestHandler.connectionHeader(false).getBytes(StandardCharsets.US_ASCII);
+
+    private final Path root;
+    private final long maxBytes;
+    private final long maxFileBytes;
+    private volatile boolean enabled = false;  // only once changes can be detected
+
+    // Access-ordered, so iteration starts at the least recently used entry. Guarded by "this".
+    private final LinkedHashMap<Path, Entry> entries = new LinkedHashMap<>(64, 0.75f, true);
+    // Validators of files without an entry (too large to cache, or not requested whole yet)
+    private final LinkedHashMap<Path, FileInfo> infos = new LinkedHashMap<>(64, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Path, FileInfo> eldest) {
+            return size() > MAX_INFOS;
+        }
+    };
+    private long currentBytes = 0;
+    private long generation = 0;  // bumped on every invalidation, so a load racing a change is not cached
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+    private final LongAdder compressions = new LongAdder();
+
+    public StaticFileCache(Path root, long maxBytes, long maxFileBytes) {
+        this.root = root.normalize();
+        this.maxBytes = maxBytes;
+        this.maxFileBytes = Math.min(maxFileBytes, maxBytes);
+    }
+
+    public static StaticFileCache fromConfig(String webRoot) {
+        long maxBytes = ServerConfig.getInt("cache.maxBytes", 64 * 1024 * 1024);
+        long maxFileBytes = ServerConfig.getInt("cache.maxFileBytes", 1024 * 1024);
+
+        StaticFileCache cache = new StaticFileCache(Path.of(webRoot), maxBytes, maxFileBytes);
+        if (maxBytes > 0 && cache.startWatching()) {
+            Logger.log(Logger.Level.INFO, "Static file cache enabled for '" + webRoot + "' (budget " + maxBytes + " bytes, max file " + maxFileBytes + " bytes)");
+        }
+        return cache;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public Entry get(Path file) {
+        if (!enabled) return null;
+
+        Entry entry;
+        synchronized (this) {
+            entry = entries.get(file.normalize());
+        }
+        if (entry != null) hits.increment(); else misses.increment();
+        return entry;
+    }
+
+    // Validators of a regular file, or null if there is none at that path. Remembered while the
+    // cache is enabled (the watcher drops them on change); otherwise this is a stat per call.
+    public FileInfo info(Path file) {
+        Path key = file.normalize();
+        long loadGeneration = 0;
+        if (enabled) {
+            synchronized (this) {
+                Entry entry = entries.get(key);
+                if (entry != null) return entry.info;
+                FileInfo info = infos.get(key);
+                if (info != null) return info;
+                loadGeneration = generation;
+            }
+        }
+
+        BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(file, BasicFileAttributes.class);
+        } catch (IOException e) {
+            return null;   // missing, or a path through a file: answered like File.exists() did
+        }
+        if (!attributes.isRegularFile()) return null;
+        FileInfo info = new FileInfo(attributes.size(), attributes.lastModifiedTime().toMillis());
+
+        if (enabled) {
+            synchronized (this) {
+                if (loadGeneration == generation) infos.put(key, info);
+            }
+        }
+        return info;
+    }
+
+    // The precompressed file.gz to send instead of the file, or null. Looked up once per FileInfo:
+    // the watcher drops the info when either file changes, so a remembered answer stays right.
+    public Path gzipSibling(Path file, FileInfo info) {
+        long size = info.gzipSize;
+        if (size == FileInfo.UNCHECKED) {
+            Path sibling = ContentEncoding.gzipSibling(file);
+            size = -1;
+            if (sibling != null) {
+                try {
+                    size = Files.size(sibling);
+                } catch (IOException e) {
+                    Logger.log(Logger.Level.DEBUG, "Could not check " + sibling + ": " + e.getMessage());
+                }
+            }
+            info.gzipSize = size;
+        }
+        return size < 0 ? null : file.resolveSibling(file.getFileName() + ".gz");
+    }
+
+    // Reads the file and caches it if it fits; returns null if the file is too large to cache.
+    // The info must have been taken before reading, so a change in between is caught by the watcher.
+    public Entry load(Path file, FileInfo info, String contentType) throws IOException {
+        if (!isEnabled()) return null;
+        if (info.size > maxFileBytes) return null;
+
+        long loadGeneration;
+        synchronized (this) {
+            loadGeneration = generation;
+        }
+
+        byte[] content = Files.readAllBytes(file);
+        Entry entry = newEntry(content, 0, content.length, contentType, null,
+                               ContentEncoding.isCompressible(contentType, content.length), info);
+
+        put(file.normalize(), entry, loadGeneration);
+        return entry;
+    }
+
+    private static Entry newEntry(byte[] body, int offset, int length, String contentType, String contentEncoding, boolean negotiable, FileInfo info) throws IOException {
+        String header = "HTTP/1.1 200 OK\r\n" +
+                        "Content-Type: " + contentType + "\r\n" +
+                        (contentEncoding != null ? "Content-Encoding: " + contentEncoding + "\r\n" : "") +
+                        (negotiable ? "Vary: Accept-Encoding\r\n" : "") +
+                        "ETag: " + (contentEncoding != null ? info.getWeakEtag() : info.etag) + "\r\n" +
+                        "Last-Modified: " + info.lastModified + "\r\n" +
+                        (contentEncoding == null ? "Accept-Ranges: bytes\r\n" : "") +
+                        "Content-Length: " + length + "\r\n";
+        byte[] headerBytes = header.getBytes(StandardCharsets.UTF_8);
+
+        ByteArrayOutputStream response = new ByteArrayOutputStream(headerBytes.length + length);
+        response.write(headerBytes);
+        response.write(body, offset, length);
+        return new Entry(response.toByteArray(), headerBytes.length, contentType, contentEncoding, negotiable, info);
+    }
+
+    // What to send a client that accepts the given coding (ContentEncoding.GZIP, DEFLATE or null):
+    // the variant for it, made on first use from a precompressed file.gz sibling or by compressing
+    // the plain body, or the plain entry when there is none worth sending.
+    public Entry variant(Path file, Entry plain, String coding) throws IOException {
+        if (coding == null || !plain.negotiable) return plain;
+        boolean gzip = coding.equals(ContentEncoding.GZIP);
+        Entry existing = gzip ? plain.gzip : plain.deflate;
+        if (existing != null) return existing;
+
+        long loadGeneration;
+        synchronized (this) {
+            loadGeneration = generation;
+        }
+
+        byte[] body;
+        Path sibling = gzip ? gzipSibling(file, plain.info) : null;
+        if (sibling != null && plain.info.gzipSize <= maxFileBytes) {
+            body = Files.readAllBytes(sibling);
+        } else {
+            body = ContentEncoding.compress(plain.response, plain.headerLength, plain.getBodyLength(), coding);
+            compressions.increment();
+        }
+        Entry variant = body.length < plain.getBodyLength()
+            ? newEntry(body, 0, body.length, plain.contentType, coding, true, plain.info)
+            : plain;
+
+        synchronized (this) {
+            existing = gzip ? plain.gzip : plain.deflate;
+            if (existing != null) return existing;
+            // Not kept if the file changed or the plain entry was evicted meanwhile
+            if (loadGeneration != generation || entries.get(file.normalize()) != plain) return variant;
+
+            if (gzip) plain.gzip = variant; else plain.deflate = variant;
+            if (variant != plain) {
+                currentBytes += variant.response.length;
+                evict();
+            }
+        }
+        return variant;
+    }
+
+    private synchronized void put(Path key, Entry entry, long loadGeneration) {
+        if (loadGeneration != generation) return; // the file changed while we were reading it
+
+        infos.remove(key);
+        Entry previous = entries.put(key, entry);
+        if (previous != null) currentBytes -= footprint(previous);
+        currentBytes += footprint(entry);
+        evict();
+    }
+
+    private synchronized void evict() {
+        Iterator<Map.Entry<Path, Entry>> eldest = entries.entrySet().iterator();
+        while (currentBytes > maxBytes && eldest.hasNext()) {
+            Map.Entry<Path, Entry> victim = eldest.next();
+            currentBytes -= footprint(victim.getValue());
+            eldest.remove();
+            evictions.increment();
+        }
+    }
+
+    // Bytes held for an entry, its compressed variants included
+    private static long footprint(Entry entry) {
+        long bytes = entry.response.length;
+        Entry gzip = entry.gzip;
+        Entry deflate = entry.deflate;
+        if (gzip != null && gzip != entry) bytes += gzip.response.length;
+        if (deflate != null && deflate != entry) bytes += deflate.response.length;
+        return bytes;
+    }
+
+    public synchronized void invalidate(Path file) {
+        generation++;
+        infos.remove(file.normalize());
+        Entry removed = entries.remove(file.normalize());
+        if (removed != null) {
+            currentBytes -= footprint(removed);
+            invalidations.increment();
+        }
+
+        // A changed file.gz makes the gzip variant of file stale
+        String name = file.getFileName().toString();
+        if (name.endsWith(".gz") && name.length() > 3) {
+            invalidate(file.resolveSibling(name.substring(0, name.length() - 3)));
+        }
+    }
+
+    public synchronized void invalidateAll() {
+        generation++;
+        invalidations.add(entries.size());
+        entries.clear();
+        infos.clear();
+        currentBytes = 0;
+    }
+
+    private boolean startWatching() {
+        WatchService watcher;
+        try {
+            watcher = FileSystems.getDefault().newWatchService();
+            registerTree(watcher, root);
+        } catch (IOException e) {
+            Logger.log(Logger.Level.WARN, "File watching unavailable, static file cache disabled: " + e.getMessage());
+            return false;
+        }
+
+        Thread t = new Thread(() -> watch(watcher), "file-cache-watcher");
+        t.setDaemon(true);
+        t.start();
+        enabled = true;
+        return true;
+    }
+
+    private void watch(WatchService watcher) {
+        while (true) {
+            WatchKey key;
+            try {
+                key = watcher.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+
+            Path dir = (Path) key.watchable();
+            for (WatchEvent<?> event : key.pollEvents()) {
+                if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                    Logger.log(Logger.Level.WARN, "File watch overflow, clearing static file cache.");
+                    invalidateAll();
+                    continue;
+                }
+
+                Path changed = dir.resolve((Path) event.context());
+                Logger.log(Logger.Level.DEBUG, "File change detected (" + event.kind().name() + "): " + changed);
+
+                if (Files.isDirectory(changed)) {
+                    // New or renamed directories must be watched too; anything below them is stale
+                    try {
+                        registerTree(watcher, changed);
+                    } catch (IOException e) {
+                        Logger.log(Logger.Level.WARN, "Failed to watch new directory " + changed + ": " + e.getMessage());
+                    }
+                    invalidateAll();
+                } else {
+                    invalidate(changed);
+                }
+            }
+
+            if (!key.reset()) {
+                // Directory is gone; drop everything that may have lived under it
+                invalidateAll();
+            }
+        }
+    }
+
+    private static void registerTree(WatchService watcher, Path start) throws IOException {
+        Files.walkFileTree(start, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                dir.register(watcher,
+                             StandardWatchEventKinds.ENTRY_CREATE,
+                             StandardWatchEventKinds.ENTRY_MODIFY,
+                             StandardWatchEventKinds.ENTRY_DELETE);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    // After the self-warmup, whose requests are not to be counted
+    public void resetRequestCounts() {
+        hits.reset();
+        misses.reset();
+    }
+
+    public long getHitCount() { return hits.sum(); }
+
+    public long getMissCount() { return misses.sum(); }
+
+    public long getEvictionCount() { return evictions.sum(); }
+
+    public long getInvalidationCount() { return invalidations.sum(); }
+
+    public long getCompressionCount() { return compressions.sum(); }
+
+    public synchronized long getCurrentBytes() { return currentBytes; }
+
+    public synchronized int getEntryCount() { return entries.size(); }
+
+    public long getMaxBytes() { return maxBytes; }
+
+    public String stats() {
+        return "entries=" + getEntryCount() +
+               " bytes=" + getCurrentBytes() + "/" + maxBytes +
+               " hits=" + getHitCount() +
+               " misses=" + getMissCount() +
+               " evictions=" + getEvictionCount() +
+               " invalidations=" + getInvalidationCount() +
+               " compressions=" + getCompressionCount();
+    }
+}
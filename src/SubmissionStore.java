@@ -0,0 +1,424 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.zip.CRC32;
+
+// Append-only, segmented store for form submissions.
+//
+//   segment_<first id>.log  records: int payloadLength, int crc32(payload), payload
+//                           payload: long id, long timestamp, int fieldCount, then UTF key / UTF value pairs
+//   segment_<first id>.idx  sparse index of 24-byte entries: long id, long timestamp, long offset.
+//                           One entry for the first record of a segment and then one per INDEX_INTERVAL log bytes.
+//
+// Ids and timestamps never decrease, so both can be binary searched in the index. The log is the
+// source of truth: on open, a torn tail record is cut off and missing index entries are rebuilt.
+public class SubmissionStore implements Closeable {
+
+    public static final class Record {
+        public final long id;
+        public final long timestamp;
+        public final Map<String, String> fields;
+
+        Record(long id, long timestamp, Map<String, String> fields) {
+            this.id = id;
+            this.timestamp = timestamp;
+            this.fields = fields;
+        }
+    }
+
+    public interface RecordVisitor {
+        // Return false to stop the scan
+        boolean visit(Record record) throws IOException;
+    }
+
+    static final int INDEX_ENTRY_BYTES = 24;
+    static final int INDEX_INTERVAL = 4096;
+    private static final int RECORD_HEADER_BYTES = 8;
+    private static final int MAX_PAYLOAD_BYTES = 16 * 1024 * 1024;
+    private static final String LOCK_FILE = "store.lock";
+
+    private final File dir;
+    private final long maxSegmentBytes;
+    private final FileChannel lockChannel;
+    private final FileLock lock;
+
+    private FileChannel log;
+    private FileChannel index;
+    private long logSize;
+    private long lastIndexedOffset = -1;
+    private long nextId = 1;
+    private long lastTimestamp = 0;
+
+    private SubmissionStore(File dir, long maxSegmentBytes, FileChannel lockChannel, FileLock lock) {
+        this.dir = dir;
+        this.maxSegmentBytes = maxSegmentBytes;
+        this.lockChannel = lockChannel;
+        this.lock = lock;
+    }
+
+    // Opens the store for appending. Only one writer may hold it: with wait=false an IOException
+    // is thrown if another process has it open, otherwise this blocks until it is released.
+    public static SubmissionStore open(File dir, long maxSegmentBytes, boolean wait) throws IOException {
+        if (!dir.exists() && !dir.mkdirs()) throw new IOException("Cannot create " + dir);
+
+        FileChannel lockChannel = FileChannel.open(new File(dir, LOCK_FILE).toPath(),
+                                                   StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        FileLock lock = wait ? lockChannel.lock() : lockChannel.tryLock();
+        if (lock == null) {
+            lockChannel.close();
+            throw new IOException("Submission store " + dir + " is in use by another process");
+        }
+
+        SubmissionStore store = new SubmissionStore(dir, maxSegmentBytes, lockChannel, lock);
+        try {
+            store.recover();
+        } catch (IOException e) {
+            store.close();
+            throw e;
+        }
+        return store;
+    }
+
+    private void recover() throws IOException {
+        List<Long> segments = listSegments(dir);
+
+        // A crash right after a rollover can leave an empty last segment; drop it
+        while (segments.size() > 1 && logFile(dir, segments.get(segments.size() - 1)).length() == 0) {
+            long empty = segments.remove(segments.size() - 1);
+            Files.deleteIfExists(logFile(dir, empty).toPath());
+            Files.deleteIfExists(indexFile(dir, empty).toPath());
+        }
+
+        if (segments.isEmpty()) {
+            openSegment(1);
+            return;
+        }
+
+        long firstId = segments.get(segments.size() - 1);
+        openSegment(firstId);
+        nextId = firstId;
+
+        // Start from the last index entry that still points at a valid record
+        long indexSize = index.size() - index.size() % INDEX_ENTRY_BYTES;
+        long scanFrom = 0;
+        lastIndexedOffset = -1;
+        while (indexSize > 0) {
+            long[] entry = readIndexEntry(index, indexSize / INDEX_ENTRY_BYTES - 1);
+            if (entry[2] < log.size() && readRecord(log, entry[2]) != null) {
+                scanFrom = entry[2];
+                lastIndexedOffset = entry[2];
+                break;
+            }
+            indexSize -= INDEX_ENTRY_BYTES;
+        }
+        index.truncate(indexSize);
+
+        long position = scanFrom;
+        while (true) {
+            Record record = readRecord(log, position);
+            if (record == null) break;
+
+            long length = RECORD_HEADER_BYTES + payloadLength(log, position);
+            if (position != lastIndexedOffset && needsIndexEntry(position)) {
+                writeIndexEntry(record.id, record.timestamp, position);
+            }
+            nextId = record.id + 1;
+            lastTimestamp = record.timestamp;
+            position += length;
+        }
+
+        if (position < log.size()) {
+            System.err.println("SubmissionStore: truncating " + (log.size() - position) + " byte(s) of torn data in " + logFile(dir, firstId));
+            log.truncate(position);
+        }
+        logSize = position;
+    }
+
+    private void openSegment(long firstId) throws IOException {
+        log = FileChannel.open(logFile(dir, firstId).toPath(),
+                               StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        index = FileChannel.open(indexFile(dir, firstId).toPath(),
+                                 StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        logSize = log.size();
+        lastIndexedOffset = -1;
+    }
+
+    private void rollover() throws IOException {
+        log.force(false);
+        index.force(false);
+        log.close();
+        index.close();
+        openSegment(nextId);
+    }
+
+    // Appends a batch and returns the assigned ids
+    public synchronized long[] append(List<Map<String, String>> batch, IsolatedFormSaver.FsyncPolicy policy) throws IOException {
+        long[] ids = new long[batch.size()];
+        for (int i = 0; i < batch.size(); i++) {
+            ids[i] = append(batch.get(i), System.currentTimeMillis());
+            if (policy == IsolatedFormSaver.FsyncPolicy.ALWAYS) force();
+        }
+        if (policy == IsolatedFormSaver.FsyncPolicy.BATCH) force();
+        return ids;
+    }
+
+    // Timestamps earlier than the last one are raised to it, keeping the log ordered by time
+    public synchronized long append(Map<String, String> fields, long timestamp) throws IOException {
+        if (logSize >= maxSegmentBytes) rollover();
+
+        long id = nextId;
+        timestamp = Math.max(timestamp, lastTimestamp);
+        byte[] payload = encode(id, timestamp, fields);
+
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_BYTES + payload.length);
+        record.putInt(payload.length).putInt((int) crc.getValue()).put(payload).flip();
+
+        long offset = logSize;
+        while (record.hasRemaining()) {
+            logSize += log.write(record, logSize);
+        }
+        if (needsIndexEntry(offset)) {
+            writeIndexEntry(id, timestamp, offset);
+        }
+
+        nextId = id + 1;
+        lastTimestamp = timestamp;
+        return id;
+    }
+
+    public synchronized void force() throws IOException {
+        log.force(false);
+        index.force(false);
+    }
+
+    public synchronized long getLastTimestamp() { return lastTimestamp; }
+
+    public synchronized long getNextId() { return nextId; }
+
+    private boolean needsIndexEntry(long offset) {
+        return lastIndexedOffset < 0 || offset - lastIndexedOffset >= INDEX_INTERVAL;
+    }
+
+    private void writeIndexEntry(long id, long timestamp, long offset) throws IOException {
+        ByteBuffer entry = ByteBuffer.allocate(INDEX_ENTRY_BYTES);
+        entry.putLong(id).putLong(timestamp).putLong(offset).flip();
+        long position = index.size();
+        while (entry.hasRemaining()) {
+            position += index.write(entry, position);
+        }
+        lastIndexedOffset = offset;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            if (log != null) {
+                log.force(false);
+                log.close();
+            }
+            if (index != null) {
+                index.force(false);
+                index.close();
+            }
+        } finally {
+            if (lock != null && lock.isValid()) lock.release();
+            lockChannel.close();
+        }
+    }
+
+    // ---- Reading (no lock needed: only whole, checksummed records are returned) ----
+
+    // Visits records with from <= timestamp <= to, oldest first
+    public static void scanByTime(File dir, long from, long to, RecordVisitor visitor) throws IOException {
+        List<Long> segments = listSegments(dir);
+
+        for (int i = 0; i < segments.size(); i++) {
+            // Every record in this segment is no newer than the first record of the next one
+            if (i + 1 < segments.size()) {
+                long[] nextFirst = firstIndexEntry(dir, segments.get(i + 1));
+                if (nextFirst != null && nextFirst[1] < from) continue;
+            }
+
+            long start = seekIndex(dir, segments.get(i), 1, from);
+            boolean more = scanSegment(dir, segments.get(i), start, record -> {
+                if (record.timestamp > to) return false;
+                return record.timestamp < from || visitor.visit(record);
+            });
+            if (!more) return;
+        }
+    }
+
+    public static Record findById(File dir, long id) throws IOException {
+        List<Long> segments = listSegments(dir);
+        Long segment = null;
+        for (long firstId : segments) {
+            if (firstId <= id) segment = firstId;
+        }
+        if (segment == null) return null;
+
+        Record[] found = new Record[1];
+        scanSegment(dir, segment, seekIndex(dir, segment, 0, id), record -> {
+            if (record.id == id) found[0] = record;
+            return record.id < id;
+        });
+        return found[0];
+    }
+
+    // Offset of the last index entry whose key (0 = id, 1 = timestamp) is below target
+    private static long seekIndex(File dir, long segment, int key, long target) throws IOException {
+        File file = indexFile(dir, segment);
+        if (!file.exists()) return 0;
+
+        try (FileChannel index = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long low = 0;
+            long high = index.size() / INDEX_ENTRY_BYTES - 1;
+            long offset = 0;
+            while (low <= high) {
+                long mid = (low + high) >>> 1;
+                long[] entry = readIndexEntry(index, mid);
+                if (entry[key] < target) {
+                    offset = entry[2];
+                    low = mid + 1;
+                } else {
+                    high = mid - 1;
+                }
+            }
+            return offset;
+        }
+    }
+
+    private static long[] firstIndexEntry(File dir, long segment) throws IOException {
+        File file = indexFile(dir, segment);
+        if (!file.exists() || file.length() < INDEX_ENTRY_BYTES) return null;
+        try (FileChannel index = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            return readIndexEntry(index, 0);
+        }
+    }
+
+    // Returns false if the visitor stopped the scan
+    private static boolean scanSegment(File dir, long segment, long offset, RecordVisitor visitor) throws IOException {
+        try (FileChannel log = FileChannel.open(logFile(dir, segment).toPath(), StandardOpenOption.READ)) {
+            log.position(offset);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(log), 64 * 1024));
+
+            while (true) {
+                int length;
+                int checksum;
+                byte[] payload;
+                try {
+                    length = in.readInt();
+                    if (length < 0 || length > MAX_PAYLOAD_BYTES) return true;
+                    checksum = in.readInt();
+                    payload = new byte[length];
+                    in.readFully(payload);
+                } catch (EOFException e) {
+                    return true;
+                }
+
+                Record record = decode(payload, checksum);
+                if (record == null) return true; // torn write at the tail
+                if (!visitor.visit(record)) return false;
+            }
+        }
+    }
+
+    public static List<Long> listSegments(File dir) {
+        List<Long> segments = new ArrayList<>();
+        File[] files = dir.listFiles((d, name) -> name.startsWith("segment_") && name.endsWith(".log"));
+        if (files == null) return segments;
+
+        for (File file : files) {
+            String name = file.getName();
+            try {
+                segments.add(Long.parseLong(name.substring(8, name.length() - 4)));
+            } catch (NumberFormatException ignored) {
+            }
+        }
+        Collections.sort(segments);
+        return segments;
+    }
+
+    static File logFile(File dir, long firstId) {
+        return new File(dir, String.format("segment_%020d.log", firstId));
+    }
+
+    static File indexFile(File dir, long firstId) {
+        return new File(dir, String.format("segment_%020d.idx", firstId));
+    }
+
+    private static long[] readIndexEntry(FileChannel index, long entryNumber) throws IOException {
+        ByteBuffer entry = ByteBuffer.allocate(INDEX_ENTRY_BYTES);
+        long position = entryNumber * INDEX_ENTRY_BYTES;
+        while (entry.hasRemaining()) {
+            if (index.read(entry, position + entry.position()) < 0) throw new EOFException("Truncated index entry");
+        }
+        entry.flip();
+        return new long[] { entry.getLong(), entry.getLong(), entry.getLong() };
+    }
+
+    private static int payloadLength(FileChannel log, long position) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(4);
+        log.read(header, position);
+        return header.getInt(0);
+    }
+
+    // Returns null unless a whole record with a valid checksum starts at position
+    private static Record readRecord(FileChannel log, long position) throws IOException {
+        if (position + RECORD_HEADER_BYTES > log.size()) return null;
+
+        ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_BYTES);
+        while (header.hasRemaining()) {
+            if (log.read(header, position + header.position()) < 0) return null;
+        }
+        int length = header.getInt(0);
+        int checksum = header.getInt(4);
+        if (length < 0 || length > MAX_PAYLOAD_BYTES || position + RECORD_HEADER_BYTES + length > log.size()) return null;
+
+        ByteBuffer payload = ByteBuffer.allocate(length);
+        while (payload.hasRemaining()) {
+            if (log.read(payload, position + RECORD_HEADER_BYTES + payload.position()) < 0) return null;
+        }
+        return decode(payload.array(), checksum);
+    }
+
+    private static byte[] encode(long id, long timestamp, Map<String, String> fields) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + fields.size() * 32);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeLong(id);
+        out.writeLong(timestamp);
+        out.writeInt(fields.size());
+        for (Map.Entry<String, String> entry : fields.entrySet()) {
+            out.writeUTF(entry.getKey());
+            out.writeUTF(entry.getValue());
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static Record decode(byte[] payload, int checksum) {
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        if ((int) crc.getValue() != checksum) return null;
+
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+            long id = in.readLong();
+            long timestamp = in.readLong();
+            int count = in.readInt();
+            Map<String, String> fields = new LinkedHashMap<>();
+            for (int i = 0; i < count; i++) {
+                fields.put(in.readUTF(), in.readUTF());
+            }
+            return new Record(id, timestamp, fields);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+}
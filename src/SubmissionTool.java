@@ -0,0 +1,193 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// Command line access to the submission store:
+//   java -cp out SubmissionTool export [--from=TIME] [--to=TIME] [--dir=submissions]
+//   java -cp out SubmissionTool get <id> [--dir=submissions]
+//   java -cp out SubmissionTool migrate [--delete] [--force] [--segment-megabytes=N] [--dir=submissions]
+//   java -cp out SubmissionTool stats [--dir=submissions]
+// TIME is epoch millis, an ISO date-time (2025-04-20T10:15:30) or a date (2025-04-20), in local time.
+// The segment size defaults to saver.segmentMegabytes, as the server's saver would use.
+public class SubmissionTool {
+
+    private static final Pattern LEGACY_FILE = Pattern.compile("submission_(\\d+)(?:_\\d+)?\\.txt");
+
+    public static void main(String[] args) {
+        if (args.length == 0) {
+            usage();
+            return;
+        }
+
+        Map<String, String> options = new HashMap<>();
+        List<String> positional = new ArrayList<>();
+        for (int i = 1; i < args.length; i++) {
+            String arg = args[i];
+            if (arg.startsWith("--")) {
+                String[] parts = arg.substring(2).split("=", 2);
+                options.put(parts[0], parts.length == 2 ? parts[1] : "true");
+            } else {
+                positional.add(arg);
+            }
+        }
+        File dir = new File(options.getOrDefault("dir", "submissions"));
+
+        try {
+            switch (args[0]) {
+                case "export" -> export(dir, parseTime(options.get("from"), false), parseTime(options.get("to"), true));
+                case "get" -> {
+                    if (positional.isEmpty()) {
+                        usage();
+                        return;
+                    }
+                    get(dir, Long.parseLong(positional.get(0)));
+                }
+                case "migrate" -> {
+                    String megabytes = options.getOrDefault("segment-megabytes", ServerConfig.get("saver.segmentMegabytes", "64"));
+                    long segmentBytes = Math.max(1, Integer.parseInt(megabytes.trim())) * 1024L * 1024;
+                    migrate(dir, segmentBytes, options.containsKey("delete"), options.containsKey("force"));
+                }
+                case "stats" -> stats(dir);
+                default -> usage();
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            System.err.println("SubmissionTool error: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    private static void usage() {
+        System.err.println("Usage: SubmissionTool export [--from=TIME] [--to=TIME] | get <id> | migrate [--delete] [--force] [--segment-megabytes=N] | stats  [--dir=DIR]");
+    }
+
+    private static void export(File dir, long from, long to) throws IOException {
+        PrintStream out = new PrintStream(new BufferedOutputStream(System.out, 64 * 1024), false, StandardCharsets.UTF_8);
+        SubmissionStore.scanByTime(dir, from, to, record -> {
+            print(out, record);
+            return true;
+        });
+        out.flush();
+    }
+
+    private static void get(File dir, long id) throws IOException {
+        SubmissionStore.Record record = SubmissionStore.findById(dir, id);
+        if (record == null) {
+            System.err.println("No submission with id " + id);
+            System.exit(1);
+        }
+        PrintStream out = new PrintStream(System.out, false, StandardCharsets.UTF_8);
+        print(out, record);
+        out.flush();
+    }
+
+    // Same "key: value" layout the old one-file-per-submission saver wrote
+    private static void print(PrintStream out, SubmissionStore.Record record) {
+        out.println("# id=" + record.id + " time=" + LocalDateTime.ofInstant(Instant.ofEpochMilli(record.timestamp), ZoneId.systemDefault()));
+        for (Map.Entry<String, String> entry : record.fields.entrySet()) {
+            out.println(entry.getKey() + ": " + entry.getValue());
+        }
+        out.println();
+    }
+
+    // Imports legacy submission_<millis>.txt files in timestamp order, then moves them to
+    // migrated/ (or deletes them). Fails if a running server holds the store.
+    private static void migrate(File dir, long segmentBytes, boolean delete, boolean force) throws IOException {
+        File[] files = dir.listFiles((d, name) -> LEGACY_FILE.matcher(name).matches());
+        if (files == null || files.length == 0) {
+            System.out.println("No legacy submission files in " + dir);
+            return;
+        }
+        Arrays.sort(files, Comparator.comparingLong(SubmissionTool::legacyTimestamp).thenComparing(File::getName));
+
+        File migratedDir = new File(dir, "migrated");
+        if (!delete && !migratedDir.exists() && !migratedDir.mkdirs()) throw new IOException("Cannot create " + migratedDir);
+
+        try (SubmissionStore store = SubmissionStore.open(dir, segmentBytes, false)) {
+            // The store keeps records in time order: with --force, files older than its newest record
+            // are stored with that record's timestamp
+            long oldest = legacyTimestamp(files[0]);
+            if (store.getLastTimestamp() > oldest && !force) {
+                throw new IOException("Store already holds submissions newer than " + files[0].getName() + "; rerun with --force to import them anyway");
+            }
+
+            int count = 0;
+            for (File file : files) {
+                long id = store.append(readLegacy(file), legacyTimestamp(file));
+                store.force();
+
+                if (delete) {
+                    Files.delete(file.toPath());
+                } else {
+                    Files.move(file.toPath(), new File(migratedDir, file.getName()).toPath(), StandardCopyOption.REPLACE_EXISTING);
+                }
+                System.out.println(file.getName() + " -> id " + id);
+                count++;
+            }
+            System.out.println("Migrated " + count + " submission(s)");
+        }
+    }
+
+    private static Map<String, String> readLegacy(File file) throws IOException {
+        Map<String, String> fields = new LinkedHashMap<>();
+        for (String line : Files.readAllLines(file.toPath(), StandardCharsets.UTF_8)) {
+            int separator = line.indexOf(": ");
+            if (separator > 0) {
+                fields.put(line.substring(0, separator), line.substring(separator + 2));
+            }
+        }
+        return fields;
+    }
+
+    private static long legacyTimestamp(File file) {
+        Matcher matcher = LEGACY_FILE.matcher(file.getName());
+        return matcher.matches() ? Long.parseLong(matcher.group(1)) : file.lastModified();
+    }
+
+    private static void stats(File dir) throws IOException {
+        List<Long> segments = SubmissionStore.listSegments(dir);
+        long[] totals = new long[3]; // records, first timestamp, last timestamp
+        SubmissionStore.scanByTime(dir, Long.MIN_VALUE, Long.MAX_VALUE, record -> {
+            if (totals[0]++ == 0) totals[1] = record.timestamp;
+            totals[2] = record.timestamp;
+            return true;
+        });
+
+        long bytes = 0;
+        for (long segment : segments) {
+            bytes += SubmissionStore.logFile(dir, segment).length() + SubmissionStore.indexFile(dir, segment).length();
+        }
+
+        System.out.println("segments: " + segments.size());
+        System.out.println("records:  " + totals[0]);
+        System.out.println("bytes:    " + bytes);
+        if (totals[0] > 0) {
+            System.out.println("oldest:   " + LocalDateTime.ofInstant(Instant.ofEpochMilli(totals[1]), ZoneId.systemDefault()));
+            System.out.println("newest:   " + LocalDateTime.ofInstant(Instant.ofEpochMilli(totals[2]), ZoneId.systemDefault()));
+        }
+    }
+
+    private static long parseTime(String value, boolean endOfRange) {
+        if (value == null) return endOfRange ? Long.MAX_VALUE : Long.MIN_VALUE;
+        try {
+            if (value.chars().allMatch(Character::isDigit)) return Long.parseLong(value);
+            if (value.length() == 10) {
+                LocalDate date = LocalDate.parse(value);
+                // A bare date as upper bound includes the whole day
+                LocalDateTime time = endOfRange ? date.plusDays(1).atStartOfDay().minusNanos(1_000_000) : date.atStartOfDay();
+                return time.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+            }
+            return LocalDateTime.parse(value).atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        } catch (DateTimeParseException | NumberFormatException e) {
+            throw new IllegalArgumentException("Cannot parse time '" + value + "'");
+        }
+    }
+}
@@ -0,0 +1,350 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Long-lived submission saver. POST handlers enqueue submissions and wait; a single committer
+// thread takes everything queued so far as one batch (group commit) and hands it either to a
+// persistent IsolatedFormSaver worker process over a pipe or, in-process, to
+// IsolatedFormSaver.writeBatch directly.
+public class SubmissionWriter {
+
+    public enum Mode {
+        PROCESS,    // one persistent IsolatedFormSaver worker process (isolation without a JVM per POST)
+        INPROCESS,  // committer thread appends to the submission store itself
+        SPAWN       // legacy: a new JVM per submission, handled by FormHandler
+    }
+
+    private static final class Pending {
+        private static final int QUEUED = 0;
+        private static final int CLAIMED = 1;     // taken into a batch by the committer
+        private static final int CANCELLED = 2;   // given up on by the caller; never written
+
+        final Map<String, String> data;   // null for the shutdown marker
+        final CompletableFuture<Boolean> saved = new CompletableFuture<>();
+        final AtomicInteger state = new AtomicInteger(QUEUED);
+
+        Pending(Map<String, String> data) {
+            this.data = data;
+        }
+
+        boolean claim() {
+            return state.compareAndSet(QUEUED, CLAIMED);
+        }
+
+        boolean cancel() {
+            return state.compareAndSet(QUEUED, CANCELLED);
+        }
+    }
+
+    private static volatile SubmissionWriter instance;
+
+    private final Mode mode;
+    private final IsolatedFormSaver.FsyncPolicy fsync;
+    private final int maxBatch;
+    private final long timeoutMillis;
+    private final long segmentBytes;
+    private final String dir;
+    private final BlockingQueue<Pending> queue;
+    private volatile boolean closed = false;
+
+    // Kills a worker that has not acknowledged a batch within timeoutMillis (stuck in fsync, or
+    // waiting for the store's lock), which ends the committer's blocked read or write
+    private final ScheduledExecutorService watchdog = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "submission-watchdog");
+        t.setDaemon(true);
+        return t;
+    });
+
+    // Worker process state, only touched by the committer thread
+    private Process process;
+    private DataOutputStream toSaver;
+    private DataInputStream fromSaver;
+
+    private SubmissionWriter(Mode mode, IsolatedFormSaver.FsyncPolicy fsync, int maxBatch, int queueCapacity, long timeoutMillis) {
+        this.mode = mode;
+        this.fsync = fsync;
+        this.maxBatch = maxBatch;
+        this.timeoutMillis = timeoutMillis;
+        this.segmentBytes = Math.max(1, ServerConfig.getInt("saver.segmentMegabytes", 64)) * 1024L * 1024;
+        this.dir = ServerConfig.get("saver.dir", "submissions");
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+
+        if (mode == Mode.INPROCESS) {
+            IsolatedFormSaver.setSegmentBytes(segmentBytes);
+            IsolatedFormSaver.setDir(new File(dir));
+        }
+
+        if (mode != Mode.SPAWN) {
+            Thread t = new Thread(this::commitLoop, "submission-writer");
+            t.setDaemon(true);
+            t.start();
+        }
+    }
+
+    public static SubmissionWriter getInstance() {
+        if (instance == null) {
+            synchronized (SubmissionWriter.class) {
+                if (instance == null) instance = fromConfig();
+            }
+        }
+        return instance;
+    }
+
+    private static SubmissionWriter fromConfig() {
+        String modeName = ServerConfig.get("saver.mode", "process");
+        Mode mode;
+        try {
+            mode = Mode.valueOf(modeName.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            Logger.log(Logger.Level.WARN, "Unknown saver.mode '" + modeName + "', using process.");
+            mode = Mode.PROCESS;
+        }
+
+        IsolatedFormSaver.FsyncPolicy fsync = IsolatedFormSaver.parsePolicy(ServerConfig.get("saver.fsync", "batch"));
+        int maxBatch = Math.max(1, ServerConfig.getInt("saver.maxBatch", 64));
+        int queueCapacity = Math.max(1, ServerConfig.getInt("saver.queueCapacity", 1024));
+        long timeoutMillis = Math.max(1, ServerConfig.getInt("saver.timeoutMillis", 5000));
+
+        Logger.log(Logger.Level.INFO, "Submission saver: " + mode + " (fsync " + fsync + ", batch up to " + maxBatch + ")");
+        return new SubmissionWriter(mode, fsync, maxBatch, queueCapacity, timeoutMillis);
+    }
+
+    public Mode getMode() { return mode; }
+
+    // Where submissions are stored (saver.dir)
+    public String getDir() { return dir; }
+
+    public IsolatedFormSaver.FsyncPolicy getFsync() { return fsync; }
+
+    public long getSegmentBytes() { return segmentBytes; }
+
+    // Blocks until the submission is committed. Returns false if it could not be saved in time.
+    public boolean save(Map<String, String> data) {
+        if (closed) {
+            Logger.log(Logger.Level.ERROR, "Submission writer shut down, submission not saved.");
+            return false;
+        }
+        Pending pending = new Pending(data);
+        try {
+            if (!queue.offer(pending, timeoutMillis, TimeUnit.MILLISECONDS)) {
+                Logger.log(Logger.Level.ERROR, "Submission queue full, submission not saved.");
+                return false;
+            }
+            try {
+                return pending.saved.get(timeoutMillis, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                if (pending.cancel()) {
+                    Logger.log(Logger.Level.ERROR, "Submission not saved within " + timeoutMillis + " ms, withdrawn.");
+                    return false;
+                }
+                // Already being written, and its batch has a deadline of its own: the outcome is waited
+                // for, since answering now could have the client retry a submission that is then stored
+                return pending.saved.get();
+            }
+        } catch (InterruptedException e) {
+            // Withdrawn if it can be; otherwise it may still be stored
+            pending.cancel();
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (ExecutionException e) {
+            Logger.log(Logger.Level.ERROR, "Submission not saved: " + e);
+            return false;
+        }
+    }
+
+    public int getQueueDepth() { return queue.size(); }
+
+    // Called at shutdown, if the writer was ever used
+    public static void shutdownInstance(long timeoutMillis) {
+        SubmissionWriter writer = instance;
+        if (writer != null) writer.shutdown(timeoutMillis);
+    }
+
+    // Refuses new submissions, waits up to timeoutMillis for the queued ones to be committed, then
+    // stops the worker process (or closes the store, in-process)
+    private void shutdown(long timeoutMillis) {
+        closed = true;
+        if (mode == Mode.SPAWN) return;
+
+        Pending marker = new Pending(null);
+        try {
+            if (queue.offer(marker, timeoutMillis, TimeUnit.MILLISECONDS)) {
+                marker.saved.get(timeoutMillis, TimeUnit.MILLISECONDS);
+                return;
+            }
+            Logger.log(Logger.Level.WARN, "Submission queue still full at shutdown, " + queue.size() + " submission(s) not saved");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException | TimeoutException e) {
+            Logger.log(Logger.Level.WARN, "Submissions not all committed at shutdown: " + e);
+        }
+    }
+
+    private void commitLoop() {
+        if (mode == Mode.PROCESS) {
+            // Started now rather than by the first submission, which would wait for the JVM to boot
+            try {
+                ensureProcess();
+            } catch (IOException e) {
+                Logger.log(Logger.Level.WARN, "Could not start IsolatedFormSaver worker yet: " + e.getMessage());
+            }
+        }
+        List<Pending> batch = new ArrayList<>(maxBatch);
+        while (true) {
+            try {
+                batch.add(queue.take());
+            } catch (InterruptedException e) {
+                return;
+            }
+            queue.drainTo(batch, maxBatch - 1);
+
+            // Submissions whose callers gave up are dropped, so a retried one is not stored twice
+            Pending marker = null;
+            for (int i = 0; i < batch.size(); i++) {
+                Pending pending = batch.get(i);
+                if (pending.data == null) {
+                    marker = batch.remove(i--);
+                } else if (!pending.claim()) {
+                    batch.remove(i--).saved.complete(false);
+                }
+            }
+
+            boolean saved = batch.isEmpty() || commit(batch);
+            for (Pending pending : batch) {
+                pending.saved.complete(saved);
+            }
+            batch.clear();
+
+            if (marker != null) {
+                // Anything that raced past the closed check is failed rather than left waiting
+                Pending late;
+                while ((late = queue.poll()) != null) late.saved.complete(false);
+                if (mode == Mode.INPROCESS) {
+                    IsolatedFormSaver.closeStore();
+                } else {
+                    stopProcess();
+                }
+                Logger.log(Logger.Level.INFO, "Submission writer stopped");
+                marker.saved.complete(true);
+                return;
+            }
+        }
+    }
+
+    private boolean commit(List<Pending> batch) {
+        List<Map<String, String>> submissions = new ArrayList<>(batch.size());
+        for (Pending pending : batch) submissions.add(pending.data);
+
+        if (mode == Mode.INPROCESS) {
+            try {
+                IsolatedFormSaver.writeBatch(submissions, fsync);
+                return true;
+            } catch (IOException e) {
+                Logger.log(Logger.Level.ERROR, "Failed to write submissions: " + e.getMessage());
+                return false;
+            }
+        }
+
+        ScheduledFuture<?> deadline = null;
+        try {
+            ensureProcess();
+
+            Process worker = process;
+            deadline = watchdog.schedule(() -> {
+                Logger.log(Logger.Level.ERROR, "IsolatedFormSaver worker (pid " + worker.pid() + ") did not acknowledge a batch within " + timeoutMillis + " ms, killing it");
+                worker.destroyForcibly();
+            }, timeoutMillis, TimeUnit.MILLISECONDS);
+
+            toSaver.writeInt(submissions.size());
+            for (Map<String, String> data : submissions) {
+                IsolatedFormSaver.writeSubmission(toSaver, data);
+            }
+            toSaver.flush();
+
+            int acknowledged = fromSaver.readInt();
+            boolean saved = fromSaver.readBoolean();
+            deadline.cancel(false);
+            if (acknowledged != submissions.size()) {
+                throw new IOException("IsolatedFormSaver acknowledged " + acknowledged + " of " + submissions.size() + " submissions");
+            }
+            if (!saved) {
+                Logger.log(Logger.Level.ERROR, "IsolatedFormSaver failed to write a batch of " + acknowledged);
+            }
+            return saved;
+
+        } catch (IOException e) {
+            // The worker died, was killed by the watchdog, or the pipe broke; the next batch starts a fresh one
+            if (deadline != null) deadline.cancel(false);
+            Logger.log(Logger.Level.ERROR, "IsolatedFormSaver worker failed: " + e.getMessage());
+            stopProcess();
+            return false;
+        }
+    }
+
+    private void ensureProcess() throws IOException {
+        if (process != null && process.isAlive()) return;
+        stopProcess();
+
+        ProcessBuilder pb = new ProcessBuilder(saverCommand("--daemon", "--fsync=" + fsync.name().toLowerCase(),
+                                                            "--segment-bytes=" + segmentBytes, "--dir=" + dir));
+        pb.redirectError(ProcessBuilder.Redirect.INHERIT);
+        process = pb.start();
+        toSaver = new DataOutputStream(new BufferedOutputStream(process.getOutputStream()));
+        fromSaver = new DataInputStream(new BufferedInputStream(process.getInputStream()));
+
+        Logger.log(Logger.Level.INFO, "Started IsolatedFormSaver worker (pid " + process.pid() + ")");
+    }
+
+    // The command line of an IsolatedFormSaver JVM, started from the class data archive built by
+    // cds.sh if there is one (saver.classArchive). JVM messages go to stderr: stdout is the pipe protocol.
+    static List<String> saverCommand(String... args) {
+        List<String> command = new ArrayList<>();
+        command.add(Path.of(System.getProperty("java.home"), "bin", "java").toString());
+        String archive = ServerConfig.get("saver.classArchive", "cds/saver.jsa");
+        if (!archive.isEmpty() && Files.isRegularFile(Path.of(archive))) {
+            command.add("-XX:SharedArchiveFile=" + archive);
+            command.add("-Xlog:disable");
+            command.add("-Xlog:all=warning:stderr");
+        }
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add("IsolatedFormSaver");
+        command.addAll(List.of(args));
+        return command;
+    }
+
+    private void stopProcess() {
+        if (process == null) return;
+        try {
+            toSaver.close(); // EOF makes the worker exit
+        } catch (IOException ignored) {
+        }
+        try {
+            if (!process.waitFor(1, TimeUnit.SECONDS)) process.destroyForcibly();
+        } catch (InterruptedException e) {
+            process.destroyForcibly();
+            Thread.currentThread().interrupt();
+        }
+        process = null;
+        toSaver = null;
+        fromSaver = null;
+    }
+}
@@ -0,0 +1,250 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Stream;
+
+// Startup work done before the listeners open, so the first clients after a deploy are not the
+// ones paying for it:
+//   - each document root is walked and its files loaded into the static file cache, smallest
+//     first, as far as the cache budget goes (warmup.preload)
+//   - the submission saver is started, so the first POST does not wait for a JVM to boot
+//   - a self-warmup replays a mix of requests (files plain, compressed and revalidated, a 404, the
+//     metrics, a rejected form) through the parser and the handlers in memory, in rounds, until a
+//     round stops getting faster or warmup.maxMillis runs out; nothing is sent, logged or counted
+// Startup times are measured from JVM start and logged and served with the metrics: steady (the
+// self-warmup converged), ready (listening) and the first response to a client.
+final class Warmup {
+
+    private static final boolean PRELOAD = ServerConfig.get("warmup.preload", "true").equalsIgnoreCase("true");
+    private static final long MAX_MILLIS = ServerConfig.getInt("warmup.maxMillis", 3000);
+    private static final boolean EXIT_AFTER = ServerConfig.get("warmup.exitAfter", "false").equalsIgnoreCase("true");
+
+    private static final int MAX_FILES = 32;              // files per root in the request mix
+    private static final int MIN_REQUESTS_PER_ROUND = 200;
+    private static final int MIN_ROUNDS = 5;
+    private static final int STABLE_ROUNDS = 5;           // rounds in a row no faster than the best
+    private static final double IMPROVEMENT = 0.05;       // what counts as faster
+    private static final InetAddress CLIENT = InetAddress.getLoopbackAddress();
+
+    // Milliseconds from JVM start, -1 until reached
+    private static volatile long steadyMillis = -1;
+    private static volatile long readyMillis = -1;
+    private static volatile long firstResponseMillis = -1;
+
+    private Warmup() {}
+
+    // Whether the server should stop once warmed up, as when training a class data archive (cds.sh)
+    static boolean exitAfter() {
+        return EXIT_AFTER;
+    }
+
+    static void run(List<Site> sites) {
+        long start = System.nanoTime();
+        List<List<String>> files = new ArrayList<>();
+        Set<StaticFileCache> preloaded = new HashSet<>();
+        for (Site site : sites) {
+            files.add(preload(site, preloaded.add(site.getCache())));
+        }
+        long preloadMillis = (System.nanoTime() - start) / 1_000_000;
+
+        if (MAX_MILLIS > 0) {
+            selfWarmup(sites, files);
+        }
+        // Its worker boots while the listeners open, and logs, which the self-warmup would have muted
+        if (!EXIT_AFTER) SubmissionWriter.getInstance();
+        steadyMillis = uptimeMillis();
+        Logger.log(Logger.Level.INFO, "Warm " + steadyMillis + " ms after JVM start (preload " + preloadMillis + " ms)");
+    }
+
+    // The listeners are open
+    static void ready() {
+        readyMillis = uptimeMillis();
+        Logger.log(Logger.Level.INFO, "Ready " + readyMillis + " ms after JVM start");
+    }
+
+    // Called after each dispatched request; only the first does anything
+    static void responded() {
+        if (firstResponseMillis >= 0) return;
+        synchronized (Warmup.class) {
+            if (firstResponseMillis >= 0) return;
+            firstResponseMillis = uptimeMillis();
+        }
+        Logger.log(Logger.Level.INFO, "First response " + firstResponseMillis + " ms after JVM start");
+    }
+
+    static long getSteadyMillis() { return steadyMillis; }
+
+    static long getReadyMillis() { return readyMillis; }
+
+    static long getFirstResponseMillis() { return firstResponseMillis; }
+
+    private static long uptimeMillis() {
+        return ManagementFactory.getRuntimeMXBean().getUptime();
+    }
+
+    // Loads the root's files into its cache (unless another listener's root already did) and
+    // returns the URL paths of the smallest few, for the request mix
+    private static List<String> preload(Site site, boolean load) {
+        Path root = Path.of(site.getRoot());
+        List<Path> paths;
+        try (Stream<Path> walk = Files.walk(root)) {
+            paths = walk.filter(Files::isRegularFile)
+                        .filter(p -> !p.getFileName().toString().startsWith(".") && !p.getFileName().toString().endsWith(".gz"))
+                        .sorted(Comparator.comparingLong(Warmup::sizeOf))
+                        .toList();
+        } catch (IOException | RuntimeException e) {
+            Logger.log(Logger.Level.WARN, "Could not walk '" + site.getRoot() + "' for the warmup: " + e.getMessage());
+            return List.of();
+        }
+
+        StaticFileCache cache = site.getCache();
+        if (load && PRELOAD && cache.isEnabled()) {
+            long bytes = 0;
+            int loaded = 0;
+            for (Path path : paths) {
+                StaticFileCache.FileInfo info = cache.info(path);
+                if (info == null) continue;
+                if (!RequestHandler.isCacheable(info.getSize())) break;   // streamed, never cached, as are the rest
+                if (bytes + info.getSize() > cache.getMaxBytes()) break;
+                try {
+                    if (cache.load(path, info, RequestHandler.getContentType(path.toString())) == null) break;   // too large, as are the rest
+                } catch (IOException e) {
+                    Logger.log(Logger.Level.WARN, "Could not preload " + path + ": " + e.getMessage());
+                    continue;
+                }
+                bytes += info.getSize();
+                loaded++;
+            }
+            Logger.log(Logger.Level.INFO, "Preloaded " + loaded + " of " + paths.size() + " file(s) from '" + site.getRoot() + "' (" + bytes + " bytes)");
+        }
+
+        List<String> urls = new ArrayList<>();
+        for (Path path : paths) {
+            if (urls.size() == MAX_FILES) break;
+            String url = "/" + root.relativize(path).toString().replace('\\', '/');
+            if (isPlainUrl(url)) urls.add(url);
+        }
+        return urls;
+    }
+
+    private static long sizeOf(Path path) {
+        try {
+            return Files.size(path);
+        } catch (IOException e) {
+            return Long.MAX_VALUE;
+        }
+    }
+
+    // Goes into a request line as it is, without escaping
+    private static boolean isPlainUrl(String url) {
+        for (int i = 0; i < url.length(); i++) {
+            char c = url.charAt(i);
+            if (c <= ' ' || c >= 0x7f || c == '%' || c == '?' || c == '#') return false;
+        }
+        return true;
+    }
+
+    private static void selfWarmup(List<Site> sites, List<List<String>> files) {
+        List<Site> targets = new ArrayList<>();
+        List<byte[]> requests = new ArrayList<>();
+        for (int i = 0; i < sites.size(); i++) {
+            for (byte[] request : requestMix(sites.get(i), files.get(i))) {
+                targets.add(sites.get(i));
+                requests.add(request);
+            }
+        }
+        int repeat = Math.max(1, (MIN_REQUESTS_PER_ROUND + requests.size() - 1) / requests.size());
+
+        // Handlers log every request; the warmup's are not worth the log lines
+        Logger.Level level = Logger.getLevel();
+        Logger.setLevel(Logger.Level.ERROR);
+        long start = System.nanoTime();
+        long deadline = start + MAX_MILLIS * 1_000_000;
+        long best = Long.MAX_VALUE;
+        int rounds = 0;
+        int stable = 0;
+        ByteArrayOutputStream out = new ByteArrayOutputStream(64 * 1024);
+        try {
+            while (System.nanoTime() < deadline && (rounds < MIN_ROUNDS || stable < STABLE_ROUNDS)) {
+                long roundStart = System.nanoTime();
+                for (int r = 0; r < repeat; r++) {
+                    for (int i = 0; i < requests.size(); i++) {
+                        replay(targets.get(i), requests.get(i), out);
+                    }
+                }
+                long took = System.nanoTime() - roundStart;
+                if (took < best * (1 - IMPROVEMENT)) {
+                    stable = 0;
+                } else {
+                    stable++;
+                }
+                best = Math.min(best, took);
+                rounds++;
+            }
+        } catch (IOException e) {
+            Logger.log(Logger.Level.WARN, "Self-warmup stopped: " + e.getMessage());
+        } finally {
+            if (Logger.getLevel() == Logger.Level.ERROR) Logger.setLevel(level);   // unless a reload changed it
+        }
+        for (Site site : sites) {
+            site.getCache().resetRequestCounts();
+        }
+
+        long millis = (System.nanoTime() - start) / 1_000_000;
+        boolean converged = stable >= STABLE_ROUNDS;
+        Logger.log(Logger.Level.INFO, "Self-warmup: " + rounds + " round(s) of " + requests.size() * repeat + " requests in " + millis + " ms, "
+                + (converged ? "steady at " : "still improving at ") + (best / 1000 / (requests.size() * repeat)) + " us per request");
+    }
+
+    private static List<byte[]> requestMix(Site site, List<String> urls) {
+        List<String> requests = new ArrayList<>();
+        String headers = "Host: localhost\r\nUser-Agent: warmup\r\nAccept: */*\r\n";
+        requests.add("GET / HTTP/1.1\r\n" + headers + "\r\n");
+        for (String url : urls) {
+            requests.add("GET " + url + " HTTP/1.1\r\n" + headers + "\r\n");
+            requests.add("GET " + url + " HTTP/1.1\r\n" + headers + "Accept-Encoding: gzip, deflate, br\r\n\r\n");
+            StaticFileCache.FileInfo info = site.getCache().info(Path.of(site.getRoot(), url));
+            if (info != null) {
+                requests.add("GET " + url + " HTTP/1.1\r\n" + headers + "If-None-Match: " + info.getEtag() + "\r\n\r\n");
+            }
+        }
+        if (!urls.isEmpty()) {
+            requests.add("GET " + urls.get(0) + " HTTP/1.1\r\n" + headers + "Range: bytes=0-0\r\n\r\n");
+        }
+        requests.add("GET /warmup-not-found.html HTTP/1.1\r\n" + headers + "\r\n");
+        if (!Metrics.getPath().isEmpty()) {
+            requests.add("GET " + Metrics.getPath() + " HTTP/1.1\r\n" + headers + "\r\n");
+        }
+        // Decoded and validated, then refused for its last field, so nothing is saved
+        String formPath = ServerConfig.get("form.path", "");
+        String form = "name=warmup&city=paris&email=warmup%40example.com&note=" + "x".repeat(120);
+        requests.add("POST " + (formPath.isEmpty() ? "/" : formPath) + " HTTP/1.1\r\n" + headers +
+                     "Content-Type: application/x-www-form-urlencoded\r\nContent-Length: " + form.length() + "\r\n\r\n" + form);
+
+        List<byte[]> bytes = new ArrayList<>(requests.size());
+        for (String request : requests) {
+            bytes.add(request.getBytes(StandardCharsets.US_ASCII));
+        }
+        return bytes;
+    }
+
+    // As a connection's engine would handle it, with the response going nowhere
+    private static void replay(Site site, byte[] request, ByteArrayOutputStream out) throws IOException {
+        HttpParser parser = HttpParser.fromConfig();
+        parser.feed(request, 0, request.length);
+        if (parser.parse(CLIENT) != HttpParser.Result.REQUEST) return;
+        HttpRequest parsed = parser.getRequest();
+        parsed.setSite(site);
+        out.reset();
+        RequestHandler.dispatch(parsed, out);
+    }
+}
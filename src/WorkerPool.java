@@ -0,0 +1,215 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.Method;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class WorkerPool implements Metrics.WorkerGauges {
+
+    public enum Mode {
+        THREAD,  // legacy: one new platform thread per connection, no limit
+        POOL,    // bounded pool of platform threads with a bounded queue
+        VIRTUAL  // one virtual thread per connection (JDK 21+), capped by a semaphore
+    }
+
+    private static final String OVERLOADED_BODY = "<h1>503 Service Unavailable</h1><p>Server is overloaded, please retry.</p>";
+    private static final byte[] OVERLOADED_RESPONSE = ("HTTP/1.1 503 Service Unavailable\r\n" +
+                                                      "Content-Type: text/html\r\n" +
+                                                      "Content-Length: " + OVERLOADED_BODY.length() + "\r\n" +
+                                                      "Retry-After: 1\r\n" +
+                                                      "Connection: close\r\n\r\n" +
+                                                      OVERLOADED_BODY).getBytes(StandardCharsets.UTF_8);
+
+    private final Mode mode;
+    private final int poolSize;
+    private final int queueCapacity;
+    private final ThreadPoolExecutor pool;      // POOL mode only
+    private final ExecutorService virtual;      // VIRTUAL mode only
+    private final Semaphore virtualPermits;     // VIRTUAL mode only
+
+    private final AtomicLong accepted = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicInteger active = new AtomicInteger();
+
+    private WorkerPool(Mode mode, int poolSize, int queueCapacity) {
+        this.poolSize = poolSize;
+        this.queueCapacity = queueCapacity;
+
+        ExecutorService virtualExecutor = null;
+        if (mode == Mode.VIRTUAL) {
+            virtualExecutor = newVirtualThreadExecutor();
+            if (virtualExecutor == null) {
+                Logger.log(Logger.Level.WARN, "Virtual threads require JDK 21+, falling back to bounded pool mode.");
+                mode = Mode.POOL;
+            }
+        }
+
+        this.mode = mode;
+        this.virtual = virtualExecutor;
+        this.virtualPermits = mode == Mode.VIRTUAL ? new Semaphore(poolSize + queueCapacity) : null;
+
+        if (mode == Mode.POOL) {
+            AtomicInteger threadIds = new AtomicInteger();
+            this.pool = new ThreadPoolExecutor(
+                poolSize, poolSize,
+                60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                r -> {
+                    Thread t = new Thread(r, "worker-" + threadIds.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                },
+                new ThreadPoolExecutor.AbortPolicy());
+            this.pool.allowCoreThreadTimeOut(true);
+        } else {
+            this.pool = null;
+        }
+    }
+
+    public static WorkerPool fromConfig() {
+        int cpus = Runtime.getRuntime().availableProcessors();
+        String modeName = ServerConfig.get("server.mode", "pool");
+        int poolSize = Math.max(1, ServerConfig.getInt("server.poolSize", cpus * 16));
+        int queueCapacity = Math.max(1, ServerConfig.getInt("server.queueCapacity", 256));
+
+        Mode mode;
+        try {
+            mode = Mode.valueOf(modeName.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            Logger.log(Logger.Level.WARN, "Unknown server.mode '" + modeName + "', using pool.");
+            mode = Mode.POOL;
+        }
+
+        WorkerPool workerPool = new WorkerPool(mode, poolSize, queueCapacity);
+        Logger.log(Logger.Level.INFO, "Worker mode: " + workerPool.mode +
+                   (workerPool.mode == Mode.THREAD ? "" : " (limit " + poolSize + ", queue " + queueCapacity + ")"));
+
+        int statsInterval = ServerConfig.getInt("server.statsIntervalSeconds", 60);
+        if (statsInterval > 0) workerPool.scheduleStatsLogging(statsInterval);
+        Metrics.registerWorkers("connections", workerPool);
+
+        return workerPool;
+    }
+
+    public void submit(Socket clientSocket, Site site) {
+        accepted.incrementAndGet();
+        Runnable task = track(new RequestHandler(clientSocket, site));
+
+        try {
+            switch (mode) {
+                case THREAD -> new Thread(task).start();
+                case POOL -> pool.execute(task);
+                case VIRTUAL -> {
+                    if (!virtualPermits.tryAcquire()) throw new RejectedExecutionException("virtual thread limit reached");
+                    try {
+                        virtual.execute(() -> {
+                            try {
+                                task.run();
+                            } finally {
+                                virtualPermits.release();
+                            }
+                        });
+                    } catch (RejectedExecutionException e) {
+                        virtualPermits.release();
+                        throw e;
+                    }
+                }
+            }
+        } catch (RejectedExecutionException e) {
+            reject(clientSocket);
+        }
+    }
+
+    private Runnable track(Runnable handler) {
+        return () -> {
+            active.incrementAndGet();
+            try {
+                handler.run();
+            } finally {
+                active.decrementAndGet();
+            }
+        };
+    }
+
+    private void reject(Socket clientSocket) {
+        long count = rejected.incrementAndGet();
+        Metrics.recordRejected(503);
+        ClientLimiter.getInstance().release(clientSocket.getInetAddress());
+        Logger.log(Logger.Level.WARN, "Server overloaded, rejecting " + clientSocket.getInetAddress() + " with 503 (total rejected: " + count + ")");
+
+        try (Socket s = clientSocket) {
+            OutputStream out = s.getOutputStream();
+            out.write(OVERLOADED_RESPONSE);
+            out.flush();
+        } catch (IOException e) {
+            Logger.log(Logger.Level.DEBUG, "Failed to send 503 to rejected client: " + e.getMessage());
+        }
+    }
+
+    private void scheduleStatsLogging(int intervalSeconds) {
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "worker-stats");
+            t.setDaemon(true);
+            return t;
+        });
+        scheduler.scheduleAtFixedRate(() -> {
+            Logger.log(Logger.Level.INFO, "Worker stats: " + stats());
+            for (Site site : Site.all()) {
+                Logger.log(Logger.Level.INFO, "File cache stats (port " + site.getPort() + "): " + site.getCache().stats());
+            }
+        }, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+    }
+
+    public Mode getMode() { return mode; }
+
+    public int getPoolSize() {
+        return pool != null ? pool.getPoolSize() : active.get();
+    }
+
+    public int getMaxPoolSize() {
+        return mode == Mode.THREAD ? -1 : poolSize;
+    }
+
+    public int getQueueDepth() {
+        return pool != null ? pool.getQueue().size() : 0;
+    }
+
+    public int getQueueCapacity() {
+        return mode == Mode.THREAD ? -1 : queueCapacity;
+    }
+
+    public int getActiveCount() { return active.get(); }
+
+    public long getAcceptedCount() { return accepted.get(); }
+
+    public long getRejectedCount() { return rejected.get(); }
+
+    public String stats() {
+        return "mode=" + mode +
+               " active=" + getActiveCount() +
+               " poolSize=" + getPoolSize() + "/" + getMaxPoolSize() +
+               " queue=" + getQueueDepth() + "/" + getQueueCapacity() +
+               " accepted=" + getAcceptedCount() +
+               " rejected=" + getRejectedCount();
+    }
+
+    // Looked up reflectively so the server still compiles and runs on JDK 17.
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+}